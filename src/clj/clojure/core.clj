@@ -1800,7 +1800,9 @@
                              (next (next vvs)))
                       (seq ret))))]
     `(let []
-       (push-thread-bindings (hash-map ~@(var-ize bindings)))
+       (push-thread-bindings ~(if (= 2 (count bindings))
+                                {`(var ~(first bindings)) (second bindings)}
+                                `(hash-map ~@(var-ize bindings))))
        (try
          ~@body
          (finally
@@ -1899,6 +1901,12 @@
 
   :error-mode mode-keyword
 
+  :queue-limit n
+
+  :overflow policy-keyword
+
+  :executor executor-or-name
+
   If metadata-map is supplied, it will become the metadata on the
   agent. validate-fn must be nil or a side-effect-free fn of one
   argument, which will be passed the intended new state on any state
@@ -1908,7 +1916,16 @@
   see set-error-handler! for details.  The mode-keyword may be either
   :continue (the default if an error-handler is given) or :fail (the
   default if no error-handler is given) -- see set-error-mode! for
-  details."
+  details.
+
+  If a queue-limit is given, a send to an agent already holding that
+  many queued actions is handled per the policy-keyword: :block (the
+  default) waits for room, :drop discards the action, and :error throws
+  a RejectedExecutionException. Sends made inside an action or
+  transaction are not blocked. If an executor is given, send and
+  send-off run the agent's actions on it; a keyword or other name is
+  looked up, at send time, among those registered with
+  register-agent-executor!."
   {:added "1.0"
    :static true
    }
@@ -1920,6 +1937,10 @@
          (.setErrorHandler a (:error-handler opts)))
        (.setErrorMode a (or (:error-mode opts)
                             (if (:error-handler opts) :continue :fail)))
+       (when (:queue-limit opts)
+         (.setQueueLimit a (:queue-limit opts) (or (:overflow opts) :block)))
+       (when (:executor opts)
+         (.setExecutor a (:executor opts)))
        a)))
 
 (defn set-agent-send-executor!
@@ -1929,10 +1950,33 @@
   (set! clojure.lang.Agent/pooledExecutor executor))
 
 (defn set-agent-send-off-executor!
-  "Sets the ExecutorService to be used by send-off"
+  "Sets the ExecutorService to be used by send-off, future and pmap.
+  Passing :virtual runs each of their tasks on a new virtual thread,
+  which needs JDK 21 or later. The same mode can be selected at startup
+  with -Dclojure.agent.send-off.virtual=true."
   {:added "1.5"}
   [executor]
-  (set! clojure.lang.Agent/soloExecutor executor))
+  (set! clojure.lang.Agent/soloExecutor
+        (if (= executor :virtual)
+          (clojure.lang.Agent/newVirtualThreadExecutor)
+          executor)))
+
+(defn register-agent-executor!
+  "Registers executor, a java.util.concurrent.Executor, under name so
+  agents created with :executor name run their actions on it. The
+  executor is shut down by shutdown-agents if it is an ExecutorService."
+  {:added "1.6"}
+  [name ^java.util.concurrent.Executor executor]
+  (clojure.lang.Agent/registerExecutor name executor))
+
+(defn agent-metrics
+  "Returns a map of counters for agent a: :queue-depth,
+  :max-queue-depth, :actions completed, :dropped and :blocked sends, and
+  the total :queue-wait-nanos and :run-nanos of its actions. Returns nil
+  unless the JVM was started with -Dclojure.agent.metrics=true."
+  {:added "1.6"}
+  [^clojure.lang.Agent a]
+  (.getMetrics a))
 
 (defn send-via
   "Dispatch an action to an agent. Returns the agent immediately.
@@ -1953,7 +1997,7 @@
   {:added "1.0"
    :static true}
   [^clojure.lang.Agent a f & args]
-  (apply send-via clojure.lang.Agent/pooledExecutor a f args))
+  (apply send-via (.getExecutor a clojure.lang.Agent/pooledExecutor) a f args))
 
 (defn send-off
   "Dispatch a potentially blocking action to an agent. Returns the
@@ -1964,7 +2008,7 @@
   {:added "1.0"
    :static true}
   [^clojure.lang.Agent a f & args]
-  (apply send-via clojure.lang.Agent/soloExecutor a f args))
+  (apply send-via (.getExecutor a clojure.lang.Agent/soloExecutor) a f args))
 
 (defn release-pending-sends
   "Normally, actions sent directly or indirectly during another action
@@ -2304,6 +2348,26 @@
   ([^clojure.lang.Ref ref n]
     (.setMaxHistory ref n)))
 
+(defn ref-metrics
+  "Returns a map of the STM counters kept for ref: :retries (by cause),
+  :barge-attempts, :barges and :lock-wait-nanos. Returns nil unless the
+  JVM was started with -Dclojure.stm.metrics=true."
+  {:added "1.6"}
+  [^clojure.lang.Ref ref]
+    (.getMetrics ref))
+
+(defn stm-metrics
+  "Returns a map of the global STM counters: :transactions, :commits,
+  :retries (by cause, one of :lock-timeout :write-conflict :writer-running
+  :barged :history-fault), :barge-attempts, :barges, :history-faults,
+  :lock-wait-nanos and :commit-latency-usecs, a sorted map of bucket upper
+  bound to count. Returns nil unless the JVM was started with
+  -Dclojure.stm.metrics=true, in which case the same counters are
+  published over JMX as clojure:type=STM."
+  {:added "1.6"}
+  []
+    (clojure.lang.STMMetrics/snapshot))
+
 (defn ensure
   "Must be called in a transaction. Protects the ref from modification
   by other transactions.  Returns the in-transaction-value of
@@ -2689,20 +2753,23 @@
   ([end] (range 0 end 1))
   ([start end] (range start end 1))
   ([start end step]
-   (lazy-seq
-    (let [b (chunk-buffer 32)
-          comp (cond (or (zero? step) (= start end)) not=
-                     (pos? step) <
-                     (neg? step) >)]
-      (loop [i start]
-        (if (and (< (count b) 32)
-                 (comp i end))
-          (do
-            (chunk-append b i)
-            (recur (+ i step)))
-          (chunk-cons (chunk b) 
-                      (when (comp i end) 
-                        (range i end step)))))))))
+   (or
+    (when (and (instance? Long start) (instance? Long end) (instance? Long step))
+      (clojure.lang.LongRange/create start end step))
+    (lazy-seq
+     (let [b (chunk-buffer 32)
+           comp (cond (or (zero? step) (= start end)) not=
+                      (pos? step) <
+                      (neg? step) >)]
+       (loop [i start]
+         (if (and (< (count b) 32)
+                  (comp i end))
+           (do
+             (chunk-append b i)
+             (recur (+ i step)))
+           (chunk-cons (chunk b) 
+                       (when (comp i end) 
+                         (range i end step))))))))))
 
 (defn merge
   "Returns a map that consists of the rest of the maps conj-ed onto
@@ -2953,8 +3020,8 @@
       (throw (new Exception "Can't await in agent action")))
     (let [latch (new java.util.concurrent.CountDownLatch (count agents))
           count-down (fn [agent] (. latch (countDown)) agent)]
-      (doseq [agent agents]
-        (send agent count-down))
+      (doseq [^clojure.lang.Agent agent agents]
+        (.dispatchUnbounded agent count-down nil (.getExecutor agent clojure.lang.Agent/pooledExecutor)))
       (. latch (await)))))
 
 (defn ^:static await1 [^clojure.lang.Agent a]
@@ -2975,8 +3042,8 @@
        (throw (new Exception "Can't await in agent action")))
      (let [latch (new java.util.concurrent.CountDownLatch (count agents))
            count-down (fn [agent] (. latch (countDown)) agent)]
-       (doseq [agent agents]
-           (send agent count-down))
+       (doseq [^clojure.lang.Agent agent agents]
+           (.dispatchUnbounded agent count-down nil (.getExecutor agent clojure.lang.Agent/pooledExecutor)))
        (. latch (await  timeout-ms (. java.util.concurrent.TimeUnit MILLISECONDS))))))
 
 (defmacro dotimes
@@ -5309,6 +5376,13 @@
      "True while a verbose load is pending"}
   *loading-verbosely* false)
 
+(defonce ^:dynamic
+  ^{:private true :doc
+     "While a parallel require is running on this thread, a map holding the
+     :claims of the libs being loaded, lib to [thread latch], and the :waits
+     of threads waiting for another thread's load, thread to lib"}
+  *parallel-loads* nil)
+
 (defn- throw-if
   "Throws a CompilerException with a message if pred is true"
   [pred fmt & args]
@@ -5383,6 +5457,54 @@
               (load-one lib need-ns require)
               @*loaded-libs*))))
 
+(defn- claim-cycle
+  "Returns the chain of libs, starting with lib, that leads from lib's
+  claim back to the current thread through other waiting threads, or nil"
+  [^java.util.Map claims ^java.util.Map waits lib]
+  (let [me (Thread/currentThread)]
+    (loop [lib lib chain [lib]]
+      (let [[owner ^java.util.concurrent.CountDownLatch latch] (.get claims lib)]
+        (cond
+         (or (nil? owner) (zero? (.getCount latch))) nil
+         (identical? owner me) chain
+         :else (when-let [next-lib (.get waits owner)]
+                 (when-not (some #{next-lib} chain)
+                   (recur next-lib (conj chain next-lib)))))))))
+
+(defn- load-claimed
+  "Calls load on lib, unless a parallel require is loading lib on another
+  thread, in which case waits for that load to finish instead. A wait
+  that would deadlock is a cyclic load dependency."
+  [load lib need-ns require]
+  (if-let [{:keys [^java.util.Map claims ^java.util.Map waits]} *parallel-loads*]
+    (let [me (Thread/currentThread)
+          latch (java.util.concurrent.CountDownLatch. 1)]
+      (loop []
+        (if-let [[owner ^java.util.concurrent.CountDownLatch owner-latch]
+                 (.putIfAbsent ^java.util.concurrent.ConcurrentMap claims lib [me latch])]
+          (if (identical? owner me)
+            (load lib need-ns require)
+            (do
+              (.put waits me lib)
+              (try
+                (let [chain (claim-cycle claims waits lib)]
+                  (throw-if chain "Cyclic load dependency: %s"
+                            (apply str (interpose "->" (map root-resource chain)))))
+                (.await owner-latch)
+                (finally
+                  (.remove waits me)))
+              ;a failed load drops its claim, so retry it here
+              (when-not (.containsKey claims lib)
+                (recur))))
+          (try
+            (load lib need-ns require)
+            (catch Throwable t
+              (.remove claims lib)
+              (throw t))
+            (finally
+              (.countDown latch))))))
+    (load lib need-ns require)))
+
 (defn- load-lib
   "Loads a lib with options"
   [prefix lib & options]
@@ -5403,7 +5525,7 @@
     (binding [*loading-verbosely* (or *loading-verbosely* verbose)]
       (if load
         (try
-          (load lib need-ns require)
+          (load-claimed load lib need-ns require)
           (catch Exception e
             (when undefined-on-entry
               (remove-ns lib))
@@ -5424,6 +5546,106 @@
           (printf ")\n"))
         (apply refer lib (mapcat seq filter-opts))))))
 
+(defn- libspec-libs
+  "Returns the names of the libs identified by libspecs and prefix lists"
+  [args]
+  (let [lib-name #(if (symbol? %) % (first %))]
+    (mapcat (fn [arg]
+              (if (libspec? arg)
+                [(lib-name arg)]
+                (let [[prefix & args] arg]
+                  (when prefix
+                    (map #(symbol (str prefix \. (lib-name %))) args)))))
+            (remove keyword? args))))
+
+(defn- ns-form-deps
+  "Reads the ns form at the head of lib's source and returns the libs it
+  requires or uses. Returns nil if there is no source or it doesn't start
+  with a readable ns form."
+  [lib]
+  (when-let [url (.getResource (clojure.lang.RT/baseLoader)
+                               (str (subs (root-resource lib) 1) ".clj"))]
+    (try
+      (with-open [r (clojure.lang.LineNumberingPushbackReader.
+                     (java.io.InputStreamReader. (.openStream url) "UTF-8"))]
+        (let [form (binding [*read-eval* false] (read r false nil))]
+          (when (and (seq? form) ('#{ns clojure.core/ns} (first form)))
+            (doall
+             (filter symbol?
+                     (libspec-libs
+                      (mapcat #(when (and (seq? %) (#{:require :use} (first %)))
+                                 (rest %))
+                              (nnext form))))))))
+      (catch Exception e nil))))
+
+(defn- load-libs-parallel
+  "Loads libs and the unloaded libs their ns forms require or use, each lib
+  on a pool thread once the libs it depends on have loaded. The dependency
+  graph is read up front from ns forms only, so requires elsewhere in a
+  lib's source load on the thread that reaches them, coordinated with the
+  other threads by load-claimed. Libs left unloaded by a cycle in the graph
+  are left to the serial load that follows. When verbose, prints the time
+  each lib took to load."
+  [libs verbose]
+  (let [loaded? #(contains? @*loaded-libs* %)
+        deps (loop [deps {} todo (into1 () libs)]
+               (if-let [lib (peek todo)]
+                 (if (or (contains? deps lib) (loaded? lib))
+                   (recur deps (pop todo))
+                   (let [ds (disj (set (remove loaded? (ns-form-deps lib))) lib)]
+                     (recur (assoc deps lib ds) (into1 (pop todo) ds))))
+                 deps))
+        pending (into1 {} (for [[lib ds] deps]
+                           [lib (java.util.concurrent.atomic.AtomicInteger.
+                                 (count (filter deps ds)))]))
+        dependents (apply merge-with into1 {} (for [[lib ds] deps d ds] {d [lib]}))
+        results (java.util.concurrent.LinkedBlockingQueue.)
+        parallel-loads {:claims (java.util.concurrent.ConcurrentHashMap.)
+                        :waits (java.util.concurrent.ConcurrentHashMap.)}
+        pool (java.util.concurrent.Executors/newFixedThreadPool
+              (max 1 (min (count deps) (.availableProcessors (Runtime/getRuntime)))))
+        ns *ns*
+        submit (fn [lib]
+                 (.execute pool
+                           (binding-conveyor-fn
+                            (fn []
+                              (.put results
+                                    (let [start (System/nanoTime)]
+                                      (try
+                                        (binding [*ns* ns
+                                                  *pending-paths* ()
+                                                  *parallel-loads* parallel-loads]
+                                          (load-lib nil lib :require true :verbose verbose))
+                                        {:lib lib
+                                         :start start
+                                         :nanos (- (System/nanoTime) start)
+                                         :thread (.getName (Thread/currentThread))}
+                                        (catch Throwable t
+                                          {:lib lib :error t}))))))))
+        roots (doall (filter #(zero? (.get ^java.util.concurrent.atomic.AtomicInteger (pending %)))
+                             (keys deps)))]
+    (try
+      (doseq [lib roots] (submit lib))
+      ;on a failure stop starting loads, but let running ones finish
+      (let [timings (loop [running (count roots) timings [] error nil]
+                      (if (zero? running)
+                        (if error (throw error) timings)
+                        (let [{:keys [lib] :as r} (.take results)]
+                          (if (:error r)
+                            (recur (dec running) timings (or error (:error r)))
+                            (let [ready (when-not error
+                                          (doall (filter #(zero? (.decrementAndGet
+                                                                  ^java.util.concurrent.atomic.AtomicInteger (pending %)))
+                                                         (dependents lib))))]
+                              (doseq [lib ready] (submit lib))
+                              (recur (+ (dec running) (count ready)) (conj timings r) error))))))]
+        (when verbose
+          (doseq [{:keys [lib nanos thread]} (sort-by :start timings)]
+            (printf ";; loaded %s in %.1f msecs on %s\n" lib (/ nanos 1e6) thread))
+          (flush)))
+      (finally
+        (.shutdown pool)))))
+
 (defn- load-libs
   "Loads libs, interpreting libspecs, prefix lists, and flags for
   forwarding to load-lib"
@@ -5432,13 +5654,18 @@
         opts (interleave flags (repeat true))
         args (filter (complement keyword?) args)]
     ; check for unsupported options
-    (let [supported #{:as :reload :reload-all :require :use :verbose :refer}
+    (let [supported #{:as :reload :reload-all :require :use :verbose :refer :parallel}
           unsupported (seq (remove supported flags))]
       (throw-if unsupported
                 (apply str "Unsupported option(s) supplied: "
                      (interpose \, unsupported))))
     ; check a load target was specified
     (throw-if (not (seq args)) "Nothing specified to load")
+    (when (and (some #{:parallel} flags)
+               (not-any? #{:reload :reload-all} flags)
+               (not *parallel-loads*)
+               (not *compile-files*))
+      (load-libs-parallel (libspec-libs args) (some #{:verbose} flags)))
     (doseq [arg args]
       (if (libspec? arg)
         (apply load-lib nil (prependss arg opts))
@@ -5508,12 +5735,16 @@
   Flags
 
   A flag is a keyword.
-  Recognized flags: :reload, :reload-all, :verbose
+  Recognized flags: :reload, :reload-all, :verbose, :parallel
   :reload forces loading of all the identified libs even if they are
     already loaded
   :reload-all implies :reload and also forces loading of all libs that the
     identified libs directly or indirectly load via require or use
   :verbose triggers printing information about each load, alias, and refer
+  :parallel reads the ns forms of the identified libs and the libs they
+    require or use, then loads libs whose dependencies have loaded
+    concurrently on a pool of threads. With :verbose, also prints the time
+    each lib took. Ignored with :reload, :reload-all and when compiling
 
   Example:
 
@@ -5859,9 +6090,30 @@
   Supported options:
   :elide-meta - a collection of metadata keys to elide during compilation.
   :disable-locals-clearing - set to true to disable clearing, useful for using a debugger
+  :direct-linking - set to true to compile calls to vars bound to fns as static calls,
+                    except for vars marked ^:dynamic or ^:redef, so redefining the fn
+                    is not seen by code compiled against it
   Alpha, subject to change."
   {:added "1.4"})
 
+(add-doc-and-meta *compiler-diagnostics*
+  "When bound to a fn, the compiler calls it with a map for each piece of
+  code it compiles to reflection or boxing, whether or not any warning is
+  printed. Each map has the :kind, the :expr class that found it, the
+  :file, :line and :column, and a :message. Kinds are:
+  :reflection - a method, ctor or field that can't be resolved
+  :boxed-math - a call to a clojure.lang.Numbers op on boxed numbers
+  :boxed-loop-local - a primitive loop local boxed to fit a recur arg
+  :uninferred-loop-local - a loop local with no inferred type
+  :rest-fn-call - a call of a var's variadic fn packing args into a seq
+  For example:
+    (let [found (atom [])]
+      (binding [*compiler-diagnostics* #(swap! found conj %)]
+        (require 'my.lib :reload))
+      @found)
+  Defaults to nil. Alpha, subject to change."
+  {:added "1.6"})
+
 (add-doc-and-meta *ns*
   "A clojure.lang.Namespace object representing the current namespace."
   {:added "1.0"})
@@ -6006,6 +6258,12 @@
                   shift (range 0 31)]
               [shift mask]))))
 
+(defn- case-hash
+  "The hash case* switches on at runtime. Uses Util/hash rather than hash so
+  the tables do not depend on how hasheq is configured when they are built."
+  [x]
+  (clojure.lang.Util/hash x))
+
 (defn- case-map
   "Transforms a sequence of test constants and a corresponding sequence of then
   expressions into a sorted map to be consumed by case*. The form of the map
@@ -6056,7 +6314,7 @@
   (let [buckets (loop [m {} ks tests vs thens]
                   (if (and ks vs)
                     (recur
-                      (update-in m [(hash (first ks))] (fnil conj []) [(first ks) (first vs)])
+                      (update-in m [(case-hash (first ks))] (fnil conj []) [(first ks) (first vs)])
                       (next ks) (next vs))
                     m))
         assoc-multi (fn [m h bucket]
@@ -6083,17 +6341,17 @@
   post-switch equivalence checking must not be done (occurs with hash
   collisions)."
   [expr-sym default tests thens]
-  (let [hashes (into1 #{} (map hash tests))]
+  (let [hashes (into1 #{} (map case-hash tests))]
     (if (== (count tests) (count hashes))
       (if (fits-table? hashes)
         ; compact case ints, no shift-mask
-        [0 0 (case-map hash identity tests thens) :compact]
+        [0 0 (case-map case-hash identity tests thens) :compact]
         (let [[shift mask] (or (maybe-min-hash hashes) [0 0])]
           (if (zero? mask)
             ; sparse case ints, no shift-mask
-            [0 0 (case-map hash identity tests thens) :sparse]
+            [0 0 (case-map case-hash identity tests thens) :sparse]
             ; compact case ints, with shift-mask
-            [shift mask (case-map #(shift-mask shift mask (hash %)) identity tests thens) :compact])))
+            [shift mask (case-map #(shift-mask shift mask (case-hash %)) identity tests thens) :compact])))
       ; resolve hash collisions and try again
       (let [[tests thens skip-check] (merge-hash-collisions expr-sym default tests thens)
             [shift mask case-map switch-type] (prep-hashes expr-sym default tests thens)
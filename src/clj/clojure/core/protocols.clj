@@ -47,6 +47,11 @@
    ([coll f] (seq-reduce coll f))
    ([coll f val] (seq-reduce coll f val)))
 
+  clojure.lang.LongRange
+  (coll-reduce
+   ([coll f] (.reduce coll f))
+   ([coll f val] (.reduce coll f val)))
+
   ;;for range
   clojure.lang.LazySeq
   (coll-reduce
@@ -361,7 +361,13 @@
   [v n combinef reducef]
   (foldvec v n combinef reducef))
 
- clojure.lang.PersistentHashMap
+ clojure.lang.IFold
  (coll-fold
-  [m n combinef reducef]
-  (.fold m n combinef reducef fjinvoke fjtask fjfork fjjoin)))
+  [coll n combinef reducef]
+  (.fold coll n combinef reducef fjinvoke fjtask fjfork fjjoin))
+
+ ;;also an IPersistentVector, so name the class to prefer splitting the trie
+ clojure.lang.PersistentVector
+ (coll-fold
+  [v n combinef reducef]
+  (.fold v n combinef reducef fjinvoke fjtask fjfork fjjoin)))
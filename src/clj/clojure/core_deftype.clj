@@ -466,23 +466,6 @@
 
 ;;;;;;;;;;;;;;;;;;;;;;; protocols ;;;;;;;;;;;;;;;;;;;;;;;;
 
-(defn- expand-method-impl-cache [^clojure.lang.MethodImplCache cache c f]
-  (if (.map cache)
-    (let [cs (assoc (.map cache) c (clojure.lang.MethodImplCache$Entry. c f))]
-      (clojure.lang.MethodImplCache. (.protocol cache) (.methodk cache) cs))
-    (let [cs (into1 {} (remove (fn [[c e]] (nil? e)) (map vec (partition 2 (.table cache)))))
-          cs (assoc cs c (clojure.lang.MethodImplCache$Entry. c f))]
-      (if-let [[shift mask] (maybe-min-hash (map hash (keys cs)))]
-        (let [table (make-array Object (* 2 (inc mask)))
-              table (reduce1 (fn [^objects t [c e]]
-                               (let [i (* 2 (int (shift-mask shift mask (hash c))))]
-                                 (aset t i c)
-                                 (aset t (inc i) e)
-                                 t))
-                             table cs)]
-          (clojure.lang.MethodImplCache. (.protocol cache) (.methodk cache) shift mask table))
-        (clojure.lang.MethodImplCache. (.protocol cache) (.methodk cache) cs)))))
-
 (defn- super-chain [^Class c]
   (when c
     (cons c (super-chain (.getSuperclass c)))))
@@ -542,7 +525,7 @@
       (throw (IllegalArgumentException. (str "No implementation of method: " (.methodk cache) 
                                              " of protocol: " (:var (.protocol cache)) 
                                              " found for class: " (if (nil? x) "nil" (.getName (class x)))))))
-    (set! (.__methodImplCache pf) (expand-method-impl-cache cache (class x) f))
+    (.cache cache (class x) f)
     f))
 
 (defn- emit-method-builder [on-interface method on-method arglists]
@@ -121,12 +121,15 @@ public int hasheq(){
 
 static public int mapHasheq(IPersistentMap m) {
 	int hash = 0;
-	for(ISeq s = m.seq(); s != null; s = s.next())
+	int n = 0;
+	for(ISeq s = m.seq(); s != null; s = s.next(), ++n)
 		{
 		Map.Entry e = (Map.Entry) s.first();
 		hash += Util.hasheq(e.getKey()) ^
 				Util.hasheq(e.getValue());
 		}
+	if(Util.murmur3Hash)
+		return Murmur3.mixCollHash(hash, n);
 	return hash;
 }
 
@@ -17,7 +17,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.Set;
 
-public abstract class APersistentSet extends AFn implements IPersistentSet, Collection, Set, Serializable, IHashEq {
+public abstract class APersistentSet extends AFn implements IPersistentSet, Collection, Set, Serializable, IHashEq, IFold {
 int _hash = -1;
 int _hasheq = -1;
 final IPersistentMap impl;
@@ -46,6 +46,28 @@ public ISeq seq(){
 	return RT.keys(impl);
 }
 
+public Object fold(long n, IFn combinef, final IFn reducef,
+                   IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin){
+	if(impl instanceof IFold)
+		{
+		//the backing map is key->key, drop the val
+		IFn keyReducef = new AFn(){
+			public Object invoke(Object acc, Object key, Object val){
+				return reducef.invoke(acc, key);
+			}
+		};
+		return ((IFold) impl).fold(n, combinef, keyReducef, fjinvoke, fjtask, fjfork, fjjoin);
+		}
+	Object ret = combinef.invoke();
+	for(ISeq s = seq(); s != null; s = s.next())
+		{
+		ret = reducef.invoke(ret, s.first());
+		if(RT.isReduced(ret))
+			return ((IDeref) ret).deref();
+		}
+	return ret;
+}
+
 public Object invoke(Object arg1) {
 	return get(arg1);
 }
@@ -114,6 +136,8 @@ public int hasheq(){
 			Object e = s.first();
 			hash +=  Util.hasheq(e);
 			}
+		if(Util.murmur3Hash)
+			hash = Murmur3.mixCollHash(hash, count());
 		this._hasheq = hash;		
 	}
 	return _hasheq;		
@@ -162,6 +162,8 @@ public int hasheq(){
 		Object obj = i.next();
 		hash = 31 * hash + Util.hasheq(obj);
 		}
+	if(Util.murmur3Hash)
+		hash = Murmur3.mixCollHash(hash, count());
 	_hasheq = hash;
 	}
 	return _hasheq;
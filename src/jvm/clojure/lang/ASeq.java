@@ -78,10 +78,13 @@ public int hasheq(){
 	if(_hasheq == -1)
 		{
 		int hash = 1;
-		for(ISeq s = seq(); s != null; s = s.next())
+		int n = 0;
+		for(ISeq s = seq(); s != null; s = s.next(), ++n)
 			{
 			hash = 31 * hash + Util.hasheq(s.first());
 			}
+		if(Util.murmur3Hash)
+			hash = Murmur3.mixCollHash(hash, n);
 		this._hasheq = hash;
 		}
 	return _hasheq;
@@ -12,10 +12,17 @@
 
 package clojure.lang;
 
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -36,12 +43,27 @@ static class ActionQueue {
 static final Keyword CONTINUE = Keyword.intern(null, "continue");
 static final Keyword FAIL = Keyword.intern(null, "fail");
 
+static final Keyword BLOCK = Keyword.intern(null, "block");
+static final Keyword DROP = Keyword.intern(null, "drop");
+static final Keyword ERROR = Keyword.intern(null, "error");
+
+//-Dclojure.agent.metrics=true keeps queue depth and action latency counters per agent
+static final boolean metricsEnabled = System.getProperty("clojure.agent.metrics", "false").equals("true");
+
 volatile Object state;
     AtomicReference<ActionQueue> aq = new AtomicReference<ActionQueue>(ActionQueue.EMPTY);
 
     volatile Keyword errorMode = CONTINUE;
     volatile IFn errorHandler = null;
 
+    //0 is unbounded, past the limit dispatch blocks, drops or throws per overflowPolicy
+    volatile int queueLimit = 0;
+    volatile Keyword overflowPolicy = BLOCK;
+    //an Executor, or the name of one registered with registerExecutor. null uses the
+    //executor passed to send-via, which for send and send-off is the pooled or solo one
+    volatile Object executor = null;
+    final Metrics metrics = metricsEnabled ? new Metrics() : null;
+
 final private static AtomicLong sendThreadPoolCounter = new AtomicLong(0);
 
 final private static AtomicLong sendOffThreadPoolCounter = new AtomicLong(0);
@@ -50,11 +72,72 @@ volatile public static ExecutorService pooledExecutor =
 	Executors.newFixedThreadPool(2 + Runtime.getRuntime().availableProcessors(), 
 		createThreadFactory("clojure-agent-send-pool-%d", sendThreadPoolCounter));
 
-volatile public static ExecutorService soloExecutor = Executors.newCachedThreadPool(
-	createThreadFactory("clojure-agent-send-off-pool-%d", sendOffThreadPoolCounter));
+//-Dclojure.agent.send-off.max-threads=n caps the send-off (and future) pool, further
+//actions wait in its queue instead of each getting a thread. Actions that block on
+//each other can deadlock a capped pool.
+//-Dclojure.agent.send-off.virtual=true instead runs each one on a new virtual thread,
+//on JDK 21+; older JVMs warn and keep the platform thread pool.
+volatile public static ExecutorService soloExecutor = createSoloExecutor(
+	Integer.getInteger("clojure.agent.send-off.max-threads", 0),
+	Boolean.getBoolean("clojure.agent.send-off.virtual"));
+
+final static ConcurrentHashMap<Object, Executor> executors = new ConcurrentHashMap<Object, Executor>();
 
 final static ThreadLocal<IPersistentVector> nested = new ThreadLocal<IPersistentVector>();
 
+private static ExecutorService createSoloExecutor(int maxThreads, boolean virtual){
+	if(virtual)
+		{
+		try
+			{
+			return newVirtualThreadExecutor();
+			}
+		catch(UnsupportedOperationException e)
+			{
+			System.err.println("WARNING: clojure.agent.send-off.virtual ignored, " + e.getMessage());
+			}
+		}
+	ThreadFactory factory = createThreadFactory("clojure-agent-send-off-pool-%d", sendOffThreadPoolCounter);
+	if(maxThreads <= 0)
+		return Executors.newCachedThreadPool(factory);
+	ThreadPoolExecutor exec = new ThreadPoolExecutor(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+	                                                 new LinkedBlockingQueue<Runnable>(), factory);
+	exec.allowCoreThreadTimeOut(true);
+	return exec;
+}
+
+//Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(...).factory()), looked up
+//reflectively so this still compiles and runs on older JDKs
+static public ExecutorService newVirtualThreadExecutor(){
+	try
+		{
+		Class builderClass = Class.forName("java.lang.Thread$Builder");
+		Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+		builder = builderClass.getMethod("name", String.class, long.class)
+				.invoke(builder, "clojure-agent-send-off-virtual-", 0L);
+		ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+				.invoke(null, factory);
+		}
+	catch(ClassNotFoundException e)
+		{
+		throw new UnsupportedOperationException("virtual threads need JDK 21 or later");
+		}
+	catch(NoSuchMethodException e)
+		{
+		throw new UnsupportedOperationException("virtual threads need JDK 21 or later");
+		}
+	catch(InvocationTargetException e)
+		{
+		//JDK 19 and 20 without --enable-preview
+		throw new UnsupportedOperationException("virtual threads unavailable: " + e.getCause());
+		}
+	catch(IllegalAccessException e)
+		{
+		throw Util.sneakyThrow(e);
+		}
+}
+
 private static ThreadFactory createThreadFactory(final String format, final AtomicLong threadPoolCounter) {
 	return new ThreadFactory() {
 		public Thread newThread(Runnable runnable) {
@@ -68,6 +151,34 @@ private static ThreadFactory createThreadFactory(final String format, final Atom
 public static void shutdown(){
 	soloExecutor.shutdown();
 	pooledExecutor.shutdown();
+	for(Executor e : executors.values())
+		{
+		if(e instanceof ExecutorService)
+			((ExecutorService) e).shutdown();
+		}
+}
+
+static public void registerExecutor(Object name, Executor exec){
+	executors.put(name, exec);
+}
+
+static public Executor namedExecutor(Object name){
+	return executors.get(name);
+}
+
+static final class Metrics{
+	final AtomicLong actions = new AtomicLong();
+	final AtomicLong dropped = new AtomicLong();
+	final AtomicLong blocked = new AtomicLong();
+	final AtomicLong queueWaitNanos = new AtomicLong();
+	final AtomicLong runNanos = new AtomicLong();
+	final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+	void queued(int depth){
+		int max;
+		while(depth > (max = maxQueueDepth.get()) && !maxQueueDepth.compareAndSet(max, depth))
+			;
+	}
 }
 
 static class Action implements Runnable{
@@ -75,6 +186,7 @@ static class Action implements Runnable{
 	final IFn fn;
 	final ISeq args;
 	final Executor exec;
+	final long dispatched;
 
 
 	public Action(Agent agent, IFn fn, ISeq args, Executor exec){
@@ -82,6 +194,7 @@ static class Action implements Runnable{
 		this.args = args;
 		this.fn = fn;
 		this.exec = exec;
+		this.dispatched = agent.metrics != null ? System.nanoTime() : 0;
 	}
 
 	void execute(){
@@ -103,6 +216,13 @@ static class Action implements Runnable{
 	}
 
 	static void doRun(Action action){
+		Metrics metrics = action.agent.metrics;
+		long start = 0;
+		if(metrics != null)
+			{
+			start = System.nanoTime();
+			metrics.queueWaitNanos.addAndGet(start - action.dispatched);
+			}
 		try
 			{
 			nested.set(PersistentVector.EMPTY);
@@ -150,6 +270,20 @@ static class Action implements Runnable{
 				popped = action.agent.aq.compareAndSet(prior, next);
 				}
 
+			if(metrics != null)
+				{
+				metrics.actions.incrementAndGet();
+				metrics.runNanos.addAndGet(System.nanoTime() - start);
+				}
+			int limit = action.agent.queueLimit;
+			if(limit > 0 && (next.q.count() < limit || error != null))
+				{
+				synchronized(action.agent)
+					{
+					action.agent.notifyAll();
+					}
+				}
+
 			if(error == null && next.q.count() > 0)
 				((Action) next.q.peek()).execute();
 			}
@@ -213,7 +347,10 @@ synchronized public Object restart(Object newState, boolean clearActions){
 	state = newState;
 
 	if(clearActions)
+		{
 		aq.set(ActionQueue.EMPTY);
+		notifyAll();
+		}
 	else
 		{
 		boolean restarted = false;
@@ -232,6 +369,32 @@ synchronized public Object restart(Object newState, boolean clearActions){
 }
 
 public Object dispatch(IFn fn, ISeq args, Executor exec) {
+	if(queueLimit == 0)
+		return dispatchUnbounded(fn, args, exec);
+	Throwable error = getError();
+	if(error != null)
+		{
+		throw Util.runtimeException("Agent is failed, needs restart", error);
+		}
+	Action action = new Action(this, fn, args, exec);
+	//sends held by a running action or transaction aren't counted until they are released,
+	//and are never blocked, since that could deadlock agents sending to each other
+	if(nested.get() != null || LockingTransaction.isRunning())
+		{
+		if(aq.get().q.count() < queueLimit || overflow(false))
+			dispatchAction(action);
+		return this;
+		}
+	while(!enqueue(action, true))
+		{
+		if(!overflow(true))
+			break;
+		}
+	return this;
+}
+
+//for await's marker action, which has to get in even when the queue is full
+public Object dispatchUnbounded(IFn fn, ISeq args, Executor exec) {
 	Throwable error = getError();
 	if(error != null)
 		{
@@ -243,6 +406,89 @@ public Object dispatch(IFn fn, ISeq args, Executor exec) {
 	return this;
 }
 
+//applies the overflow policy to a send that found the queue at its limit. false drops it,
+//true tries it again, when blocking once there is room
+private boolean overflow(boolean block){
+	Keyword policy = overflowPolicy;
+	if(policy == DROP)
+		{
+		if(metrics != null)
+			metrics.dropped.incrementAndGet();
+		return false;
+		}
+	if(policy == ERROR)
+		throw new RejectedExecutionException("Agent queue is full, limit is " + queueLimit);
+	if(!block)
+		return true;
+	if(metrics != null)
+		metrics.blocked.incrementAndGet();
+	synchronized(this)
+		{
+		while(queueLimit > 0 && aq.get().q.count() >= queueLimit && getError() == null)
+			{
+			try
+				{
+				wait();
+				}
+			catch(InterruptedException e)
+				{
+				throw Util.sneakyThrow(e);
+				}
+			}
+		}
+	Throwable error = getError();
+	if(error != null)
+		{
+		throw Util.runtimeException("Agent is failed, needs restart", error);
+		}
+	return true;
+}
+
+synchronized public void setQueueLimit(int limit, Keyword policy){
+	if(policy != BLOCK && policy != DROP && policy != ERROR)
+		throw new IllegalArgumentException("Overflow policy must be :block, :drop or :error, not " + policy);
+	overflowPolicy = policy;
+	queueLimit = limit;
+	notifyAll();
+}
+
+public int getQueueLimit(){
+	return queueLimit;
+}
+
+public Keyword getOverflowPolicy(){
+	return overflowPolicy;
+}
+
+public void setExecutor(Object exec){
+	executor = exec;
+}
+
+//the executor this agent is assigned to, or dflt
+public Executor getExecutor(Executor dflt){
+	Object e = executor;
+	if(e == null)
+		return dflt;
+	if(e instanceof Executor)
+		return (Executor) e;
+	Executor named = executors.get(e);
+	if(named == null)
+		throw new IllegalStateException("No agent executor registered as " + e);
+	return named;
+}
+
+public IPersistentMap getMetrics(){
+	if(metrics == null)
+		return null;
+	return RT.map(Keyword.intern(null, "queue-depth"), getQueueCount(),
+	              Keyword.intern(null, "max-queue-depth"), metrics.maxQueueDepth.get(),
+	              Keyword.intern(null, "actions"), metrics.actions.get(),
+	              Keyword.intern(null, "dropped"), metrics.dropped.get(),
+	              Keyword.intern(null, "blocked"), metrics.blocked.get(),
+	              Keyword.intern(null, "queue-wait-nanos"), metrics.queueWaitNanos.get(),
+	              Keyword.intern(null, "run-nanos"), metrics.runNanos.get());
+}
+
 static void dispatchAction(Action action){
 	LockingTransaction trans = LockingTransaction.getRunning();
 	if(trans != null)
@@ -256,16 +502,28 @@ static void dispatchAction(Action action){
 }
 
 void enqueue(Action action){
+	enqueue(action, false);
+}
+
+//when bounded, false if the queue is at its limit. The check and the cons are one CAS,
+//so senders racing for the last slot can't both take it
+boolean enqueue(Action action, boolean bounded){
 	boolean queued = false;
 	ActionQueue prior = null;
 	while(!queued)
 		{
 		prior = aq.get();
+		int limit = queueLimit;
+		if(bounded && limit > 0 && prior.q.count() >= limit)
+			return false;
 		queued = aq.compareAndSet(prior, new ActionQueue((IPersistentStack)prior.q.cons(action), prior.error));
 		}
+	if(metrics != null)
+		metrics.queued(prior.q.count() + 1);
 
 	if(prior.q.count() == 0 && prior.error == null)
 		action.execute();
+	return true;
 }
 
 public int getQueueCount(){
@@ -11,6 +11,7 @@
 
 package clojure.lang;
 
+import java.io.FileOutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.IOException;
@@ -28,12 +29,14 @@ public class Compile{
 private static final String PATH_PROP = "clojure.compile.path";
 private static final String REFLECTION_WARNING_PROP = "clojure.compile.warn-on-reflection";
 private static final String UNCHECKED_MATH_PROP = "clojure.compile.unchecked-math";
+private static final String DIAGNOSTICS_PROP = "clojure.compile.diagnostics";
 
 private static final Var compile_path = RT.var("clojure.core", "*compile-path*");
 private static final Var compile = RT.var("clojure.core", "compile");
 private static final Var warn_on_reflection = RT.var("clojure.core", "*warn-on-reflection*");
 private static final Var unchecked_math = RT.var("clojure.core", "*unchecked-math*");
 private static final Var compiler_options = RT.var("clojure.core", "*compiler-options*");
+private static final Var compiler_diagnostics = RT.var("clojure.core", "*compiler-diagnostics*");
 
 public static void main(String[] args) throws IOException{
 
@@ -55,6 +58,11 @@ public static void main(String[] args) throws IOException{
 
 	Object compilerOptions = null;
 
+	//diagnostics are written as a line of EDN each, so a build can check for them
+	String diagnosticsPath = System.getProperty(DIAGNOSTICS_PROP);
+	OutputStreamWriter diagnostics = diagnosticsPath == null ? null
+	        : new OutputStreamWriter(new FileOutputStream(diagnosticsPath), "UTF-8");
+
 	for(Map.Entry e : System.getProperties().entrySet())
 		{
 		String name = (String) e.getKey();
@@ -72,7 +80,8 @@ public static void main(String[] args) throws IOException{
                Var.pushThreadBindings(RT.map(compile_path, path,
                        warn_on_reflection, warnOnReflection,
                        unchecked_math, uncheckedMath,
-                       compiler_options, compilerOptions));
+                       compiler_options, compilerOptions,
+                       compiler_diagnostics, diagnostics == null ? null : Diagnostics.writer(diagnostics)));
 
 		for(String lib : args)
         {
@@ -87,6 +96,8 @@ public static void main(String[] args) throws IOException{
 		try
 			{
 			out.flush();
+			if(diagnostics != null)
+				diagnostics.close();
 			}
 		catch(IOException e)
 			{
@@ -47,6 +47,8 @@ import java.util.regex.Pattern;
  *   the debugger is able to clear the values to nil
  * - elide meta
  *   clear some keys from meta when compiling
+ * - lazy fns
+ *   bind defn'd vars to a FnLoaderThunk, see FnExpr.emitForDefn
  */
 public class Compiler implements Opcodes {
 
@@ -165,6 +167,7 @@ public class Compiler implements Opcodes {
     public final static  Type NS_TYPE             = Type.getType(Namespace.class);
     public final static  Type UTIL_TYPE           = Type.getType(Util.class);
     public final static  Type REFLECTOR_TYPE      = Type.getType(Reflector.class);
+    public final static  Type REFLECT_SITE_TYPE   = Type.getType(ReflectiveCallSite.class);
     public final static  Type THROWABLE_TYPE      = Type.getType(Throwable.class);
     public final static  Type BOOLEAN_OBJECT_TYPE = Type.getType(Boolean.class);
     public final static  Type IPERSISTENTMAP_TYPE = Type.getType(IPersistentMap.class);
@@ -259,9 +262,19 @@ public class Compiler implements Opcodes {
 
     static final public Keyword elideMetaKey = Keyword.intern("elide-meta");
 
+    static final public Keyword lazyFnsKey = Keyword.intern("lazy-fns");
+
+    static final public Keyword directLinkingKey = Keyword.intern("direct-linking");
+
+    public static final Keyword redefKey = Keyword.intern(null, "redef");
+
     static final public Var COMPILER_OPTIONS = Var.intern(Namespace.findOrCreate(Symbol.intern("clojure.core")),
                                                           Symbol.intern("*compiler-options*"), null).setDynamic();
 
+    //IFn called with a map per finding, see Diagnostics
+    static final public Var DIAGNOSTICS = Var.intern(Namespace.findOrCreate(Symbol.intern("clojure.core")),
+                                                     Symbol.intern("*compiler-diagnostics*"), null).setDynamic();
+
     static public Object getCompilerOption(Keyword k) {
         return RT.get(COMPILER_OPTIONS.deref(), k);
     }
@@ -871,11 +884,16 @@ public class Compiler implements Opcodes {
             //macro expansion
             Var v = isMacro(op);
             if (v != null) {
+                Object prof = LoadProfiler.enter(LoadProfiler.MACROEXPAND);
+                Object expansion = LoadCache.startExpansion();
                 try {
                     return v.applyTo(RT.cons(form, RT.cons(LOCAL_ENV.get(), form.next())));
                 } catch (ArityException e) {
                     // hide the 2 extra params for a macro
                     throw new ArityException(e.actual - 2, e.name);
+                } finally {
+                    LoadCache.endExpansion(expansion);
+                    LoadProfiler.exit(prof);
                 }
             } else {
                 if (op instanceof Symbol) {
@@ -946,8 +964,16 @@ public class Compiler implements Opcodes {
                 throw new IllegalArgumentException("nil is not allowed as the first element for seq -> " + form.toString
                         ());
             IFn inline = isInline(op, RT.count(RT.next(form)));
-            if (inline != null)
-                return analyze(context, preserveTag(form, inline.applyTo(RT.next(form))));
+            if (inline != null) {
+                Object expansion = LoadCache.startExpansion();
+                Object inlined;
+                try {
+                    inlined = inline.applyTo(RT.next(form));
+                } finally {
+                    LoadCache.endExpansion(expansion);
+                }
+                return analyze(context, preserveTag(form, inlined));
+            }
             IParser p;
             if (op.equals(FN))
                 return FnExpr.parse(context, form, name);
@@ -999,13 +1025,28 @@ public class Compiler implements Opcodes {
                         (form instanceof IPersistentCollection
                                 && !(RT.first(form) instanceof Symbol
                                 && ((Symbol) RT.first(form)).name.startsWith("def")))) {
-                    ObjExpr fexpr = (ObjExpr) analyze(C.EXPRESSION, RT.list(FN, PersistentVector.EMPTY, form),
-                                                      "eval" + RT.nextID());
-                    IFn fn = (IFn) fexpr.eval();
-                    return fn.invoke();
+                    return invokeProfiled(compileInFn(form));
                 } else {
-                    Expr expr = analyze(C.EVAL, form);
-                    return expr.eval();
+                    if (LoadCache.recording()) {
+                        //the cache replays a def as a fn, as long as its value can be emitted
+                        IFn fn = null;
+                        try {
+                            fn = compileInFn(form);
+                        } catch (RuntimeException e) {
+                            //one that can't is evaluated uncached, any other failure is the form's
+                            if (!LoadCache.takeUnembeddable())
+                                throw e;
+                        }
+                        if (fn != null)
+                            return invokeProfiled(fn);
+                    }
+                    Expr expr = analyzeProfiled(C.EVAL, form, null);
+                    Object prof = LoadProfiler.enter(LoadProfiler.EVAL);
+                    try {
+                        return expr.eval();
+                    } finally {
+                        LoadProfiler.exit(prof);
+                    }
                 }
             } finally {
                 Var.popThreadBindings();
@@ -1016,6 +1057,43 @@ public class Compiler implements Opcodes {
         }
     }
 
+    static IFn compileInFn(Object form) {
+        ObjExpr fexpr = (ObjExpr) analyzeProfiled(C.EXPRESSION, RT.list(FN, PersistentVector.EMPTY, form),
+                                                  "eval" + RT.nextID());
+        IFn fn = (IFn) fexpr.eval();
+        LoadCache.compiled(fn);
+        return fn;
+    }
+
+    static Object invokeProfiled(IFn fn) {
+        Object prof = LoadProfiler.enter(LoadProfiler.EVAL);
+        Object recording = LoadCache.suspend();
+        try {
+            return fn.invoke();
+        } finally {
+            LoadCache.resume(recording);
+            LoadProfiler.exit(prof);
+        }
+    }
+
+    static Expr analyzeProfiled(C context, Object form, String name) {
+        Object prof = LoadProfiler.enter(LoadProfiler.ANALYZE);
+        try {
+            return analyze(context, form, name);
+        } finally {
+            LoadProfiler.exit(prof);
+        }
+    }
+
+    static Object readProfiled(LineNumberingPushbackReader r, Object EOF) {
+        Object prof = LoadProfiler.enter(LoadProfiler.READ);
+        try {
+            return LispReader.read(r, false, EOF, false);
+        } finally {
+            LoadProfiler.exit(prof);
+        }
+    }
+
     public static int registerConstant(Object o) {
         if (!CONSTANTS.isBound())
             return -1;
@@ -1199,9 +1277,9 @@ public class Compiler implements Opcodes {
                 throw Util.runtimeException("No such var: " + sym);
             else if (v.ns != currentNS() && !v.isPublic() && !allowPrivate)
                 throw new IllegalStateException("var: " + sym + " is not public");
-            return v;
+            return LoadCache.noteResolved(n, sym, v);
         } else if (sym.name.indexOf('.') > 0 || sym.name.charAt(0) == '[') {
-            return RT.classForName(sym.name);
+            return LoadCache.noteResolved(n, sym, RT.classForName(sym.name));
         } else if (sym.equals(NS))
             return RT.NS_VAR;
         else if (sym.equals(IN_NS))
@@ -1217,7 +1295,7 @@ public class Compiler implements Opcodes {
                     throw Util.runtimeException("Unable to resolve symbol: " + sym + " in this context");
                 }
             }
-            return o;
+            return LoadCache.noteResolved(n, sym, o);
         }
     }
 
@@ -1279,6 +1357,8 @@ public class Compiler implements Opcodes {
         }
         if (var != null && (!var.isMacro() || registerMacro))
             registerVar(var);
+        if (var != null)
+            LoadCache.noteVar(currentNS(), sym, var, internNew);
         return var;
     }
 
@@ -1307,8 +1387,11 @@ public class Compiler implements Opcodes {
             if (RT.get(method.locals, b) == null) {
                 method.objx.closes = (IPersistentMap) RT.assoc(method.objx.closes, b, b);
                 closeOver(b, method.parent);
-            } else if (IN_CATCH_FINALLY.deref() != null) {
-                method.localsUsedInCatchFinally = (PersistentHashSet) method.localsUsedInCatchFinally.cons(b.idx);
+            } else {
+                if (b.idx == 0)
+                    method.usesThis = true;
+                if (IN_CATCH_FINALLY.deref() != null)
+                    method.localsUsedInCatchFinally = (PersistentHashSet) method.localsUsedInCatchFinally.cons(b.idx);
             }
         }
     }
@@ -1378,14 +1461,25 @@ public class Compiler implements Opcodes {
                         , RT.DATA_READERS, RT.DATA_READERS.deref()
                 ));
 
+        Object fileProf = LoadProfiler.enterFile(sourcePath != null ? sourcePath : sourceName);
+        Object recording = LoadCache.suspend();
+        boolean cached = LoadCache.enabled && sourcePath != null;
         try {
-            for (Object r = LispReader.read(pushbackReader, false, EOF, false); r != EOF;
-                 r = LispReader.read(pushbackReader, false, EOF, false)) {
-                LINE_AFTER.set(pushbackReader.getLineNumber());
-                COLUMN_AFTER.set(pushbackReader.getColumnNumber());
-                ret = eval(r, false);
-                LINE_BEFORE.set(pushbackReader.getLineNumber());
-                COLUMN_BEFORE.set(pushbackReader.getColumnNumber());
+            for (; ; ) {
+                Object prof = LoadProfiler.enterForm();
+                try {
+                    Object r = readProfiled(pushbackReader, EOF);
+                    if (r == EOF)
+                        break;
+                    LoadProfiler.formRead(prof, r);
+                    LINE_AFTER.set(pushbackReader.getLineNumber());
+                    COLUMN_AFTER.set(pushbackReader.getColumnNumber());
+                    ret = cached ? LoadCache.eval(r, sourcePath) : eval(r, false);
+                    LINE_BEFORE.set(pushbackReader.getLineNumber());
+                    COLUMN_BEFORE.set(pushbackReader.getColumnNumber());
+                } finally {
+                    LoadProfiler.exit(prof);
+                }
             }
         } catch (LispReader.ReaderException e) {
             throw new CompilerException(sourcePath, e.line, e.column, e.getCause());
@@ -1396,6 +1490,8 @@ public class Compiler implements Opcodes {
             else
                 throw (CompilerException) e;
         } finally {
+            LoadCache.resume(recording);
+            LoadProfiler.exit(fileProf);
             Var.popThreadBindings();
         }
         return ret;
@@ -1460,12 +1556,22 @@ public class Compiler implements Opcodes {
                     compile1(gen, objx, RT.first(s));
                 }
             } else {
-                Expr expr = analyze(C.EVAL, form);
+                Expr expr = analyzeProfiled(C.EVAL, form, null);
                 objx.keywords = (IPersistentMap) KEYWORDS.deref();
                 objx.vars = (IPersistentMap) VARS.deref();
                 objx.constants = (PersistentVector) CONSTANTS.deref();
-                expr.emit(C.EXPRESSION, objx, gen);
-                expr.eval();
+                Object prof = LoadProfiler.enter(LoadProfiler.EMIT);
+                try {
+                    expr.emit(C.EXPRESSION, objx, gen);
+                } finally {
+                    LoadProfiler.exit(prof);
+                }
+                prof = LoadProfiler.enter(LoadProfiler.EVAL);
+                try {
+                    expr.eval();
+                } finally {
+                    LoadProfiler.exit(prof);
+                }
             }
         } finally {
             Var.popThreadBindings();
@@ -1504,6 +1610,7 @@ public class Compiler implements Opcodes {
                                  //    ,LOADER, RT.makeClassLoader()
                 ));
 
+        Object fileProf = LoadProfiler.enterFile(sourcePath);
         try {
             //generate loader class
             ObjExpr objx = new ObjExpr(null);
@@ -1523,13 +1630,21 @@ public class Compiler implements Opcodes {
                                                         cv);
             gen.visitCode();
 
-            for (Object r = LispReader.read(pushbackReader, false, EOF, false); r != EOF;
-                 r = LispReader.read(pushbackReader, false, EOF, false)) {
-                LINE_AFTER.set(pushbackReader.getLineNumber());
-                COLUMN_AFTER.set(pushbackReader.getColumnNumber());
-                compile1(gen, objx, r);
-                LINE_BEFORE.set(pushbackReader.getLineNumber());
-                COLUMN_BEFORE.set(pushbackReader.getColumnNumber());
+            for (; ; ) {
+                Object prof = LoadProfiler.enterForm();
+                try {
+                    Object r = readProfiled(pushbackReader, EOF);
+                    if (r == EOF)
+                        break;
+                    LoadProfiler.formRead(prof, r);
+                    LINE_AFTER.set(pushbackReader.getLineNumber());
+                    COLUMN_AFTER.set(pushbackReader.getColumnNumber());
+                    compile1(gen, objx, r);
+                    LINE_BEFORE.set(pushbackReader.getLineNumber());
+                    COLUMN_BEFORE.set(pushbackReader.getColumnNumber());
+                } finally {
+                    LoadProfiler.exit(prof);
+                }
             }
             //end of load
             gen.returnValue();
@@ -1616,6 +1731,7 @@ public class Compiler implements Opcodes {
         } catch (LispReader.ReaderException e) {
             throw new CompilerException(sourcePath, e.line, e.column, e.getCause());
         } finally {
+            LoadProfiler.exit(fileProf);
             Var.popThreadBindings();
         }
         return ret;
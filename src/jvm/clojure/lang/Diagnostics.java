@@ -0,0 +1,165 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Compiler diagnostics as data, reported while *compiler-diagnostics* is bound to a fn.
+ * <p/>
+ * The analysis pass calls the fn with a map per finding, holding the :kind, the :expr
+ * class from clojure.lang.exp that found it, the :file, :line and :column of the form and
+ * a :message, plus keys particular to the kind:
+ * <ul>
+ * <li>:reflection - a method, ctor or field that can't be resolved, with :member and
+ * the :class it was looked up on, if known</li>
+ * <li>:boxed-math - a call to a Numbers method taking boxed args, with :member</li>
+ * <li>:boxed-loop-local - a primitive loop local boxed as a recur arg didn't fit, with
+ * :local, :had and :needed</li>
+ * <li>:uninferred-loop-local - a loop local the compiler has no type for, with :local</li>
+ * <li>:rest-fn-call - a call of a var's variadic fn that packs args into a rest seq,
+ * with :var and :arity</li>
+ * </ul>
+ * Unlike *warn-on-reflection* warnings these are reported whether or not anything is
+ * printed, and cost nothing while the var is unbound.
+ */
+public final class Diagnostics{
+
+static public final Keyword REFLECTION = Keyword.intern(null, "reflection");
+static public final Keyword BOXED_MATH = Keyword.intern(null, "boxed-math");
+static public final Keyword BOXED_LOOP_LOCAL = Keyword.intern(null, "boxed-loop-local");
+static public final Keyword UNINFERRED_LOOP_LOCAL = Keyword.intern(null, "uninferred-loop-local");
+static public final Keyword REST_FN_CALL = Keyword.intern(null, "rest-fn-call");
+
+static final Keyword KIND = Keyword.intern(null, "kind");
+static final Keyword EXPR = Keyword.intern(null, "expr");
+static final Keyword FILE = Keyword.intern(null, "file");
+static final Keyword LINE = Keyword.intern(null, "line");
+static final Keyword COLUMN = Keyword.intern(null, "column");
+static final Keyword MESSAGE = Keyword.intern(null, "message");
+
+static public final Keyword MEMBER = Keyword.intern(null, "member");
+static public final Keyword CLASS = Keyword.intern(null, "class");
+static public final Keyword LOCAL = Keyword.intern(null, "local");
+static public final Keyword HAD = Keyword.intern(null, "had");
+static public final Keyword NEEDED = Keyword.intern(null, "needed");
+static public final Keyword VAR = Keyword.intern(null, "var");
+static public final Keyword ARITY = Keyword.intern(null, "arity");
+
+static public boolean enabled(){
+	return Compiler.DIAGNOSTICS.deref() != null;
+}
+
+/**
+ * The record for a finding in the file being compiled, kvs being the keys and values
+ * particular to its kind.
+ */
+static public IPersistentMap record(Keyword kind, Class expr, int line, int column, String message,
+                                    Object... kvs){
+	IPersistentMap m = RT.map(KIND, kind,
+	                          EXPR, expr,
+	                          FILE, Compiler.SOURCE_PATH.deref(),
+	                          LINE, line,
+	                          COLUMN, column,
+	                          MESSAGE, message);
+	for(int i = 0; i < kvs.length; i += 2)
+		m = m.assoc(kvs[i], kvs[i + 1]);
+	return m;
+}
+
+static public void report(IPersistentMap record){
+	IFn f = (IFn) Compiler.DIAGNOSTICS.deref();
+	if(f != null)
+		f.invoke(record);
+}
+
+static public void report(Keyword kind, Class expr, int line, int column, String message, Object... kvs){
+	if(enabled())
+		report(record(kind, expr, line, column, message, kvs));
+}
+
+/**
+ * Holds the records reported to it until flushed to the fn *compiler-diagnostics* is
+ * then bound to, for analysis that may be thrown away and redone.
+ */
+static public final class Buffer extends AFn{
+	final java.util.ArrayList<IPersistentMap> records = new java.util.ArrayList<IPersistentMap>();
+
+	public Object invoke(Object record){
+		records.add((IPersistentMap) record);
+		return null;
+	}
+
+	public void flush(){
+		for(IPersistentMap r : records)
+			report(r);
+		records.clear();
+	}
+}
+
+/**
+ * Whether m is a Numbers op taking an Object or Number arg, so working on boxed numbers.
+ */
+static public boolean isBoxedMath(java.lang.reflect.Method m){
+	if(m.getDeclaringClass() != Numbers.class)
+		return false;
+	for(Class c : m.getParameterTypes())
+		if(c == Object.class || c == Number.class)
+			return true;
+	return false;
+}
+
+/**
+ * file:line:column message, as warnings are printed.
+ */
+static public String format(IPersistentMap record){
+	return record.valAt(FILE) + ":" + record.valAt(LINE) + ":" + record.valAt(COLUMN) + " "
+	       + record.valAt(MESSAGE);
+}
+
+//classes as their names and vars as their symbols
+static IPersistentMap edn(IPersistentMap record){
+	for(ISeq s = record.seq(); s != null; s = s.next())
+		{
+		IMapEntry e = (IMapEntry) s.first();
+		if(e.val() instanceof Class)
+			record = record.assoc(e.key(), ((Class) e.val()).getName());
+		else if(e.val() instanceof Var)
+			record = record.assoc(e.key(), Symbol.intern(((Var) e.val()).ns.name.name, ((Var) e.val()).sym.name));
+		}
+	return record;
+}
+
+/**
+ * A fn writing each record it is called with to w as a line of EDN, for
+ * clojure.compile.diagnostics.
+ */
+static public IFn writer(final Writer w){
+	return new AFn(){
+		public Object invoke(Object record){
+			try
+				{
+				synchronized(w)
+					{
+					w.write(RT.printString(edn((IPersistentMap) record)));
+					w.write('\n');
+					}
+				}
+			catch(IOException e)
+				{
+				throw Util.sneakyThrow(e);
+				}
+			return null;
+		}
+	};
+}
+}
@@ -41,10 +41,19 @@ public DynamicClassLoader(ClassLoader parent){
 }
 
 public Class defineClass(String name, byte[] bytes, Object srcForm){
-	Util.clearCache(rq, classCache);
-	Class c = defineClass(name, bytes, 0, bytes.length);
-    classCache.put(name, new SoftReference(c,rq));
-    return c;
+	Object prof = LoadProfiler.enter(LoadProfiler.DEFINE_CLASS);
+	try
+		{
+		Util.clearCache(rq, classCache);
+		Class c = defineClass(name, bytes, 0, bytes.length);
+		classCache.put(name, new SoftReference(c,rq));
+		LoadCache.noteDefine(name, bytes);
+		return c;
+		}
+	finally
+		{
+		LoadProfiler.exit(prof);
+		}
 }
 
 protected Class<?> findClass(String name) throws ClassNotFoundException{
@@ -57,6 +66,9 @@ protected Class<?> findClass(String name) throws ClassNotFoundException{
 		else
 	        classCache.remove(name, cr);
 		}
+	Class p = PrimInterfaces.find(name);
+	if(p != null)
+		return p;
 	return super.findClass(name);
 }
 
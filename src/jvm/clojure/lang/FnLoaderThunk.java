@@ -12,12 +12,18 @@
 
 package clojure.lang;
 
+/**
+ * Root of a var defined by an AOT compiled defn under the :lazy-fns compiler option.
+ * The first call loads and instantiates the fn's class and makes it the var's root, as
+ * long as nothing has rebound the var in the meantime. Anyone who took the thunk itself
+ * before then, e.g. (def g f), keeps calling through it.
+ */
 public class FnLoaderThunk extends RestFn{
 
 final Var v;
 final ClassLoader loader;
 final String fnClassName;
-IFn fn;
+volatile IFn fn;
 
 public FnLoaderThunk(Var v, String fnClassName){
 	this.v = v;
@@ -57,7 +63,11 @@ private void load() {
 			{
 			throw Util.sneakyThrow(e);
 			}
-		v.root = fn;
+		synchronized(v)
+			{
+			if(v.root == this)
+				v.root = fn;
+			}
 		}
 }
 
@@ -66,7 +76,8 @@ public int getRequiredArity(){
 }
 
 public IObj withMeta(IPersistentMap meta){
-	return this;
+	load();
+	return ((IObj) fn).withMeta(meta);
 }
 
 public IPersistentMap meta(){
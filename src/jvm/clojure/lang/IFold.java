@@ -0,0 +1,23 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+/**
+ * Collections that can split themselves for clojure.core.reducers/fold.
+ * <p/>
+ * n is the target size of a serially reduced piece. The fork/join primitives are passed
+ * in as fns so this layer does not depend on which ForkJoinPool is on the classpath.
+ * Maps call reducef with (acc key val), everything else with (acc x).
+ */
+public interface IFold{
+Object fold(long n, IFn combinef, IFn reducef,
+            IFn fjinvoke, IFn fjtask, IFn fjfork, IFn fjjoin);
+}
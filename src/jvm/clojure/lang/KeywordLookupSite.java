@@ -12,24 +12,67 @@
 
 package clojure.lang;
 
+/**
+ * The call site of a keyword invoked on one arg, as in (:k x).
+ * <p/>
+ * The compiled fn holds the site and the thunk last installed for it, calling the thunk
+ * and, when it misses, asking the site for a new one with fault. The site keeps a thunk
+ * per class of ILookup target it has seen, up to DEPTH of them, a direct field read for a
+ * record field, and installs a thunk trying each of them in turn, so one site seeing a few
+ * record types doesn't swap thunks back and forth. Seeing more classes than that makes the
+ * site megamorphic, looking up every target with RT.get from then on. The depth is read
+ * from clojure.lookup.site.depth, defaulting to 4.
+ */
 public final class KeywordLookupSite implements ILookupSite, ILookupThunk{
 
+static public final int DEPTH = Integer.getInteger("clojure.lookup.site.depth", 4);
+
 final Keyword k;
 
+//per class seen, the thunk for it, null once megamorphic, all guarded by this
+ILookupThunk[] thunks = new ILookupThunk[0];
+Class[] classes = new Class[0];
+//whether a target that isn't an ILookup has been seen
+boolean other = false;
+//the thunk to install
+ILookupThunk current = this;
+
 public KeywordLookupSite(Keyword k){
 	this.k = k;
 }
 
-public ILookupThunk fault(Object target){
-	if(target instanceof IKeywordLookup)
-		{
-		return install(target);
-		}
-	else if(target instanceof ILookup)
+public synchronized ILookupThunk fault(Object target){
+	if(classes == null)
+		return current;
+	if(target instanceof ILookup)
 		{
-		return ilookupThunk(target.getClass());
+		Class c = target.getClass();
+		for(Class seen : classes)
+			if(seen == c)
+				return current;
+		if(classes.length >= DEPTH)
+			{
+			//megamorphic
+			thunks = null;
+			classes = null;
+			current = megamorphicThunk();
+			return current;
+			}
+		ILookupThunk t = target instanceof IKeywordLookup ? install(target) : ilookupThunk(c);
+		thunks = append(thunks, t);
+		classes = append(classes, c);
 		}
-	return this;
+	else if(!other)
+		other = true;
+	else
+		return current;
+	if(thunks.length == 0)
+		current = this;
+	else if(thunks.length == 1 && !other)
+		current = thunks[0];
+	else
+		current = new PolymorphicThunk(thunks);
+	return current;
 }
 
 public Object get(Object target){
@@ -38,6 +81,35 @@ public Object get(Object target){
 	return RT.get(target,k);
 }
 
+private ILookupThunk megamorphicThunk(){
+	return new ILookupThunk(){
+			public Object get(Object target){
+				return RT.get(target, k);
+			}
+		};
+}
+
+//tries each thunk, looking up a target that isn't an ILookup, so misses only on a new class
+private final class PolymorphicThunk implements ILookupThunk{
+	final ILookupThunk[] thunks;
+
+	PolymorphicThunk(ILookupThunk[] thunks){
+		this.thunks = thunks;
+	}
+
+	public Object get(Object target){
+		for(ILookupThunk t : thunks)
+			{
+			Object ret = t.get(target);
+			if(ret != t)
+				return ret;
+			}
+		if(target instanceof ILookup)
+			return this;
+		return RT.get(target, k);
+	}
+}
+
 private ILookupThunk ilookupThunk(final Class c){
 	return new ILookupThunk(){
 			public Object get(Object target){
@@ -54,4 +126,10 @@ private ILookupThunk install(Object target){
 		return t;
 	return ilookupThunk(target.getClass());
 }
+
+static <T> T[] append(T[] a, T x){
+	T[] ret = java.util.Arrays.copyOf(a, a.length + 1);
+	ret[a.length] = x;
+	return ret;
+}
 }
@@ -110,7 +110,7 @@ public int hashCode(){
 public int hasheq(){
 	ISeq s = seq();
 	if(s == null)
-		return 1;
+		return Util.murmur3Hash ? Murmur3.mixCollHash(1, 0) : 1;
 	return Util.hasheq(seq());
 }
 
@@ -0,0 +1,704 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An on-disk cache of the classes compiled for top level forms loaded from source, on
+ * when clojure.load.cache names a directory.
+ * <p/>
+ * Compiler.load hands each form it reads to eval here. The entry for a form is keyed on
+ * a hash of the form as printed with its metadata, the file and namespace it is loaded
+ * in, the Clojure version and the compiler flags (*compiler-options*, *unchecked-math*
+ * and *warn-on-reflection*). A form is compiled the way Compiler.eval compiles any form
+ * that is not a def, into a no-arg fn per top level form of a do, and while it compiles
+ * the classes defined and the vars and classes its symbols resolve to are recorded.
+ * Each var is fingerprinted by the metadata the compiler reads (:macro, :tag,
+ * :arglists, :inline, :const and so on), plus the content of the defining file for
+ * macros and inline fns, and each class defined at runtime by its members. While a
+ * macro or inline fn runs, every var whose root it calls through, directly or from the
+ * fns it calls, is recorded too, with the content of its defining file, unless it is
+ * one of Clojure's own, which only change with the version.
+ * <p/>
+ * On a hit every recorded symbol must still resolve to the same var or class with the
+ * same fingerprint, and if so the classes are defined from the cached bytes and the fns
+ * invoked in order, skipping macroexpansion, analysis and emission. Side effects of
+ * macroexpansion other than defining classes are not replayed, and reflection warnings
+ * are not printed again on a hit. Code an expansion reaches other than through a var
+ * root, such as a direct linked call or a protocol or multimethod impl, is not tracked,
+ * nor is state it reads from atoms or dynamic vars.
+ */
+public final class LoadCache{
+
+static public final String dir = System.getProperty("clojure.load.cache");
+static public final boolean enabled = dir != null;
+
+static final int MAGIC = 0xC1C0CAC4;
+static final int VERSION = 2;
+
+static final byte VAR = 0;
+static final byte CLASS = 1;
+//a var whose root an expansion called, fingerprinted with its defining file
+static final byte CALLED = 2;
+
+static final Keyword FILE = Keyword.intern(null, "file");
+static final Keyword MACRO = Keyword.intern(null, "macro");
+static final Keyword INLINE = Keyword.intern(null, "inline");
+static final Keyword CONST = Keyword.intern(null, "const");
+
+//the var metadata the compiler reads when compiling a use of the var
+static final Keyword[] fingerprintKeys = {MACRO,
+                                          Keyword.intern(null, "tag"),
+                                          Keyword.intern(null, "arglists"),
+                                          CONST,
+                                          Keyword.intern(null, "dynamic"),
+                                          INLINE,
+                                          Keyword.intern(null, "inline-arities"),
+                                          Keyword.intern(null, "static"),
+                                          Keyword.intern(null, "redef"),
+                                          Keyword.intern(null, "private"),
+                                          Keyword.intern(null, "protocol")};
+
+static final ThreadLocal<Recording> recording = new ThreadLocal<Recording>();
+
+//the recording whose macro or inline fn this thread is running, so Var.getRawRoot only
+//notes calls on a thread that is expanding
+static final ThreadLocal<Recording> expanding = new ThreadLocal<Recording>();
+
+static final Object NOT_EXPANDING = new Object();
+
+//path -> whether it loads from where clojure/core.clj does
+static final ConcurrentHashMap<String, Boolean> clojureFiles = new ConcurrentHashMap<String, Boolean>();
+
+//path -> {stamp, digest}
+static final ConcurrentHashMap<String, String[]> fileDigests = new ConcurrentHashMap<String, String[]>();
+
+static final ClassValue<String> classFingerprints = new ClassValue<String>(){
+	protected String computeValue(Class c){
+		if(!(c.getClassLoader() instanceof DynamicClassLoader))
+			return "";
+		ArrayList<String> members = new ArrayList<String>();
+		for(Field f : c.getDeclaredFields())
+			members.add(f.toString());
+		for(Constructor k : c.getDeclaredConstructors())
+			members.add(k.toString());
+		for(Method m : c.getDeclaredMethods())
+			members.add(m.toString());
+		String[] a = members.toArray(new String[members.size()]);
+		Arrays.sort(a);
+		StringBuilder sb = new StringBuilder(c.getSuperclass() == null ? "" : c.getSuperclass().getName());
+		for(Class i : c.getInterfaces())
+			sb.append(' ').append(i.getName());
+		for(String s : a)
+			sb.append(';').append(s);
+		return sb.toString();
+	}
+};
+
+static final class Dep{
+	final byte kind;
+	final String ns;
+	final String sym;
+	final String target;
+	final String fingerprint;
+
+	Dep(byte kind, String ns, String sym, String target, String fingerprint){
+		this.kind = kind;
+		this.ns = ns;
+		this.sym = sym;
+		this.target = target;
+		this.fingerprint = fingerprint;
+	}
+
+	boolean valid(){
+		try
+			{
+			Namespace n = Namespace.find(Symbol.intern(ns));
+			if(kind == CLASS)
+				{
+				Class c = resolveClass(n, sym);
+				return c != null && c.getName().equals(target) && classFingerprints.get(c).equals(fingerprint);
+				}
+			Var v;
+			if(kind == CALLED)
+				{
+				v = n == null ? null : n.findInternedVar(Symbol.intern(sym));
+				return v != null && fingerprint.equals(calledFingerprint(v));
+				}
+			if(n != null)
+				{
+				Object o = Compiler.maybeResolveIn(n, Symbol.intern(sym));
+				v = o instanceof Var ? (Var) o : null;
+				}
+			else
+				{
+				//the form creates the namespace it resolves in, as ns does
+				Symbol t = Symbol.intern(target);
+				Namespace tn = Namespace.find(Symbol.intern(t.ns));
+				v = tn == null ? null : tn.findInternedVar(Symbol.intern(t.name));
+				}
+			return v != null && target.equals(name(v)) && fingerprint.equals(fingerprint(v));
+			}
+		catch(Exception e)
+			{
+			return false;
+			}
+	}
+}
+
+static final class Step{
+	final ArrayList<Dep> deps = new ArrayList<Dep>();
+	final ArrayList<String> classNames = new ArrayList<String>();
+	final ArrayList<byte[]> classBytes = new ArrayList<byte[]>();
+	String fnClass;
+
+	boolean isEmpty(){
+		return deps.isEmpty() && classNames.isEmpty();
+	}
+}
+
+static final class Recording{
+	final ArrayList<Step> steps = new ArrayList<Step>();
+	Step current = new Step();
+	//deps already noted, and the vars and classes this form defines
+	final HashSet<String> seen = new HashSet<String>();
+	final HashSet<String> defined = new HashSet<String>();
+	boolean cacheable = true;
+	//set when a value couldn't be emitted, until Compiler.eval takes it
+	boolean unembeddable;
+}
+
+/**
+ * Evaluates a top level form read from sourcePath, from the cache when it holds an
+ * entry for the form whose dependencies still resolve as they did.
+ */
+static public Object eval(Object form, String sourcePath){
+	String key = key(form, sourcePath);
+	//diagnostics are reported while compiling, so a replayed form would report none
+	if(key == null || Diagnostics.enabled())
+		return Compiler.eval(form, false);
+	File file = new File(dir, key.substring(0, 2) + File.separator + key.substring(2));
+	Step[] steps = read(file);
+	if(steps != null && valid(steps))
+		return replay(steps);
+
+	Recording rec = new Recording();
+	Recording prev = recording.get();
+	recording.set(rec);
+	Object ret;
+	try
+		{
+		ret = Compiler.eval(form, false);
+		}
+	finally
+		{
+		recording.set(prev);
+		}
+	if(rec.cacheable)
+		{
+		if(!rec.current.isEmpty())
+			rec.steps.add(rec.current);
+		write(file, rec.steps);
+		}
+	return ret;
+}
+
+/**
+ * True when Compiler.eval should compile each top level form into a fn for the
+ * recording, rather than evaluating defs directly.
+ */
+static public boolean recording(){
+	return enabled && recording.get() != null;
+}
+
+/**
+ * Closes the current step on fn, the class the step's form compiled to.
+ */
+static public void compiled(IFn fn){
+	if(!enabled)
+		return;
+	Recording rec = recording.get();
+	if(rec == null)
+		return;
+	rec.current.fnClass = fn.getClass().getName();
+	rec.steps.add(rec.current);
+	rec.current = new Step();
+}
+
+/**
+ * Notes that the compiler couldn't emit a value, which makes the form uncacheable.
+ */
+static public void noteUnembeddable(){
+	Recording rec = enabled ? recording.get() : null;
+	if(rec != null)
+		{
+		rec.cacheable = false;
+		rec.unembeddable = true;
+		}
+}
+
+/**
+ * True once after a value couldn't be emitted, for Compiler.eval to tell that failure
+ * from others when compiling a def for the recording.
+ */
+static public boolean takeUnembeddable(){
+	Recording rec = enabled ? recording.get() : null;
+	if(rec == null || !rec.unembeddable)
+		return false;
+	rec.unembeddable = false;
+	return true;
+}
+
+/**
+ * Starts recording the vars a macro or inline fn calls, until endExpansion.
+ */
+static public Object startExpansion(){
+	if(!enabled)
+		return null;
+	Recording rec = recording.get();
+	if(rec == null)
+		return null;
+	Recording prev = expanding.get();
+	expanding.set(rec);
+	return prev == null ? NOT_EXPANDING : prev;
+}
+
+static public void endExpansion(Object token){
+	if(token != null)
+		expanding.set(token == NOT_EXPANDING ? null : (Recording) token);
+}
+
+/**
+ * Called from Var.getRawRoot while this thread is expanding. A file loaded from within
+ * the expansion records on its own, so calls made while it loads are not noted here.
+ */
+static public void noteCalled(Var v){
+	Recording rec = expanding.get();
+	if(rec == null || rec != recording.get() || v.ns == null)
+		return;
+	String target = name(v);
+	if(rec.defined.contains(target) || !rec.seen.add("x " + target))
+		return;
+	Object file = RT.get(v.meta(), FILE);
+	if(!(file instanceof String) || isClojure(v, (String) file))
+		return;
+	rec.current.deps.add(new Dep(CALLED, v.ns.name.toString(), v.sym.toString(), target, calledFingerprint(v)));
+}
+
+/**
+ * Stops recording on this thread until resume, so that what a form does when it runs,
+ * loading other files or calling eval, is not taken for part of compiling it.
+ */
+static public Object suspend(){
+	if(!enabled)
+		return null;
+	Recording rec = recording.get();
+	if(rec != null)
+		recording.set(null);
+	return rec;
+}
+
+static public void resume(Object token){
+	if(token != null)
+		recording.set((Recording) token);
+}
+
+static public Object noteResolved(Namespace ns, Symbol sym, Object o){
+	if(!enabled)
+		return o;
+	if(o instanceof Var)
+		noteVar(ns, sym, (Var) o, false);
+	else if(o instanceof Class)
+		noteClass(ns, sym, (Class) o);
+	return o;
+}
+
+static public void noteVar(Namespace ns, Symbol sym, Var v, boolean internNew){
+	if(!enabled || v == RT.NS_VAR || v == RT.IN_NS_VAR)
+		return;
+	Recording rec = recording.get();
+	if(rec == null)
+		return;
+	String target = name(v);
+	if(internNew && v.ns == ns)
+		{
+		rec.defined.add(target);
+		return;
+		}
+	if(rec.defined.contains(target) || !rec.seen.add("v " + ns.name + " " + sym))
+		return;
+	rec.current.deps.add(new Dep(VAR, ns.name.toString(), sym.toString(), target, fingerprint(v)));
+}
+
+static public void noteClass(Namespace ns, Object form, Class c){
+	if(!enabled)
+		return;
+	Recording rec = recording.get();
+	if(rec == null || c.isPrimitive())
+		return;
+	String target = c.getName();
+	if(rec.defined.contains(target) || !rec.seen.add("c " + ns.name + " " + form))
+		return;
+	rec.current.deps.add(new Dep(CLASS, ns.name.toString(), form.toString(), target, classFingerprints.get(c)));
+}
+
+static public void noteDefine(String name, byte[] bytes){
+	if(!enabled)
+		return;
+	Recording rec = recording.get();
+	if(rec == null)
+		return;
+	rec.current.classNames.add(name);
+	rec.current.classBytes.add(bytes);
+	rec.defined.add(name);
+}
+
+/**
+ * A value embedded by printing names its class, and the names of classes compiled at
+ * runtime other than deftypes carry ids that only hold in the JVM that made them.
+ */
+static public void noteEmbedded(Object value){
+	if(!enabled)
+		return;
+	Recording rec = recording.get();
+	Class c = value.getClass();
+	if(rec != null && c.getClassLoader() instanceof DynamicClassLoader && !(value instanceof IType)
+	   && !rec.defined.contains(c.getName()))
+		rec.cacheable = false;
+}
+
+static String name(Var v){
+	return v.ns.name + "/" + v.sym;
+}
+
+static Class resolveClass(Namespace ns, String name){
+	if(ns != null && name.indexOf('.') < 0 && name.charAt(0) != '[')
+		{
+		Object o = ns.getMapping(Symbol.intern(name));
+		if(o != null)
+			return o instanceof Class ? (Class) o : null;
+		}
+	return RT.classForName(name);
+}
+
+static String fingerprint(Var v){
+	IPersistentMap m = v.meta();
+	StringBuilder sb = new StringBuilder();
+	for(Keyword k : fingerprintKeys)
+		{
+		Object val = RT.get(m, k);
+		if(val != null)
+			sb.append(k).append(' ').append(val instanceof AFunction ? val.getClass().getName() : print(val)).append(' ');
+		}
+	if(v.isMacro() || RT.get(m, INLINE) != null)
+		sb.append(fileDigest(RT.get(m, FILE)));
+	if(RT.booleanCast(RT.get(m, CONST)) && v.hasRoot())
+		sb.append(print(v.getRawRoot()));
+	//a direct linked call names the class of the fn and its invokeStatic signatures
+	if(RT.booleanCast(Compiler.getCompilerOption(Compiler.directLinkingKey)) && v.getRawRoot() instanceof AFunction)
+		{
+		Class c = v.getRawRoot().getClass();
+		sb.append(c.getName()).append(' ').append(classFingerprints.get(c));
+		}
+	return sb.toString();
+}
+
+static String calledFingerprint(Var v){
+	return fingerprint(v) + ' ' + fileDigest(RT.get(v.meta(), FILE));
+}
+
+//Clojure's own vars, loaded from where clojure/core.clj is
+static boolean isClojure(Var v, String file){
+	if(!v.ns.name.name.startsWith("clojure."))
+		return false;
+	Boolean b = clojureFiles.get(file);
+	if(b == null)
+		{
+		String core = "clojure/core.clj";
+		URL coreUrl = RT.baseLoader().getResource(core);
+		URL url = RT.baseLoader().getResource(file);
+		b = coreUrl != null && url != null
+		    && url.toString().startsWith(coreUrl.toString().substring(0, coreUrl.toString().length() - core.length()));
+		clojureFiles.put(file, b);
+		}
+	return b;
+}
+
+static String print(Object x){
+	try
+		{
+		return RT.printString(x);
+		}
+	catch(Exception e)
+		{
+		return "#<unprintable>";
+		}
+}
+
+static String fileDigest(Object path){
+	if(!(path instanceof String))
+		return "";
+	String p = (String) path;
+	try
+		{
+		URL url = RT.baseLoader().getResource(p);
+		if(url == null)
+			{
+			File f = new File(p);
+			if(!f.exists())
+				return "";
+			url = f.toURI().toURL();
+			}
+		String stamp = url + " " + RT.lastModified(url, p);
+		String[] d = fileDigests.get(p);
+		if(d != null && d[0].equals(stamp))
+			return d[1];
+		MessageDigest md = MessageDigest.getInstance("SHA-1");
+		InputStream in = url.openStream();
+		try
+			{
+			byte[] buf = new byte[8192];
+			for(int n; (n = in.read(buf)) > 0;)
+				md.update(buf, 0, n);
+			}
+		finally
+			{
+			in.close();
+			}
+		String digest = hex(md.digest());
+		fileDigests.put(p, new String[]{stamp, digest});
+		return digest;
+		}
+	catch(Exception e)
+		{
+		return "";
+		}
+}
+
+static String key(Object form, String sourcePath){
+	Var.pushThreadBindings(RT.mapUniqueKeys(RT.PRINT_META, RT.T,
+	                                        RT.PRINT_DUP, RT.F,
+	                                        RT.PRINT_READABLY, RT.T,
+	                                        RT.var("clojure.core", "*print-length*"), null,
+	                                        RT.var("clojure.core", "*print-level*"), null));
+	try
+		{
+		String printed = RT.printString(form);
+		if(printed.contains("#<"))
+			return null;
+		MessageDigest md = MessageDigest.getInstance("SHA-1");
+		String flags = RT.printString(RT.vector(VERSION,
+		                                        RT.var("clojure.core", "*clojure-version*").deref(),
+		                                        sourcePath,
+		                                        Compiler.currentNS().name,
+		                                        Compiler.COMPILER_OPTIONS.deref(),
+		                                        RT.UNCHECKED_MATH.deref(),
+		                                        RT.WARN_ON_REFLECTION.deref()));
+		update(md, flags);
+		update(md, printed);
+		return hex(md.digest());
+		}
+	catch(Exception e)
+		{
+		return null;
+		}
+	finally
+		{
+		Var.popThreadBindings();
+		}
+}
+
+//hashes chars rather than encoded bytes, as a string may hold lone surrogates
+static void update(MessageDigest md, String s){
+	for(int i = 0; i < s.length(); i++)
+		{
+		char c = s.charAt(i);
+		md.update((byte) (c >> 8));
+		md.update((byte) c);
+		}
+}
+
+static String hex(byte[] bytes){
+	StringBuilder sb = new StringBuilder(bytes.length * 2);
+	for(byte b : bytes)
+		sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+	return sb.toString();
+}
+
+static boolean valid(Step[] steps){
+	for(Step s : steps)
+		for(Dep d : s.deps)
+			if(!d.valid())
+				return false;
+	return true;
+}
+
+static Object replay(Step[] steps){
+	Object ret = null;
+	for(Step s : steps)
+		{
+		DynamicClassLoader loader = (DynamicClassLoader) RT.makeClassLoader();
+		Var.pushThreadBindings(RT.map(Compiler.LOADER, loader));
+		try
+			{
+			Class fnClass = null;
+			for(int i = 0; i < s.classNames.size(); i++)
+				{
+				Class c = loader.defineClass(s.classNames.get(i), s.classBytes.get(i), null);
+				if(c.getName().equals(s.fnClass))
+					fnClass = c;
+				}
+			if(fnClass != null)
+				{
+				Object prof = LoadProfiler.enter(LoadProfiler.EVAL);
+				try
+					{
+					ret = ((IFn) fnClass.newInstance()).invoke();
+					}
+				finally
+					{
+					LoadProfiler.exit(prof);
+					}
+				}
+			}
+		catch(InstantiationException e)
+			{
+			throw Util.sneakyThrow(e);
+			}
+		catch(IllegalAccessException e)
+			{
+			throw Util.sneakyThrow(e);
+			}
+		finally
+			{
+			Var.popThreadBindings();
+			}
+		}
+	return ret;
+}
+
+static Step[] read(File file){
+	if(!file.exists())
+		return null;
+	try
+		{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+			{
+			if(in.readInt() != MAGIC || in.readInt() != VERSION)
+				return null;
+			Step[] steps = new Step[in.readInt()];
+			for(int i = 0; i < steps.length; i++)
+				{
+				Step s = steps[i] = new Step();
+				String fn = readString(in);
+				s.fnClass = fn.length() == 0 ? null : fn;
+				for(int n = in.readInt(); n > 0; n--)
+					s.deps.add(new Dep(in.readByte(), readString(in), readString(in), readString(in), readString(in)));
+				for(int n = in.readInt(); n > 0; n--)
+					{
+					s.classNames.add(readString(in));
+					byte[] bytes = new byte[in.readInt()];
+					in.readFully(bytes);
+					s.classBytes.add(bytes);
+					}
+				}
+			return steps;
+			}
+		finally
+			{
+			in.close();
+			}
+		}
+	catch(IOException e)
+		{
+		//a damaged entry is a miss, and is overwritten
+		return null;
+		}
+}
+
+static void write(File file, ArrayList<Step> steps){
+	try
+		{
+		File parent = file.getParentFile();
+		parent.mkdirs();
+		File tmp = File.createTempFile(file.getName(), ".tmp", parent);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try
+			{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(steps.size());
+			for(Step s : steps)
+				{
+				writeString(out, s.fnClass == null ? "" : s.fnClass);
+				out.writeInt(s.deps.size());
+				for(Dep d : s.deps)
+					{
+					out.writeByte(d.kind);
+					writeString(out, d.ns);
+					writeString(out, d.sym);
+					writeString(out, d.target);
+					writeString(out, d.fingerprint);
+					}
+				out.writeInt(s.classNames.size());
+				for(int i = 0; i < s.classNames.size(); i++)
+					{
+					writeString(out, s.classNames.get(i));
+					out.writeInt(s.classBytes.get(i).length);
+					out.write(s.classBytes.get(i));
+					}
+				}
+			}
+		finally
+			{
+			out.close();
+			}
+		//rename so concurrent loads never read a partial entry
+		if(!tmp.renameTo(file))
+			tmp.delete();
+		}
+	catch(IOException e)
+		{
+		//the cache is an optimization, so failing to write it is not an error
+		}
+}
+
+static String readString(DataInputStream in) throws IOException{
+	byte[] bytes = new byte[in.readInt()];
+	in.readFully(bytes);
+	return new String(bytes, "UTF-8");
+}
+
+static void writeString(DataOutputStream out, String s) throws IOException{
+	byte[] bytes = s.getBytes("UTF-8");
+	out.writeInt(bytes.length);
+	out.write(bytes);
+}
+}
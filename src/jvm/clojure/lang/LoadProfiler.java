@@ -0,0 +1,398 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Times loading and compiling source files, on when clojure.load.profile=true.
+ * <p/>
+ * Each file loaded is a frame holding a frame per top level form, which in turn holds
+ * frames for the phases of loading it: read, macroexpand, analyze, emit, define-class
+ * and eval. An AOT compiled namespace's file frame holds a single load-class phase for
+ * running its __init. Frames nest, so a require inside a form's eval shows up as a file
+ * frame under that eval, and each frame's self time and allocation exclude its children.
+ * <p/>
+ * enabled is a static final read once, so with profiling off the enter and exit calls
+ * compiled into Compiler and RT return at once. When clojure.load.profile.out names a
+ * file the profile is written there on exit, as an EDN report if the name ends in .edn
+ * and otherwise as collapsed stacks of self microseconds, for flamegraph.pl and
+ * similar tools.
+ */
+public final class LoadProfiler{
+
+static public final boolean enabled = System.getProperty("clojure.load.profile", "false").equals("true");
+
+static public final int READ = 0;
+static public final int MACROEXPAND = 1;
+static public final int ANALYZE = 2;
+static public final int EMIT = 3;
+static public final int DEFINE_CLASS = 4;
+static public final int EVAL = 5;
+static public final int LOAD_CLASS = 6;
+
+static final Keyword[] phases = {Keyword.intern(null, "read"),
+                                 Keyword.intern(null, "macroexpand"),
+                                 Keyword.intern(null, "analyze"),
+                                 Keyword.intern(null, "emit"),
+                                 Keyword.intern(null, "define-class"),
+                                 Keyword.intern(null, "eval"),
+                                 Keyword.intern(null, "load-class")};
+
+//allocation per thread, where the JVM can count it
+static final com.sun.management.ThreadMXBean threads = enabled ? allocationBean() : null;
+
+static final ThreadLocal<Frame> current = new ThreadLocal<Frame>();
+
+static final ConcurrentLinkedQueue<Record> files = new ConcurrentLinkedQueue<Record>();
+static final ConcurrentLinkedQueue<Record> forms = new ConcurrentLinkedQueue<Record>();
+//collapsed stack -> self nanos, self bytes
+static final ConcurrentHashMap<String, AtomicLongArray> stacks = new ConcurrentHashMap<String, AtomicLongArray>();
+
+static
+	{
+	final String out = System.getProperty("clojure.load.profile.out");
+	if(enabled && out != null)
+		{
+		Runtime.getRuntime().addShutdownHook(new Thread("clojure.load.profile"){
+			public void run(){
+				try
+					{
+					write(out);
+					}
+				catch(IOException e)
+					{
+					System.err.println("Could not write load profile to " + out + ": " + e);
+					}
+			}
+		});
+		}
+	}
+
+//the totals of a file or top level form, by phase
+static final class Record{
+	final String source;
+	final String form;
+	final int line;
+	Object ns;
+	long nanos;
+	long bytes;
+	final long[] phaseNanos = new long[phases.length];
+	final long[] phaseBytes = new long[phases.length];
+
+	Record(String source, String form, int line){
+		this.source = source;
+		this.form = form;
+		this.line = line;
+	}
+
+	IPersistentMap toMap(){
+		IPersistentMap ps = PersistentArrayMap.EMPTY;
+		for(int i = 0; i < phases.length; i++)
+			if(phaseNanos[i] > 0 || phaseBytes[i] > 0)
+				ps = ps.assoc(phases[i], RT.map(NANOS, phaseNanos[i], BYTES, phaseBytes[i]));
+		IPersistentMap ret = RT.map(SOURCE, source, NS, ns, NANOS, nanos, BYTES, bytes, PHASES, ps);
+		if(form != null)
+			ret = ret.assoc(FORM, form).assoc(LINE, line);
+		return ret;
+	}
+}
+
+static final int FILE_FRAME = -1;
+static final int FORM_FRAME = -2;
+
+static final class Frame{
+	final Frame parent;
+	//FILE_FRAME, FORM_FRAME or a phase
+	final int kind;
+	String name;
+	final Record file;
+	Record form;
+	final long start;
+	final long startBytes;
+	long childNanos;
+	long childBytes;
+	//a form's read, which ends before we know what the form is
+	long readNanos;
+	long readBytes;
+
+	Frame(Frame parent, String name, int kind, Record file, Record form){
+		this.parent = parent;
+		this.name = name;
+		this.kind = kind;
+		this.file = file;
+		this.form = form;
+		this.start = System.nanoTime();
+		this.startBytes = allocated();
+	}
+
+	String stack(){
+		return parent == null ? name : parent.stack() + ";" + name;
+	}
+}
+
+static com.sun.management.ThreadMXBean allocationBean(){
+	try
+		{
+		ThreadMXBean b = ManagementFactory.getThreadMXBean();
+		if(b instanceof com.sun.management.ThreadMXBean
+		   && ((com.sun.management.ThreadMXBean) b).isThreadAllocatedMemorySupported())
+			{
+			((com.sun.management.ThreadMXBean) b).setThreadAllocatedMemoryEnabled(true);
+			return (com.sun.management.ThreadMXBean) b;
+			}
+		}
+	catch(Throwable e)
+		{
+		//not a HotSpot JVM, or not allowed; report zero bytes
+		}
+	return null;
+}
+
+static long allocated(){
+	return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+}
+
+static String frameName(String s){
+	return s.replace(';', ',').replace('\n', ' ');
+}
+
+/**
+ * Starts the frame for loading a source file or an AOT class.
+ */
+static public Object enterFile(String source){
+	if(!enabled)
+		return null;
+	Frame f = new Frame(current.get(), frameName(source), FILE_FRAME, new Record(source, null, 0), null);
+	current.set(f);
+	return f;
+}
+
+/**
+ * Starts the frame for a top level form. Call before reading the form, and formRead
+ * once it's read.
+ */
+static public Object enterForm(){
+	if(!enabled)
+		return null;
+	Frame p = current.get();
+	Frame f = new Frame(p, "form", FORM_FRAME, p == null ? null : p.file, null);
+	current.set(f);
+	return f;
+}
+
+static public void formRead(Object token, Object form){
+	if(token == null)
+		return;
+	Frame f = (Frame) token;
+	Object line = RT.get(RT.meta(form), RT.LINE_KEY);
+	f.form = new Record(f.file == null ? null : f.file.source, describe(form),
+	                    line instanceof Number ? ((Number) line).intValue() : 0);
+	f.name = frameName(f.form.form + ":" + f.form.line);
+	f.form.phaseNanos[READ] = f.readNanos;
+	f.form.phaseBytes[READ] = f.readBytes;
+	addStack(f.stack() + ";" + phases[READ].sym.name, f.readNanos, f.readBytes);
+}
+
+static String describe(Object form){
+	if(form instanceof ISeq)
+		{
+		StringBuilder sb = new StringBuilder("(");
+		Object op = RT.first(form);
+		sb.append(op instanceof Symbol ? op : "...");
+		Object name = RT.second(form);
+		if(name instanceof Symbol || name instanceof Keyword)
+			sb.append(' ').append(name);
+		return sb.append(')').toString();
+		}
+	return form == null ? "nil" : form.getClass().getSimpleName();
+}
+
+/**
+ * Starts the frame for a phase of loading the current form or file.
+ */
+static public Object enter(int phase){
+	if(!enabled)
+		return null;
+	Frame p = current.get();
+	Frame f = new Frame(p, phases[phase].sym.name, phase, p == null ? null : p.file, p == null ? null : p.form);
+	current.set(f);
+	return f;
+}
+
+/**
+ * Ends a frame started by enterFile, enterForm or enter. Call in a finally.
+ */
+static public void exit(Object token){
+	if(token == null)
+		return;
+	Frame f = (Frame) token;
+	long nanos = System.nanoTime() - f.start;
+	long bytes = allocated() - f.startBytes;
+	long selfNanos = nanos - f.childNanos;
+	long selfBytes = bytes - f.childBytes;
+	Frame p = f.parent;
+	current.set(p);
+	if(p != null)
+		{
+		p.childNanos += nanos;
+		p.childBytes += bytes;
+		}
+
+	if(f.kind == FILE_FRAME)
+		{
+		f.file.nanos = nanos;
+		f.file.bytes = bytes;
+		//an AOT class's __init has already popped its *ns*
+		if(f.file.ns == null)
+			f.file.ns = libNs(f.file.source);
+		files.add(f.file);
+		}
+	else if(f.kind == FORM_FRAME)
+		{
+		//no form at the end of the file
+		if(f.form == null)
+			return;
+		f.form.nanos = nanos;
+		f.form.bytes = bytes;
+		f.form.ns = currentNs();
+		if(f.file != null)
+			f.file.ns = f.form.ns;
+		forms.add(f.form);
+		}
+	else
+		{
+		if(f.file != null)
+			{
+			f.file.phaseNanos[f.kind] += selfNanos;
+			f.file.phaseBytes[f.kind] += selfBytes;
+			}
+		if(p != null && p.kind == FORM_FRAME && p.form == null)
+			{
+			//left for formRead to record
+			p.readNanos += selfNanos;
+			p.readBytes += selfBytes;
+			return;
+			}
+		if(f.form != null)
+			{
+			f.form.phaseNanos[f.kind] += selfNanos;
+			f.form.phaseBytes[f.kind] += selfBytes;
+			}
+		}
+	addStack(f.stack(), selfNanos, selfBytes);
+}
+
+static void addStack(String stack, long nanos, long bytes){
+	AtomicLongArray a = stacks.get(stack);
+	if(a == null)
+		{
+		AtomicLongArray prev = stacks.putIfAbsent(stack, a = new AtomicLongArray(2));
+		if(prev != null)
+			a = prev;
+		}
+	a.addAndGet(0, nanos);
+	a.addAndGet(1, bytes);
+}
+
+static Object currentNs(){
+	Object ns = RT.CURRENT_NS.deref();
+	return ns instanceof Namespace ? ((Namespace) ns).name : null;
+}
+
+//the namespace of the lib whose root resource is source, if it's loaded
+static Object libNs(String source){
+	int i = source.indexOf(RT.LOADER_SUFFIX);
+	if(i < 0)
+		i = source.lastIndexOf('.');
+	if(i < 0)
+		return null;
+	Namespace ns = Namespace.find(Symbol.intern(source.substring(0, i).replace('/', '.').replace('_', '-')));
+	return ns == null ? null : ns.name;
+}
+
+static final Keyword NAMESPACES = Keyword.intern(null, "namespaces");
+static final Keyword FORMS = Keyword.intern(null, "forms");
+static final Keyword SOURCE = Keyword.intern(null, "source");
+static final Keyword NS = Keyword.intern(null, "ns");
+static final Keyword FORM = Keyword.intern(null, "form");
+static final Keyword LINE = Keyword.intern(null, "line");
+static final Keyword NANOS = Keyword.intern(null, "nanos");
+static final Keyword BYTES = Keyword.intern(null, "bytes");
+static final Keyword PHASES = Keyword.intern(null, "phases");
+
+/**
+ * Returns {:namespaces [file ...] :forms [form ...]}, each a map of :source, :ns,
+ * total :nanos and :bytes and self time and allocation by phase in :phases, with
+ * forms also having :form and :line. Returns nil when profiling is off.
+ */
+static public IPersistentMap report(){
+	if(!enabled)
+		return null;
+	ITransientCollection fs = PersistentVector.EMPTY.asTransient();
+	for(Record r : files)
+		fs = fs.conj(r.toMap());
+	ITransientCollection frms = PersistentVector.EMPTY.asTransient();
+	for(Record r : forms)
+		frms = frms.conj(r.toMap());
+	return RT.map(NAMESPACES, fs.persistent(), FORMS, frms.persistent());
+}
+
+/**
+ * Writes one line per stack of frames, the frame names separated by semicolons and
+ * followed by the self microseconds, or bytes allocated, spent in the last.
+ */
+static public void writeCollapsed(Writer w, boolean bytes) throws IOException{
+	for(Map.Entry<String, AtomicLongArray> e : stacks.entrySet())
+		{
+		long n = bytes ? e.getValue().get(1) : e.getValue().get(0) / 1000;
+		if(n > 0)
+			w.write(e.getKey() + " " + n + "\n");
+		}
+	w.flush();
+}
+
+static public void writeEdn(Writer w) throws IOException{
+	RT.print(report(), w);
+	w.write('\n');
+	w.flush();
+}
+
+static void write(String path) throws IOException{
+	Writer w = new OutputStreamWriter(new FileOutputStream(path), RT.UTF8);
+	try
+		{
+		if(path.endsWith(".edn"))
+			writeEdn(w);
+		else
+			writeCollapsed(w, false);
+		}
+	finally
+		{
+		w.close();
+		}
+}
+
+static public void reset(){
+	files.clear();
+	forms.clear();
+	stacks.clear();
+}
+}
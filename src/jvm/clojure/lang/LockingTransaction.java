@@ -45,15 +45,24 @@ static class AbortException extends Exception{
 public static class Info{
 	final AtomicInteger status;
 	final long startPoint;
+	final long threadId;
 	final CountDownLatch latch;
 
 
 	public Info(int status, long startPoint){
 		this.status = new AtomicInteger(status);
 		this.startPoint = startPoint;
+		this.threadId = Thread.currentThread().getId();
 		this.latch = new CountDownLatch(1);
 	}
 
+	//start points are shared by transactions that began between the same two commits,
+	//the thread breaks the tie so barging still has a total order
+	boolean olderThan(Info other){
+		return startPoint < other.startPoint
+		       || (startPoint == other.startPoint && threadId < other.threadId);
+	}
+
 	public boolean running(){
 		int s = status.get();
 		return s == RUNNING || s == COMMITTING;
@@ -69,12 +78,14 @@ static class CFn{
 		this.args = args;
 	}
 }
-//total order on transactions
-//transactions will consume a point for init, for each retry, and on commit if writing
+//commit clock, only advanced by writers, and only once all the refs they write are locked
+//a read point is the clock's current value, so starting, retrying and committing a
+//read-only transaction never write to it. A commit at or before the read point had
+//locked its refs before the read point was taken, so reads of them wait for it to finish
 final private static AtomicLong lastPoint = new AtomicLong();
 
 void getReadPoint(){
-	readPoint = lastPoint.incrementAndGet();
+	readPoint = lastPoint.get();
 }
 
 long getCommitPoint(){
@@ -112,17 +123,40 @@ final HashSet<Ref> ensures = new HashSet<Ref>();   //all hold readLock
 
 
 void tryWriteLock(Ref ref){
+	long start = STMMetrics.enabled ? System.nanoTime() : 0;
 	try
 		{
 		if(!ref.lock.writeLock().tryLock(LOCK_WAIT_MSECS, TimeUnit.MILLISECONDS))
-			throw retryex;
+			throw retry(STMMetrics.LOCK_TIMEOUT, ref);
 		}
 	catch(InterruptedException e)
 		{
-		throw retryex;
+		throw retry(STMMetrics.LOCK_TIMEOUT, ref);
+		}
+	finally
+		{
+		if(STMMetrics.enabled)
+			STMMetrics.lockWait(ref, System.nanoTime() - start);
 		}
 }
 
+void lockRead(Ref ref){
+	if(STMMetrics.enabled)
+		{
+		long start = System.nanoTime();
+		ref.lock.readLock().lock();
+		STMMetrics.lockWait(ref, System.nanoTime() - start);
+		}
+	else
+		ref.lock.readLock().lock();
+}
+
+RetryEx retry(int cause, Ref ref){
+	if(STMMetrics.enabled)
+		STMMetrics.retry(cause, ref);
+	return retryex;
+}
+
 //returns the most recent val
 Object lock(Ref ref){
 	//can't upgrade readLock, so release it
@@ -135,17 +169,17 @@ Object lock(Ref ref){
 		unlocked = false;
 
 		if(ref.tvals != null && ref.tvals.point > readPoint)
-			throw retryex;
+			throw retry(STMMetrics.WRITE_CONFLICT, ref);
 		Info refinfo = ref.tinfo;
 
 		//write lock conflict
 		if(refinfo != null && refinfo != info && refinfo.running())
 			{
-			if(!barge(refinfo))
+			if(!barge(refinfo, ref))
 				{
 				ref.lock.writeLock().unlock();
 				unlocked = true;
-				return blockAndBail(refinfo);
+				return blockAndBail(refinfo, ref);
 				}
 			}
 		ref.tinfo = info;
@@ -158,7 +192,7 @@ Object lock(Ref ref){
 		}
 }
 
-private Object blockAndBail(Info refinfo){
+private Object blockAndBail(Info refinfo, Ref ref){
 //stop prior to blocking
 	stop(RETRY);
 	try
@@ -169,7 +203,7 @@ private Object blockAndBail(Info refinfo){
 		{
 		//ignore
 		}
-	throw retryex;
+	throw retry(STMMetrics.WRITER_RUNNING, ref);
 }
 
 private void releaseIfEnsured(Ref ref){
@@ -189,15 +223,17 @@ private boolean bargeTimeElapsed(){
 	return System.nanoTime() - startTime > BARGE_WAIT_NANOS;
 }
 
-private boolean barge(Info refinfo){
+private boolean barge(Info refinfo, Ref ref){
 	boolean barged = false;
 	//if this transaction is older
 	//  try to abort the other
-	if(bargeTimeElapsed() && startPoint < refinfo.startPoint)
+	if(bargeTimeElapsed() && info.olderThan(refinfo))
 		{
         barged = refinfo.status.compareAndSet(RUNNING, KILLED);
         if(barged)
             refinfo.latch.countDown();
+		if(STMMetrics.enabled)
+			STMMetrics.bargeAttempt(ref, barged);
 		}
 	return barged;
 }
@@ -259,6 +295,8 @@ Object run(Callable fn) throws Exception{
 	ArrayList<Ref> locked = new ArrayList<Ref>();
 	ArrayList<Notify> notify = new ArrayList<Notify>();
 
+	if(STMMetrics.enabled)
+		STMMetrics.transactionStarted();
 	for(int i = 0; !done && i < RETRY_LIMIT; i++)
 		{
 		try
@@ -274,78 +312,87 @@ Object run(Callable fn) throws Exception{
 			//make sure no one has killed us before this point, and can't from now on
 			if(info.status.compareAndSet(RUNNING, COMMITTING))
 				{
-				for(Map.Entry<Ref, ArrayList<CFn>> e : commutes.entrySet())
+				//a read-only transaction has nothing to lock or write, and leaves the clock alone
+				if(!(commutes.isEmpty() && sets.isEmpty() && vals.isEmpty()))
 					{
-					Ref ref = e.getKey();
-					if(sets.contains(ref)) continue;
-					
-					boolean wasEnsured = ensures.contains(ref);
-					//can't upgrade readLock, so release it
-					releaseIfEnsured(ref);
-					tryWriteLock(ref);
-					locked.add(ref);
-					if(wasEnsured && ref.tvals != null && ref.tvals.point > readPoint)
-						throw retryex;
-
-					Info refinfo = ref.tinfo;
-					if(refinfo != null && refinfo != info && refinfo.running())
+					for(Map.Entry<Ref, ArrayList<CFn>> e : commutes.entrySet())
 						{
-						if(!barge(refinfo))
-							throw retryex;
+						Ref ref = e.getKey();
+						if(sets.contains(ref)) continue;
+					
+						boolean wasEnsured = ensures.contains(ref);
+						//can't upgrade readLock, so release it
+						releaseIfEnsured(ref);
+						tryWriteLock(ref);
+						locked.add(ref);
+						if(wasEnsured && ref.tvals != null && ref.tvals.point > readPoint)
+							throw retry(STMMetrics.WRITE_CONFLICT, ref);
+
+						Info refinfo = ref.tinfo;
+						if(refinfo != null && refinfo != info && refinfo.running())
+							{
+							if(!barge(refinfo, ref))
+								throw retry(STMMetrics.WRITER_RUNNING, ref);
+							}
+						Object val = ref.tvals == null ? null : ref.tvals.val;
+						vals.put(ref, val);
+						for(CFn f : e.getValue())
+							{
+							vals.put(ref, f.fn.applyTo(RT.cons(vals.get(ref), f.args)));
+							}
 						}
-					Object val = ref.tvals == null ? null : ref.tvals.val;
-					vals.put(ref, val);
-					for(CFn f : e.getValue())
+					for(Ref ref : sets)
 						{
-						vals.put(ref, f.fn.applyTo(RT.cons(vals.get(ref), f.args)));
+						tryWriteLock(ref);
+						locked.add(ref);
 						}
-					}
-				for(Ref ref : sets)
-					{
-					tryWriteLock(ref);
-					locked.add(ref);
-					}
-
-				//validate and enqueue notifications
-				for(Map.Entry<Ref, Object> e : vals.entrySet())
-					{
-					Ref ref = e.getKey();
-					ref.validate(ref.getValidator(), e.getValue());
-					}
-
-				//at this point, all values calced, all refs to be written locked
-				//no more client code to be called
-				long commitPoint = getCommitPoint();
-				for(Map.Entry<Ref, Object> e : vals.entrySet())
-					{
-					Ref ref = e.getKey();
-					Object oldval = ref.tvals == null ? null : ref.tvals.val;
-					Object newval = e.getValue();
-					int hcount = ref.histCount();
 
-					if(ref.tvals == null)
+					//validate and enqueue notifications
+					for(Map.Entry<Ref, Object> e : vals.entrySet())
 						{
-						ref.tvals = new Ref.TVal(newval, commitPoint);
+						Ref ref = e.getKey();
+						ref.validate(ref.getValidator(), e.getValue());
 						}
-					else if((ref.faults.get() > 0 && hcount < ref.maxHistory)
-							|| hcount < ref.minHistory)
-						{
-						ref.tvals = new Ref.TVal(newval, commitPoint, ref.tvals);
-						ref.faults.set(0);
-						}
-					else
+
+					//at this point, all values calced, all refs to be written locked
+					//no more client code to be called
+					long commitPoint = getCommitPoint();
+					for(Map.Entry<Ref, Object> e : vals.entrySet())
 						{
-						ref.tvals = ref.tvals.next;
-						ref.tvals.val = newval;
-						ref.tvals.point = commitPoint;
+						Ref ref = e.getKey();
+						Object oldval = ref.tvals == null ? null : ref.tvals.val;
+						Object newval = e.getValue();
+						int hcount = ref.histCount();
+
+						if(ref.tvals == null)
+							{
+							ref.tvals = new Ref.TVal(newval, commitPoint);
+							}
+						else if((ref.faults.get() > 0 && hcount < ref.maxHistory)
+								|| hcount < ref.minHistory)
+							{
+							ref.tvals = new Ref.TVal(newval, commitPoint, ref.tvals);
+							ref.faults.set(0);
+							}
+						else
+							{
+							ref.tvals = ref.tvals.next;
+							ref.tvals.val = newval;
+							ref.tvals.point = commitPoint;
+							}
+						if(ref.getWatches().count() > 0)
+							notify.add(new Notify(ref, oldval, newval));
 						}
-					if(ref.getWatches().count() > 0)
-						notify.add(new Notify(ref, oldval, newval));
 					}
 
 				done = true;
 				info.status.set(COMMITTED);
+				if(STMMetrics.enabled)
+					STMMetrics.committed(System.nanoTime() - startTime);
 				}
+			//barged before we could start committing
+			else if(STMMetrics.enabled)
+				STMMetrics.retry(STMMetrics.BARGED, null);
 			}
 		catch(RetryEx retry)
 			{
@@ -396,12 +443,12 @@ public void enqueue(Agent.Action action){
 
 Object doGet(Ref ref){
 	if(!info.running())
-		throw retryex;
+		throw retry(STMMetrics.BARGED, null);
 	if(vals.containsKey(ref))
 		return vals.get(ref);
 	try
 		{
-		ref.lock.readLock().lock();
+		lockRead(ref);
 		if(ref.tvals == null)
 			throw new IllegalStateException(ref.toString() + " is unbound.");
 		Ref.TVal ver = ref.tvals;
@@ -417,13 +464,13 @@ Object doGet(Ref ref){
 		}
 	//no version of val precedes the read point
 	ref.faults.incrementAndGet();
-	throw retryex;
+	throw retry(STMMetrics.HISTORY_FAULT, ref);
 
 }
 
 Object doSet(Ref ref, Object val){
 	if(!info.running())
-		throw retryex;
+		throw retry(STMMetrics.BARGED, null);
 	if(commutes.containsKey(ref))
 		throw new IllegalStateException("Can't set after commute");
 	if(!sets.contains(ref))
@@ -437,15 +484,15 @@ Object doSet(Ref ref, Object val){
 
 void doEnsure(Ref ref){
 	if(!info.running())
-		throw retryex;
+		throw retry(STMMetrics.BARGED, null);
 	if(ensures.contains(ref))
 		return;
-	ref.lock.readLock().lock();
+	lockRead(ref);
 
 	//someone completed a write after our snapshot
 	if(ref.tvals != null && ref.tvals.point > readPoint) {
         ref.lock.readLock().unlock();
-        throw retryex;
+        throw retry(STMMetrics.WRITE_CONFLICT, ref);
     }
 
 	Info refinfo = ref.tinfo;
@@ -457,7 +504,7 @@ void doEnsure(Ref ref){
 
 		if(refinfo != info) //not us, ensure is doomed
 			{
-			blockAndBail(refinfo); 
+			blockAndBail(refinfo, ref); 
 			}
 		}
 	else
@@ -466,7 +513,7 @@ void doEnsure(Ref ref){
 
 Object doCommute(Ref ref, IFn fn, ISeq args) {
 	if(!info.running())
-		throw retryex;
+		throw retry(STMMetrics.BARGED, null);
 	if(!vals.containsKey(ref))
 		{
 		Object val = null;
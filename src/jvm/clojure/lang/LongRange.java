@@ -0,0 +1,216 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.util.concurrent.Callable;
+
+/**
+ * (range start end step) over longs, for any non-zero step.
+ * <p/>
+ * Elements are computed from the index, so count and nth are O(1), chunks are views
+ * rather than arrays, and reduce walks a primitive long, only boxing it when f has no
+ * (Object, long) primitive signature. create returns null when the range can't be
+ * counted in an int, and clojure.core/range falls back to its lazy seq.
+ */
+public class LongRange extends ASeq implements IChunkedSeq, Counted, Indexed, IReduce, IFold{
+
+static final int CHUNK_SIZE = 32;
+
+final long start;
+final long step;
+final int count;
+
+static public ISeq create(long end){
+	return create(0, end, 1);
+}
+
+static public ISeq create(long start, long end){
+	return create(start, end, 1);
+}
+
+static public ISeq create(long start, long end, long step){
+	if(step == 0)
+		return null;
+	if(step > 0 ? end <= start : end >= start)
+		return PersistentList.EMPTY;
+	long d = end - start;
+	//end - start overflowed
+	if(((end ^ start) & (end ^ d)) < 0)
+		return null;
+	long n = step > 0 ? (d - 1) / step + 1 : (d + 1) / step + 1;
+	if(n > Integer.MAX_VALUE)
+		return null;
+	return new LongRange(start, step, (int) n);
+}
+
+LongRange(long start, long step, int count){
+	this.start = start;
+	this.step = step;
+	this.count = count;
+}
+
+LongRange(IPersistentMap meta, long start, long step, int count){
+	super(meta);
+	this.start = start;
+	this.step = step;
+	this.count = count;
+}
+
+public Obj withMeta(IPersistentMap meta){
+	if(meta == meta())
+		return this;
+	return new LongRange(meta, start, step, count);
+}
+
+public Object first(){
+	return start;
+}
+
+public ISeq next(){
+	if(count > 1)
+		return new LongRange(start + step, step, count - 1);
+	return null;
+}
+
+public IChunk chunkedFirst(){
+	return new LongChunk(start, step, Math.min(count, CHUNK_SIZE));
+}
+
+public ISeq chunkedNext(){
+	if(count > CHUNK_SIZE)
+		return new LongRange(start + CHUNK_SIZE * step, step, count - CHUNK_SIZE);
+	return null;
+}
+
+public ISeq chunkedMore(){
+	ISeq s = chunkedNext();
+	if(s == null)
+		return PersistentList.EMPTY;
+	return s;
+}
+
+public int count(){
+	return count;
+}
+
+public Object nth(int i){
+	if(i >= 0 && i < count)
+		return start + i * step;
+	throw new IndexOutOfBoundsException();
+}
+
+public Object nth(int i, Object notFound){
+	if(i >= 0 && i < count)
+		return start + i * step;
+	return notFound;
+}
+
+public Object reduce(IFn f){
+	Object ret = start;
+	if(count > 1)
+		ret = reduce(f, ret, start + step, step, count - 1);
+	return RT.isReduced(ret) ? ((IDeref) ret).deref() : ret;
+}
+
+public Object reduce(IFn f, Object val){
+	Object ret = reduce(f, val, start, step, count);
+	return RT.isReduced(ret) ? ((IDeref) ret).deref() : ret;
+}
+
+//returns a Reduced as is
+static Object reduce(IFn f, Object ret, long i, long step, int n){
+	if(f instanceof IFn.OLO)
+		{
+		IFn.OLO pf = (IFn.OLO) f;
+		for(; n > 0; n--, i += step)
+			{
+			ret = pf.invokePrim(ret, i);
+			if(RT.isReduced(ret))
+				return ret;
+			}
+		return ret;
+		}
+	for(; n > 0; n--, i += step)
+		{
+		ret = f.invoke(ret, i);
+		if(RT.isReduced(ret))
+			return ret;
+		}
+	return ret;
+}
+
+public Object fold(final long n, final IFn combinef, final IFn reducef,
+                   IFn fjinvoke, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	if(count <= n)
+		return reduce(reducef, combinef.invoke());
+	AFn top = new AFn(){
+		public Object invoke(){
+			return fold(start, count, n, combinef, reducef, fjtask, fjfork, fjjoin);
+		}
+	};
+	return fjinvoke.invoke(top);
+}
+
+Object fold(final long from, final int cnt, final long n, final IFn combinef, final IFn reducef,
+            final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	if(cnt <= n || cnt < 2)
+		{
+		Object ret = reduce(reducef, combinef.invoke(), from, step, cnt);
+		return RT.isReduced(ret) ? ((IDeref) ret).deref() : ret;
+		}
+	final int half = cnt / 2;
+	Object forked = fjfork.invoke(fjtask.invoke(new Callable(){
+		public Object call() throws Exception{
+			return fold(from + half * step, cnt - half, n, combinef, reducef, fjtask, fjfork, fjjoin);
+		}
+	}));
+	return combinef.invoke(fold(from, half, n, combinef, reducef, fjtask, fjfork, fjjoin),
+	                       fjjoin.invoke(forked));
+}
+
+static final class LongChunk implements IChunk{
+	final long start;
+	final long step;
+	final int count;
+
+	LongChunk(long start, long step, int count){
+		this.start = start;
+		this.step = step;
+		this.count = count;
+	}
+
+	public Object nth(int i){
+		if(i >= 0 && i < count)
+			return start + i * step;
+		throw new IndexOutOfBoundsException();
+	}
+
+	public Object nth(int i, Object notFound){
+		if(i >= 0 && i < count)
+			return start + i * step;
+		return notFound;
+	}
+
+	public int count(){
+		return count;
+	}
+
+	public IChunk dropFirst(){
+		if(count == 0)
+			throw new IllegalStateException("dropFirst of empty chunk");
+		return new LongChunk(start + step, step, count - 1);
+	}
+
+	public Object reduce(IFn f, Object init){
+		return LongRange.reduce(f, init, start, step, count);
+	}
+}
+}
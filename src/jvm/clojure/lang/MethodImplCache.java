@@ -12,8 +12,14 @@
 
 package clojure.lang;
 
-import java.util.Map;
-
+/**
+ * A protocol fn's cache of the fn implementing it per class of the first arg.
+ * <p/>
+ * The fn for a class is found once, by -cache-protocol-fn in core_deftype.clj, and kept in
+ * a ClassValue, so caching one for a new class never rebuilds a table. A new cache replaces
+ * the protocol fn's one whenever the protocol's impls change, as by extend. The entry last
+ * found is checked first, so sites seeing one class don't touch the ClassValue.
+ */
 public final class MethodImplCache{
 
 static public class Entry{
@@ -28,33 +34,20 @@ static public class Entry{
 
 public final IPersistentMap protocol;
 public final Keyword methodk;
-public final int shift;
-public final int mask;
-public final Object[] table;    //[class, entry. class, entry ...]
-public final Map map;
+
+//per class a slot holding its entry once found, and the entry for nil
+final ClassValue<Entry[]> byClass = new ClassValue<Entry[]>(){
+	protected Entry[] computeValue(Class c){
+		return new Entry[1];
+	}
+};
+volatile Entry nilEntry;
 
 Entry mre = null;
 
 public MethodImplCache(IPersistentMap protocol, Keyword methodk){
-	this(protocol, methodk, 0, 0, RT.EMPTY_ARRAY);
-}
-
-public MethodImplCache(IPersistentMap protocol, Keyword methodk, int shift, int mask, Object[] table){
     this.protocol = protocol;
     this.methodk = methodk;
-    this.shift = shift;
-    this.mask = mask;
-    this.table = table;
-    this.map = null;
-}
-
-public MethodImplCache(IPersistentMap protocol, Keyword methodk, Map map){
-    this.protocol = protocol;
-    this.methodk = methodk;
-    this.shift = 0;
-    this.mask = 0;
-    this.table = null;
-    this.map = map;
 }
 
 public IFn fnFor(Class c){
@@ -65,24 +58,22 @@ public IFn fnFor(Class c){
 }
 
 IFn findFnFor(Class c){
-    if (map != null)
-        {
-        Entry e = (Entry) map.get(c);
-        mre = e;
-        return  e != null ? e.fn : null;
-        }
-    else
-        {
-        int idx = ((Util.hash(c) >> shift) & mask) << 1;
-        if(idx < table.length && table[idx] == c)
-            {
-            Entry e = ((Entry) table[idx + 1]);
-            mre = e;
-            return  e != null ? e.fn : null;
-            }
-        return null;
-        }
+	Entry e = c == null ? nilEntry : byClass.get(c)[0];
+	if(e == null)
+		return null;
+	mre = e;
+	return e.fn;
 }
 
-
+/**
+ * Caches fn as the one for class c, a null c being that of nil, and returns this.
+ */
+public MethodImplCache cache(Class c, IFn fn){
+	Entry e = new Entry(c, fn);
+	if(c == null)
+		nilEntry = e;
+	else
+		byClass.get(c)[0] = e;
+	return this;
+}
 }
@@ -13,145 +13,225 @@
 package clojure.lang;
 
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class MultiFn extends AFn{
 final public IFn dispatchFn;
 final public Object defaultDispatchVal;
 final public IRef hierarchy;
 final String name;
-final ReentrantReadWriteLock rw;
-volatile IPersistentMap methodTable;
-volatile IPersistentMap preferTable;
-volatile IPersistentMap methodCache;
-volatile Object cachedHierarchy;
+volatile State state;
+//for a dispatch fn of class or type, the method per class of the arg, else null
+final ClassValue<Resolved[]> classCache;
+final boolean typeDispatch;
 
 static final Var assoc = RT.var("clojure.core", "assoc");
 static final Var dissoc = RT.var("clojure.core", "dissoc");
 static final Var isa = RT.var("clojure.core", "isa?");
 static final Var parents = RT.var("clojure.core", "parents");
+static final Var classVar = RT.var("clojure.core", "class");
+static final Var typeVar = RT.var("clojure.core", "type");
+static final Keyword TYPE_KEY = Keyword.intern(null, "type");
+
+//dispatch values the inline cache holds, checked by identity before the method cache
+static final int INLINE_CACHE_SIZE = 4;
+
+static final AtomicReferenceFieldUpdater<MultiFn, State> stateUpdater =
+		AtomicReferenceFieldUpdater.newUpdater(MultiFn.class, State.class, "state");
+
+/**
+ * The tables and the cache resolved from them as of one hierarchy, replaced as a whole on
+ * any change, so dispatch reads them without locking and updates are compare-and-set.
+ * inline holds the first dispatch values resolved and their methods, alternately.
+ */
+static final class State{
+	final IPersistentMap methodTable;
+	final IPersistentMap preferTable;
+	final Object cachedHierarchy;
+	final IPersistentMap methodCache;
+	final Object[] inline;
+	//shared by the states differing only in what they have cached
+	final Object basis;
+
+	State(IPersistentMap methodTable, IPersistentMap preferTable, Object cachedHierarchy,
+	      IPersistentMap methodCache, Object[] inline, Object basis){
+		this.methodTable = methodTable;
+		this.preferTable = preferTable;
+		this.cachedHierarchy = cachedHierarchy;
+		this.methodCache = methodCache;
+		this.inline = inline;
+		this.basis = basis;
+	}
+
+	State(IPersistentMap methodTable, IPersistentMap preferTable, Object cachedHierarchy){
+		this(methodTable, preferTable, cachedHierarchy, PersistentHashMap.EMPTY, RT.EMPTY_ARRAY, new Object());
+	}
+
+	//a default hit is only cached inline, as any number of dispatch values may fall to it,
+	//so this state is returned as is once the inline cache is full
+	State withCached(Object dispatchVal, IFn method, boolean isDefault){
+		Object[] in = inline;
+		if(in.length < 2 * INLINE_CACHE_SIZE)
+			{
+			in = new Object[inline.length + 2];
+			System.arraycopy(inline, 0, in, 0, inline.length);
+			in[inline.length] = dispatchVal;
+			in[inline.length + 1] = method;
+			}
+		else if(isDefault)
+			return this;
+		return new State(methodTable, preferTable, cachedHierarchy,
+		                 isDefault ? methodCache : methodCache.assoc(dispatchVal, method), in, basis);
+	}
+}
+
+/**
+ * The method resolved for a class, as of a state's basis.
+ */
+static final class Resolved{
+	final Object basis;
+	final IFn method;
+
+	Resolved(Object basis, IFn method){
+		this.basis = basis;
+		this.method = method;
+	}
+}
+
+//per class a slot holding the last Resolved for it
+static final class ClassCache extends ClassValue<Resolved[]>{
+	protected Resolved[] computeValue(Class c){
+		return new Resolved[1];
+	}
+}
 
 public MultiFn(String name, IFn dispatchFn, Object defaultDispatchVal, IRef hierarchy) {
-	this.rw = new ReentrantReadWriteLock();
 	this.name = name;
 	this.dispatchFn = dispatchFn;
 	this.defaultDispatchVal = defaultDispatchVal;
-	this.methodTable = PersistentHashMap.EMPTY;
-	this.methodCache = getMethodTable();
-	this.preferTable = PersistentHashMap.EMPTY;
     this.hierarchy = hierarchy;
-	cachedHierarchy = null;
+	this.state = new State(PersistentHashMap.EMPTY, PersistentHashMap.EMPTY, null);
+	this.typeDispatch = dispatchFn == typeVar.getRawRoot();
+	this.classCache = typeDispatch || dispatchFn == classVar.getRawRoot() ? new ClassCache() : null;
 }
 
 public MultiFn reset(){
-	rw.writeLock().lock();
-	try{
-		methodTable = methodCache = preferTable = PersistentHashMap.EMPTY;
-		cachedHierarchy = null;
-		return this;
-	}
-	finally {
-		rw.writeLock().unlock();
-	}
+	state = new State(PersistentHashMap.EMPTY, PersistentHashMap.EMPTY, null);
+	return this;
 }
 
 public MultiFn addMethod(Object dispatchVal, IFn method) {
-	rw.writeLock().lock();
-	try{
-		methodTable = getMethodTable().assoc(dispatchVal, method);
-		resetCache();
-		return this;
-	}
-	finally {
-		rw.writeLock().unlock();
-	}
+	for(;;)
+		{
+		State s = state;
+		if(stateUpdater.compareAndSet(this, s, new State(s.methodTable.assoc(dispatchVal, method), s.preferTable,
+		                                                 hierarchy.deref())))
+			return this;
+		}
 }
 
 public MultiFn removeMethod(Object dispatchVal) {
-	rw.writeLock().lock();
-	try
-		{
-		methodTable = getMethodTable().without(dispatchVal);
-		resetCache();
-		return this;
-		}
-	finally
+	for(;;)
 		{
-		rw.writeLock().unlock();
+		State s = state;
+		if(stateUpdater.compareAndSet(this, s, new State(s.methodTable.without(dispatchVal), s.preferTable,
+		                                                 hierarchy.deref())))
+			return this;
 		}
 }
 
 public MultiFn preferMethod(Object dispatchValX, Object dispatchValY) {
-	rw.writeLock().lock();
-	try
+	for(;;)
 		{
-		if(prefers(dispatchValY, dispatchValX))
+		State s = state;
+		if(prefers(s.preferTable, dispatchValY, dispatchValX))
 			throw new IllegalStateException(
 					String.format("Preference conflict in multimethod '%s': %s is already preferred to %s",
 					              name, dispatchValY, dispatchValX));
-		preferTable = getPreferTable().assoc(dispatchValX, RT.conj((IPersistentCollection) RT.get(getPreferTable(),
-		                                                                                     dispatchValX,
-		                                                                                     PersistentHashSet.EMPTY),
-		                                                      dispatchValY));
-		resetCache();
-		return this;
-		}
-	finally
-		{
-		rw.writeLock().unlock();
+		IPersistentMap pt = s.preferTable.assoc(dispatchValX,
+		                                        RT.conj((IPersistentCollection) RT.get(s.preferTable,
+		                                                                               dispatchValX,
+		                                                                               PersistentHashSet.EMPTY),
+		                                                dispatchValY));
+		if(stateUpdater.compareAndSet(this, s, new State(s.methodTable, pt, hierarchy.deref())))
+			return this;
 		}
 }
 
-private boolean prefers(Object x, Object y) {
-	IPersistentSet xprefs = (IPersistentSet) getPreferTable().valAt(x);
+private boolean prefers(IPersistentMap preferTable, Object x, Object y) {
+	IPersistentSet xprefs = (IPersistentSet) preferTable.valAt(x);
 	if(xprefs != null && xprefs.contains(y))
 		return true;
 	for(ISeq ps = RT.seq(parents.invoke(y)); ps != null; ps = ps.next())
 		{
-		if(prefers(x, ps.first()))
+		if(prefers(preferTable, x, ps.first()))
 			return true;
 		}
 	for(ISeq ps = RT.seq(parents.invoke(x)); ps != null; ps = ps.next())
 		{
-		if(prefers(ps.first(), y))
+		if(prefers(preferTable, ps.first(), y))
 			return true;
 		}
 	return false;
 }
 
-private boolean isA(Object x, Object y) {
-    return RT.booleanCast(isa.invoke(hierarchy.deref(), x, y));
+private boolean isA(Object h, Object x, Object y) {
+    return RT.booleanCast(isa.invoke(h, x, y));
 }
 
-private boolean dominates(Object x, Object y) {
-	return prefers(x, y) || isA(x, y);
+private boolean dominates(State s, Object x, Object y) {
+	return prefers(s.preferTable, x, y) || isA(s.cachedHierarchy, x, y);
 }
 
-private IPersistentMap resetCache() {
-	rw.writeLock().lock();
-	try
-		{
-		methodCache = getMethodTable();
-		cachedHierarchy = hierarchy.deref();
-		return methodCache;
-		}
-	finally
+//the current state, its cache emptied if the hierarchy has changed since it was resolved
+private State currentState() {
+	for(;;)
 		{
-		rw.writeLock().unlock();
+		State s = state;
+		Object h = hierarchy.deref();
+		if(s.cachedHierarchy == h)
+			return s;
+		State n = new State(s.methodTable, s.preferTable, h);
+		if(stateUpdater.compareAndSet(this, s, n))
+			return n;
 		}
 }
 
  public IFn getMethod(Object dispatchVal) {
-	if(cachedHierarchy != hierarchy.deref())
-		resetCache();
-	IFn targetFn = (IFn) methodCache.valAt(dispatchVal);
-	if(targetFn != null)
-		return targetFn;
-	 targetFn = findAndCacheBestMethod(dispatchVal);
+	State s = state;
+	if(s.cachedHierarchy != hierarchy.deref())
+		s = currentState();
+	Object[] inline = s.inline;
+	for(int i = 0; i < inline.length; i += 2)
+		if(inline[i] == dispatchVal)
+			return (IFn) inline[i + 1];
+	IFn targetFn = (IFn) s.methodCache.valAt(dispatchVal);
 	if(targetFn != null)
 		return targetFn;
-	targetFn = (IFn) getMethodTable().valAt(defaultDispatchVal);
-	return targetFn;
+	return findAndCacheBestMethod(s, dispatchVal);
+}
+
+/**
+ * For class or type dispatch, the method for x from the class cache, without calling the
+ * dispatch fn, or null if x is nil, has a :type in its meta or there is no method.
+ */
+private IFn classMethod(Object x) {
+	if(x == null)
+		return null;
+	if(typeDispatch && x instanceof IMeta && RT.get(((IMeta) x).meta(), TYPE_KEY) != null)
+		return null;
+	State s = state;
+	if(s.cachedHierarchy != hierarchy.deref())
+		return null;
+	Class c = x.getClass();
+	Resolved[] slot = classCache.get(c);
+	Resolved r = slot[0];
+	if(r != null && r.basis == s.basis)
+		return r.method;
+	IFn method = getMethod(c);
+	if(method != null)
+		slot[0] = new Resolved(s.basis, method);
+	return method;
 }
 
 private IFn getFn(Object dispatchVal) {
@@ -162,60 +242,38 @@ private IFn getFn(Object dispatchVal) {
 	return targetFn;
 }
 
-private IFn findAndCacheBestMethod(Object dispatchVal) {
-	rw.readLock().lock();
-	Map.Entry bestEntry;
-	IPersistentMap mt = methodTable;
-	IPersistentMap pt = preferTable;
-	Object ch = cachedHierarchy;
-	try
+//resolves against s without locking, caching the result if the tables and hierarchy are
+//still those of s, else resolving again
+private IFn findAndCacheBestMethod(State s, Object dispatchVal) {
+	Map.Entry bestEntry = null;
+	for(Object o : s.methodTable)
 		{
-		bestEntry = null;
-		for(Object o : getMethodTable())
+		Map.Entry e = (Map.Entry) o;
+		if(isA(s.cachedHierarchy, dispatchVal, e.getKey()))
 			{
-			Map.Entry e = (Map.Entry) o;
-			if(isA(dispatchVal, e.getKey()))
-				{
-				if(bestEntry == null || dominates(e.getKey(), bestEntry.getKey()))
-					bestEntry = e;
-				if(!dominates(bestEntry.getKey(), e.getKey()))
-					throw new IllegalArgumentException(
-							String.format(
-									"Multiple methods in multimethod '%s' match dispatch value: %s -> %s and %s, and neither is preferred",
-									name, dispatchVal, e.getKey(), bestEntry.getKey()));
-				}
+			if(bestEntry == null || dominates(s, e.getKey(), bestEntry.getKey()))
+				bestEntry = e;
+			if(!dominates(s, bestEntry.getKey(), e.getKey()))
+				throw new IllegalArgumentException(
+						String.format(
+								"Multiple methods in multimethod '%s' match dispatch value: %s -> %s and %s, and neither is preferred",
+								name, dispatchVal, e.getKey(), bestEntry.getKey()));
 			}
-		if(bestEntry == null)
-			return null;
-		}
-	finally
-		{
-		rw.readLock().unlock();
 		}
+	IFn best = bestEntry != null ? (IFn) bestEntry.getValue() : (IFn) s.methodTable.valAt(defaultDispatchVal);
+	if(best == null)
+		return null;
 
-
-	//ensure basis has stayed stable throughout, else redo
-	rw.writeLock().lock();
-	try
-		{
-		if( mt == methodTable &&
-		    pt == preferTable &&
-		    ch == cachedHierarchy &&
-			cachedHierarchy == hierarchy.deref())
-			{
-			//place in cache
-			methodCache = methodCache.assoc(dispatchVal, bestEntry.getValue());
-			return (IFn) bestEntry.getValue();
-			}
-		else
-			{
-			resetCache();
-			return findAndCacheBestMethod(dispatchVal);
-			}
-		}
-	finally
+	for(;;)
 		{
-		rw.writeLock().unlock();
+		State cur = state;
+		if(cur.basis != s.basis || cur.cachedHierarchy != hierarchy.deref())
+			return findAndCacheBestMethod(currentState(), dispatchVal);
+		if(cur.methodCache.valAt(dispatchVal) != null)
+			return best;
+		State n = cur.withCached(dispatchVal, best, bestEntry == null);
+		if(n == cur || stateUpdater.compareAndSet(this, cur, n))
+			return best;
 		}
 }
 
@@ -224,6 +282,12 @@ public Object invoke() {
 }
 
 public Object invoke(Object arg1) {
+	if(classCache != null)
+		{
+		IFn method = classMethod(arg1);
+		if(method != null)
+			return method.invoke(Util.ret1(arg1,arg1=null));
+		}
 	return getFn(dispatchFn.invoke(arg1)).invoke(Util.ret1(arg1,arg1=null));
 }
 
@@ -575,10 +639,10 @@ public Object invoke(Object arg1, Object arg2, Object arg3, Object arg4, Object
 }
 
     public IPersistentMap getMethodTable() {
-        return methodTable;
+        return state.methodTable;
     }
 
     public IPersistentMap getPreferTable() {
-        return preferTable;
+        return state.preferTable;
     }
 }
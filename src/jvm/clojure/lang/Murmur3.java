@@ -0,0 +1,96 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+/**
+ * Murmur3_32 mixing for hasheq, used when clojure.hash.murmur3=true.
+ * <p/>
+ * Collections keep accumulating element hashes the way they always have (31*h+e for
+ * ordered, sum for unordered) and then run the total and the count through a single
+ * Murmur3 block and finalizer, so similar small collections no longer land in
+ * neighbouring buckets. Longs are mixed as one 8 byte input.
+ */
+public final class Murmur3{
+
+private static final int seed = 0;
+private static final int C1 = 0xcc9e2d51;
+private static final int C2 = 0x1b873593;
+
+public static int hashLong(long input){
+	if(input == 0) return 0;
+	int low = (int) input;
+	int high = (int) (input >>> 32);
+
+	int k1 = mixK1(low);
+	int h1 = mixH1(seed, k1);
+
+	k1 = mixK1(high);
+	h1 = mixH1(h1, k1);
+
+	return fmix(h1, 8);
+}
+
+public static int mixCollHash(int hash, int count){
+	int k1 = mixK1(hash);
+	int h1 = mixH1(seed, k1);
+	return fmix(h1, count);
+}
+
+public static int hashOrdered(Iterable xs){
+	int n = 0;
+	int hash = 1;
+
+	for(Object x : xs)
+		{
+		hash = 31 * hash + Util.hasheq(x);
+		++n;
+		}
+
+	return mixCollHash(hash, n);
+}
+
+public static int hashUnordered(Iterable xs){
+	int hash = 0;
+	int n = 0;
+	for(Object x : xs)
+		{
+		hash += Util.hasheq(x);
+		++n;
+		}
+
+	return mixCollHash(hash, n);
+}
+
+private static int mixK1(int k1){
+	k1 *= C1;
+	k1 = Integer.rotateLeft(k1, 15);
+	k1 *= C2;
+	return k1;
+}
+
+private static int mixH1(int h1, int k1){
+	h1 ^= k1;
+	h1 = Integer.rotateLeft(h1, 13);
+	h1 = h1 * 5 + 0xe6546b64;
+	return h1;
+}
+
+// Finalization mix - force all bits of a hash block to avalanche
+private static int fmix(int h1, int length){
+	h1 ^= length;
+	h1 ^= h1 >>> 16;
+	h1 *= 0x85ebca6b;
+	h1 ^= h1 >>> 13;
+	h1 *= 0xc2b2ae35;
+	h1 ^= h1 >>> 16;
+	return h1;
+}
+}
@@ -989,8 +989,12 @@ static int hasheq(Number x){
 		|| xc == Byte.class)
 		{
 		long lpart = x.longValue();
+		if(Util.murmur3Hash)
+			return Murmur3.hashLong(lpart);
 		return (int) (lpart ^ (lpart >>> 32));
 		}
+	if(Util.murmur3Hash && xc == BigInt.class && ((BigInt) x).bipart == null)
+		return Murmur3.hashLong(((BigInt) x).lpart);
 	if(xc == BigDecimal.class)
 		{
 		// stripTrailingZeros() to make all numerically equal
@@ -24,12 +24,23 @@ import java.util.Map;
  * Copies array on every change, so only appropriate for _very_small_ maps
  * <p/>
  * null keys and values are ok, but you won't be able to distinguish a null value via valAt - use contains/entryAt
+ * <p/>
+ * Maps of up to HASHTABLE_THRESHOLD / 2 entries, clojure.array.map.threshold, stay arrays.
+ * Past HASH_SCAN_THRESHOLD / 2 entries, where a map used to become a PersistentHashMap,
+ * keys other than keywords are found by scanning the hasheq of the keys first, comparing
+ * by identity then equiv only where they match, so such keys are found as a hash map
+ * would find them. The hashes are computed on the first such lookup and shared by the
+ * maps made from this one that keep its keys in order, as by replacing a value or meta.
  */
 
 public class PersistentArrayMap extends APersistentMap implements IObj, IEditableCollection {
 
 final Object[] array;
-static final int HASHTABLE_THRESHOLD = 16;
+static final int HASHTABLE_THRESHOLD = 2 * Integer.getInteger("clojure.array.map.threshold", 16);
+static final int HASH_SCAN_THRESHOLD = 16;
+
+//set on first use, safely as KeyHashes is immutable
+KeyHashes keyHashes;
 
 public static final PersistentArrayMap EMPTY = new PersistentArrayMap();
 private final IPersistentMap _meta;
@@ -50,18 +61,35 @@ protected PersistentArrayMap(){
 }
 
 public PersistentArrayMap withMeta(IPersistentMap meta){
-	return new PersistentArrayMap(meta, array);
+	return new PersistentArrayMap(meta, array, keyHashes);
 }
 
 PersistentArrayMap create(Object... init){
 	return new PersistentArrayMap(meta(), init);
 }
 
+PersistentArrayMap create(Object[] init, KeyHashes keyHashes){
+	return new PersistentArrayMap(meta(), init, keyHashes);
+}
+
 IPersistentMap createHT(Object[] init){
 	return PersistentHashMap.create(meta(), init);
 }
 
 static public PersistentArrayMap createWithCheck(Object[] init){
+	if(init.length > HASH_SCAN_THRESHOLD)
+		{
+		KeyHashes kh = new KeyHashes(init);
+		for(int i=0;i< init.length;i += 2)
+			{
+			for(int j=i+2;j<init.length;j += 2)
+				{
+				if(kh.hashes[i / 2] == kh.hashes[j / 2] && equalKey(init[i],init[j]))
+					throw new IllegalArgumentException("Duplicate key: " + init[i]);
+				}
+			}
+		return new PersistentArrayMap(null, init, kh);
+		}
 	for(int i=0;i< init.length;i += 2)
 		{
 		for(int j=i+2;j<init.length;j += 2)
@@ -150,6 +178,12 @@ public PersistentArrayMap(IPersistentMap meta, Object[] init){
 	this.array = init;
 }
 
+PersistentArrayMap(IPersistentMap meta, Object[] init, KeyHashes keyHashes){
+	this._meta = meta;
+	this.array = init;
+	this.keyHashes = keyHashes;
+}
+
 public int count(){
 	return array.length / 2;
 }
@@ -194,6 +228,7 @@ public IPersistentMap assoc(Object key, Object val){
 			return this;
 		newArray = array.clone();
 		newArray[i + 1] = val;
+		return create(newArray, keyHashes);
 		}
 	else //didn't have key, grow
 		{
@@ -205,7 +240,7 @@ public IPersistentMap assoc(Object key, Object val){
 		newArray[0] = key;
 		newArray[1] = val;
 		}
-	return create(newArray);
+	return create(newArray, keyHashes != null ? keyHashes.cons(key) : null);
 }
 
 public IPersistentMap without(Object key){
@@ -260,6 +295,29 @@ private int indexOfObject(Object key){
 	return -1;
 }
 
+private int indexOfHash(Object key){
+    KeyHashes kh = keyHashes;
+    if(kh == null)
+        keyHashes = kh = new KeyHashes(array);
+    int[] hashes = kh.hashes;
+    int h = Util.hasheq(key);
+    Util.EquivPred ep = null;
+    for(int i = 0; i < hashes.length; i++)
+        {
+        if(hashes[i] == h)
+            {
+            Object k = array[2 * i];
+            if(k == key)
+                return 2 * i;
+            if(ep == null)
+                ep = Util.equivPred(key);
+            if(ep.equiv(key, k))
+                return 2 * i;
+            }
+        }
+    return -1;
+}
+
 private int indexOf(Object key){
     if(key instanceof Keyword)
         {
@@ -270,6 +328,8 @@ private int indexOf(Object key){
             }
     	return -1;
         }
+    else if(array.length > HASH_SCAN_THRESHOLD)
+        return indexOfHash(key);
     else
         return indexOfObject(key);
 }
@@ -284,6 +344,28 @@ public Iterator iterator(){
 	return new Iter(array);
 }
 
+static final class KeyHashes{
+	final int[] hashes;
+
+	KeyHashes(Object[] array){
+		hashes = new int[array.length / 2];
+		for(int i = 0; i < hashes.length; i++)
+			hashes[i] = Util.hasheq(array[2 * i]);
+	}
+
+	KeyHashes(int[] hashes){
+		this.hashes = hashes;
+	}
+
+	//for the keys with key prepended, as by assoc
+	KeyHashes cons(Object key){
+		int[] hs = new int[hashes.length + 1];
+		hs[0] = Util.hasheq(key);
+		System.arraycopy(hashes, 0, hs, 1, hashes.length);
+		return new KeyHashes(hs);
+	}
+}
+
 public ISeq seq(){
 	if(array.length > 0)
 		return new Seq(array, 0);
@@ -373,20 +455,31 @@ public ITransientMap asTransient(){
 
 static final class TransientArrayMap extends ATransientMap {
 	int len;
-	final Object[] array;
+	Object[] array;
 	Thread owner;
 
 	public TransientArrayMap(Object[] array){
 		this.owner = Thread.currentThread();
-		this.array = new Object[Math.max(HASHTABLE_THRESHOLD, array.length)];
+		//grown as needed up to HASHTABLE_THRESHOLD, which may be well past what most use
+		this.array = new Object[Math.max(Math.min(16, HASHTABLE_THRESHOLD), array.length)];
 		System.arraycopy(array, 0, this.array, 0, array.length);
 		this.len = array.length;
 	}
 	
 	private int indexOf(Object key){
+		if(key instanceof Keyword)
+			{
+			for(int i = 0; i < len; i += 2)
+				{
+				if(key == array[i])
+					return i;
+				}
+			return -1;
+			}
+		Util.EquivPred ep = Util.equivPred(key);
 		for(int i = 0; i < len; i += 2)
 			{
-			if(equalKey(array[i], key))
+			if(ep.equiv(key, array[i]))
 				return i;
 			}
 		return -1;
@@ -402,7 +495,11 @@ static final class TransientArrayMap extends ATransientMap {
 		else //didn't have key, grow
 			{
 			if(len >= array.length)
-				return PersistentHashMap.create(array).asTransient().assoc(key, val);
+				{
+				if(len >= HASHTABLE_THRESHOLD)
+					return PersistentHashMap.create(array).asTransient().assoc(key, val);
+				array = Arrays.copyOf(array, Math.min(2 * len, HASHTABLE_THRESHOLD));
+				}
 			array[len++] = key;
 			array[len++] = val;
 			}
@@ -25,7 +25,7 @@ import java.util.concurrent.atomic.AtomicReference;
  Any errors are my own
  */
 
-public class PersistentHashMap extends APersistentMap implements IEditableCollection, IObj {
+public class PersistentHashMap extends APersistentMap implements IEditableCollection, IObj, IFold {
 
 final int count;
 final INode root;
@@ -190,8 +190,9 @@ public Object kvreduce(IFn f, Object init){
 public Object fold(long n, final IFn combinef, final IFn reducef,
                    IFn fjinvoke, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
 	//we are ignoring n for now
-	Callable top = new Callable(){
-		public Object call() throws Exception{
+	//an fn, fjinvoke calls it directly when already in the pool
+	AFn top = new AFn(){
+		public Object invoke(){
 			Object ret = combinef.invoke();
 			if(root != null)
 				ret = combinef.invoke(ret, root.fold(combinef,reducef,fjtask,fjfork,fjjoin));
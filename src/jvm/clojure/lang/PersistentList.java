@@ -124,12 +124,16 @@ public class PersistentList extends ASeq implements IPersistentList, IReduce, Li
     }
 
 
-    public static class EmptyList extends Obj implements IPersistentList, List, ISeq, Counted {
+    public static class EmptyList extends Obj implements IPersistentList, List, ISeq, Counted, IHashEq {
 
         public int hashCode() {
             return 1;
         }
 
+        public int hasheq() {
+            return Util.murmur3Hash ? Murmur3.mixCollHash(1, 0) : 1;
+        }
+
         public boolean equals(Object o) {
             return (o instanceof Sequential || o instanceof List) && RT.seq(o) == null;
         }
@@ -89,6 +89,8 @@ public int hasheq() {
 			{
 			hash = 31 * hash + Util.hasheq(s.first());
 			}
+		if(Util.murmur3Hash)
+			hash = Murmur3.mixCollHash(hash, cnt);
 		this._hasheq = hash;
 		}
     return _hasheq;
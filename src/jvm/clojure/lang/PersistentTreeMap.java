@@ -13,6 +13,7 @@
 package clojure.lang;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * Persistent Red Black Tree
@@ -22,7 +23,7 @@ import java.util.*;
  * See Okasaki, Kahrs, Larsen et al
  */
 
-public class PersistentTreeMap extends APersistentMap implements IObj, Reversible, Sorted{
+public class PersistentTreeMap extends APersistentMap implements IObj, Reversible, Sorted, IFold{
 
 public final Comparator comp;
 public final Node tree;
@@ -213,6 +214,43 @@ public Object kvreduce(IFn f, Object init){
     return init;
 }
 
+public Object fold(final long n, final IFn combinef, final IFn reducef,
+                   IFn fjinvoke, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	if(_count <= n)
+		return kvreduce(reducef, combinef.invoke());
+	//an fn, fjinvoke calls it directly when already in the pool
+	AFn top = new AFn(){
+		public Object invoke(){
+			return foldNode(tree, _count, n, combinef, reducef, fjtask, fjfork, fjjoin);
+		}
+	};
+	return fjinvoke.invoke(top);
+}
+
+//subtree sizes aren't stored, but the tree is balanced, so halving the
+//parent's estimate is close enough to decide when to stop splitting
+static Object foldNode(final Node node, long size, final long n, final IFn combinef, final IFn reducef,
+                       final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	if(node == null)
+		return combinef.invoke();
+	if(size <= n)
+		{
+		Object ret = node.kvreduce(reducef, combinef.invoke());
+		return RT.isReduced(ret) ? ((IDeref) ret).deref() : ret;
+		}
+	final long half = size / 2;
+	Object forked = fjfork.invoke(fjtask.invoke(new Callable(){
+		public Object call() throws Exception{
+			return foldNode(node.right(), half, n, combinef, reducef, fjtask, fjfork, fjjoin);
+		}
+	}));
+	Object ret = reducef.invoke(foldNode(node.left(), half, n, combinef, reducef, fjtask, fjfork, fjjoin),
+	                            node.key(), node.val());
+	if(RT.isReduced(ret))
+		ret = ((IDeref) ret).deref();
+	return combinef.invoke(ret, fjjoin.invoke(forked));
+}
+
 
 public NodeIterator reverseIterator(){
 	return new NodeIterator(tree, false);
@@ -15,9 +15,10 @@ package clojure.lang;
 import java.io.Serializable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.atomic.AtomicReference;
 
-public class PersistentVector extends APersistentVector implements IObj, IEditableCollection{
+public class PersistentVector extends APersistentVector implements IObj, IEditableCollection, IFold{
 
 public static class Node implements Serializable {
 	transient public final AtomicReference<Thread> edit;
@@ -274,6 +275,81 @@ public Object kvreduce(IFn f, Object init){
     return init;
 }
 
+public Object fold(final long n, final IFn combinef, final IFn reducef,
+                   IFn fjinvoke, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	if(cnt <= n)
+		{
+		Object ret = reduceNode(root, shift, tailoff(), reducef, combinef.invoke());
+		if(!RT.isReduced(ret))
+			ret = reduceLeaf(tail, tail.length, reducef, ret);
+		return derefReduced(ret);
+		}
+	//an fn, fjinvoke calls it directly when already in the pool
+	AFn top = new AFn(){
+		public Object invoke(){
+			Object ret = tailoff() > 0
+			             ? foldNode(root, shift, tailoff(), n, combinef, reducef, fjtask, fjfork, fjjoin)
+			             : combinef.invoke();
+			return combinef.invoke(ret, derefReduced(reduceLeaf(tail, tail.length, reducef, combinef.invoke())));
+		}
+	};
+	return fjinvoke.invoke(top);
+}
+
+//splits at child boundaries until a subtree holds no more than n items
+static Object foldNode(Node node, int level, int count, long n, IFn combinef, IFn reducef,
+                       IFn fjtask, IFn fjfork, IFn fjjoin){
+	if(level == 0 || count <= n)
+		return derefReduced(reduceNode(node, level, count, reducef, combinef.invoke()));
+	int children = ((count - 1) >>> level) + 1;
+	return foldChildren(node, level, count, 0, children, n, combinef, reducef, fjtask, fjfork, fjjoin);
+}
+
+static Object foldChildren(final Node node, final int level, final int count, int lo, final int hi, final long n,
+                           final IFn combinef, final IFn reducef, final IFn fjtask, final IFn fjfork, final IFn fjjoin){
+	if(hi - lo == 1)
+		{
+		int childCount = Math.min(1 << level, count - (lo << level));
+		return foldNode((Node) node.array[lo], level - 5, childCount, n, combinef, reducef, fjtask, fjfork, fjjoin);
+		}
+	final int mid = (lo + hi) >>> 1;
+	Object forked = fjfork.invoke(fjtask.invoke(new Callable(){
+		public Object call() throws Exception{
+			return foldChildren(node, level, count, mid, hi, n, combinef, reducef, fjtask, fjfork, fjjoin);
+		}
+	}));
+	return combinef.invoke(foldChildren(node, level, count, lo, mid, n, combinef, reducef, fjtask, fjfork, fjjoin),
+	                       fjjoin.invoke(forked));
+}
+
+//returns a Reduced as is, callers deref at the end of a serial piece
+static Object reduceNode(Node node, int level, int count, IFn f, Object init){
+	if(level == 0)
+		return reduceLeaf(node.array, count, f, init);
+	int size = 1 << level;
+	for(int i = 0; count > 0; i++, count -= size)
+		{
+		init = reduceNode((Node) node.array[i], level - 5, Math.min(size, count), f, init);
+		if(RT.isReduced(init))
+			return init;
+		}
+	return init;
+}
+
+static Object reduceLeaf(Object[] array, int count, IFn f, Object init){
+	for(int i = 0; i < count; i++)
+		{
+		init = f.invoke(init, array[i]);
+		if(RT.isReduced(init))
+			return init;
+		}
+	return init;
+}
+
+static Object derefReduced(Object x){
+	return RT.isReduced(x) ? ((IDeref) x).deref() : x;
+}
+
 static public final class ChunkedSeq extends ASeq implements IChunkedSeq,Counted{
 
 	public final PersistentVector vec;
@@ -0,0 +1,148 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.Method;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The primitive fn interfaces for more args than the IFn nested interfaces cover.
+ * <p/>
+ * IFn declares an interface per signature of up to 4 args of Object, long and double,
+ * such as IFn$LLD. A fn taking 5 to MAX_POSITIONAL_ARITY args, at least one of them or
+ * its return a long or double, implements an interface named the same way, such as
+ * IFn$LLLLLD for (fn ^double [^long a ^long b ^long c ^long d ^long e]), with one method
+ * double invokePrim(long, long, long, long, long). Those are generated when
+ * DynamicClassLoader is first asked for them, and written next to the classes that use
+ * them when compiling files, so AOT compiled code finds them on the classpath.
+ */
+public final class PrimInterfaces{
+
+static final String PREFIX = "clojure.lang.IFn$";
+
+static final ConcurrentHashMap<String, Class> generated = new ConcurrentHashMap<String, Class>();
+
+//generated interfaces are defined by one loader, so there is only ever one of each
+static final DynamicClassLoader loader = new DynamicClassLoader(IFn.class.getClassLoader());
+
+/**
+ * The name of the interface for sig, one of O, L or D per arg followed by one for the
+ * return, generating it if need be.
+ */
+static public String interfaceFor(String sig){
+	String name = PREFIX + sig;
+	if(sig.length() > 5)
+		{
+		find(name);
+		if(RT.booleanCast(Compiler.COMPILE_FILES.deref()))
+			{
+			try
+				{
+				Compiler.writeClassFile(name.replace('.', '/'), bytes(sig));
+				}
+			catch(IOException e)
+				{
+				throw Util.sneakyThrow(e);
+				}
+			}
+		}
+	return name;
+}
+
+/**
+ * The generated interface called name, or null if name is not one.
+ */
+static public Class find(String name){
+	if(!name.startsWith(PREFIX))
+		return null;
+	String sig = name.substring(PREFIX.length());
+	if(!isSig(sig))
+		return null;
+	Class c = generated.get(name);
+	if(c != null)
+		return c;
+	synchronized(generated)
+		{
+		c = generated.get(name);
+		if(c == null)
+			{
+			try
+				{
+				//written by an AOT compile
+				c = Class.forName(name, false, IFn.class.getClassLoader());
+				}
+			catch(ClassNotFoundException e)
+				{
+				//the interface belongs to no form, so is not part of any load cache entry
+				Object rec = LoadCache.suspend();
+				try
+					{
+					c = loader.defineClass(name, bytes(sig), null);
+					}
+				finally
+					{
+					LoadCache.resume(rec);
+					}
+				}
+			generated.put(name, c);
+			}
+		return c;
+		}
+}
+
+static boolean isSig(String sig){
+	if(sig.length() < 6 || sig.length() > Compiler.MAX_POSITIONAL_ARITY + 1)
+		return false;
+	boolean prim = false;
+	for(int i = 0; i < sig.length(); i++)
+		{
+		char c = sig.charAt(i);
+		if(c == 'L' || c == 'D')
+			prim = true;
+		else if(c != 'O')
+			return false;
+		}
+	return prim;
+}
+
+static Type type(char c){
+	switch(c)
+		{
+		case 'L':
+			return Type.LONG_TYPE;
+		case 'D':
+			return Type.DOUBLE_TYPE;
+		default:
+			return Type.getType(Object.class);
+		}
+}
+
+static byte[] bytes(String sig){
+	int n = sig.length() - 1;
+	Type[] args = new Type[n];
+	for(int i = 0; i < n; i++)
+		args[i] = type(sig.charAt(i));
+	Method m = new Method("invokePrim", type(sig.charAt(n)), args);
+
+	ClassWriter cw = new ClassWriter(0);
+	cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC + Opcodes.ACC_ABSTRACT + Opcodes.ACC_INTERFACE,
+	         (PREFIX + sig).replace('.', '/'), null, "java/lang/Object", null);
+	cw.visitMethod(Opcodes.ACC_PUBLIC + Opcodes.ACC_ABSTRACT, m.getName(), m.getDescriptor(), null, null)
+			.visitEnd();
+	cw.visitEnd();
+	return cw.toByteArray();
+}
+}
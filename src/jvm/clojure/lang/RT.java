@@ -428,6 +428,8 @@ static final public Var     UNCHECKED_MATH          = Var.intern(Namespace.findO
                 (cljURL == null
                         || lastModified(classURL, classfile) > lastModified(cljURL, cljfile)))
                 || classURL == null) {
+            Object fileProf = classURL != null ? LoadProfiler.enterFile(classfile) : null;
+            Object prof = fileProf != null ? LoadProfiler.enter(LoadProfiler.LOAD_CLASS) : null;
             try {
                 Var.pushThreadBindings(
                         RT.mapUniqueKeys(CURRENT_NS, CURRENT_NS.deref(),
@@ -435,6 +437,8 @@ static final public Var     UNCHECKED_MATH          = Var.intern(Namespace.findO
                                 , RT.UNCHECKED_MATH, RT.UNCHECKED_MATH.deref()));
                 loaded = (loadClassForName(scriptbase.replace('/', '.') + LOADER_SUFFIX) != null);
             } finally {
+                LoadProfiler.exit(prof);
+                LoadProfiler.exit(fileProf);
                 Var.popThreadBindings();
             }
         }
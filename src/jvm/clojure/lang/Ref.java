@@ -71,6 +71,7 @@ public static class TVal{
 TVal tvals;
 final AtomicInteger faults;
 final ReentrantReadWriteLock lock;
+final STMMetrics.RefMetrics metrics;
 LockingTransaction.Info tinfo;
 //IFn validator;
 final long id;
@@ -89,6 +90,7 @@ public Ref(Object initVal,IPersistentMap meta) {
     this.id = ids.getAndIncrement();
 	this.faults = new AtomicInteger();
 	this.lock = new ReentrantReadWriteLock();
+	this.metrics = STMMetrics.enabled ? new STMMetrics.RefMetrics() : null;
 	tvals = new TVal(initVal, 0);
 }
 
@@ -205,6 +207,11 @@ public void trimHistory(){
 		}
 }
 
+//nil unless clojure.stm.metrics=true
+public IPersistentMap getMetrics(){
+	return metrics == null ? null : metrics.snapshot();
+}
+
 public int getHistoryCount(){
 	try
 		{
@@ -0,0 +1,168 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+/**
+ * Inline cache for a method call the compiler could not resolve.
+ * <p/>
+ * One site is emitted as a constant per reflective call in a fn. Each entry keys the
+ * receiver class and the exact classes of the args to the method Reflector would have
+ * picked for them, held as a MethodHandle, so later calls with the same shapes skip
+ * getMethods and the congruence scan. Past MAX_ENTRIES shapes the site is megamorphic
+ * and further misses go through Reflector without being cached. An entry calls through
+ * Method.invoke for its first HANDLE_AFTER calls, since adapting a handle costs far more
+ * than a reflective call and most sites, e.g. those run while loading a namespace, are
+ * only ever hit a few times. With clojure.reflector.asm set, instance methods the
+ * reflectasm accessor reaches are called through it instead, as Reflector calls them.
+ */
+public final class ReflectiveCallSite {
+
+    static final int MAX_ENTRIES = 8;
+
+    static final int HANDLE_AFTER = 64;
+
+    static final Entry[] EMPTY = new Entry[0];
+
+    public final String methodName;
+
+    private volatile Entry[] entries = EMPTY;
+
+    public ReflectiveCallSite(String methodName) {
+        this.methodName = methodName;
+    }
+
+    public Object invoke(Object target, Object[] args) {
+        Class c = target.getClass();
+        Entry[] es = entries;
+        for (int i = 0; i < es.length; i++) {
+            if (es[i].matches(c, args))
+                return es[i].invoke(target, args);
+        }
+        return fault(c, target, args, false);
+    }
+
+    public Object invokeStatic(Class c, Object[] args) {
+        Entry[] es = entries;
+        for (int i = 0; i < es.length; i++) {
+            if (es[i].matches(c, args))
+                return es[i].invoke(null, args);
+        }
+        return fault(c, null, args, true);
+    }
+
+    private Object fault(Class c, Object target, Object[] args, boolean isStatic) {
+        if (isStatic && methodName.equals("new"))
+            return Reflector.invokeConstructor(c, args);
+        List methods = Reflector.getMethods(c, args.length, methodName, isStatic);
+        Entry[] es = entries;
+        if (es.length >= MAX_ENTRIES)
+            return Reflector.invokeMatchingMethod(methodName, methods, target, args);
+
+        Method m = Reflector.findMatchingMethod(methodName, methods, target, args);
+        Class[] params = m.getParameterTypes();
+        Method pm = Reflector.publicMethodOf(m);
+        try {
+            MethodHandles.publicLookup().unreflect(pm);
+        } catch (IllegalAccessException e) {
+            return Reflector.invokeMatchingMethod(methodName, methods, target, args);
+        }
+        Entry e = new Entry(c, argClasses(args), params, pm);
+
+        Entry[] nes = new Entry[es.length + 1];
+        System.arraycopy(es, 0, nes, 0, es.length);
+        nes[es.length] = e;
+        entries = nes;
+        return e.invoke(target, args);
+    }
+
+    static MethodHandle spreadHandle(Method m, int arity) throws IllegalAccessException {
+        MethodHandle mh = MethodHandles.publicLookup().unreflect(m);
+        boolean isStatic = Modifier.isStatic(m.getModifiers());
+        mh = mh.asType(MethodType.genericMethodType(isStatic ? arity : arity + 1));
+        if (isStatic)
+            mh = MethodHandles.dropArguments(mh, 0, Object.class);
+        return mh.asSpreader(Object[].class, arity);
+    }
+
+    static Class[] argClasses(Object[] args) {
+        Class[] ret = new Class[args.length];
+        for (int i = 0; i < args.length; i++)
+            ret[i] = args[i] == null ? null : args[i].getClass();
+        return ret;
+    }
+
+    static final class Entry {
+        final Class        targetClass;
+        final Class[]      argClasses;
+        final Class[]      params;
+        final Class        retType;
+        final Method       method;
+        //set when the call goes through a reflectasm accessor
+        final com.esotericsoftware.reflectasm.MethodAccess access;
+        final int          accessIndex;
+        //racy, a few extra reflective calls don't matter
+        int calls;
+        volatile MethodHandle handle;
+
+        Entry(Class targetClass, Class[] argClasses, Class[] params, Method method) {
+            this.targetClass = targetClass;
+            this.argClasses = argClasses;
+            this.params = params;
+            this.retType = method.getReturnType();
+            this.method = method;
+            int i = -1;
+            if (Reflector.asmAccess && !Modifier.isStatic(method.getModifiers())) {
+                Reflector.Accessors a = Reflector.Accessors.of(method.getDeclaringClass());
+                i = a.methodIndex(method);
+                this.access = i >= 0 ? a.methods : null;
+            } else
+                this.access = null;
+            this.accessIndex = i;
+        }
+
+        boolean matches(Class c, Object[] args) {
+            if (c != targetClass)
+                return false;
+            for (int i = 0; i < args.length; i++) {
+                Object arg = args[i];
+                if ((arg == null ? null : arg.getClass()) != argClasses[i])
+                    return false;
+            }
+            return true;
+        }
+
+        Object invoke(Object target, Object[] args) {
+            Object[] boxedArgs = Reflector.boxArgs(params, args);
+            if (access != null)
+                return Reflector.prepRet(retType, access.invoke(target, accessIndex, boxedArgs));
+            try {
+                MethodHandle h = handle;
+                if (h == null && ++calls > HANDLE_AFTER)
+                    h = handle = spreadHandle(method, args.length);
+                if (h != null)
+                    return Reflector.prepRet(retType, (Object) h.invokeExact(target, boxedArgs));
+                return Reflector.prepRet(retType, method.invoke(target, boxedArgs));
+            } catch (InvocationTargetException e) {
+                throw Util.sneakyThrow(e.getCause());
+            } catch (Throwable e) {
+                throw Util.sneakyThrow(e);
+            }
+        }
+    }
+}
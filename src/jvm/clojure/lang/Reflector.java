@@ -12,7 +12,9 @@
 
 package clojure.lang;
 
+import com.esotericsoftware.reflectasm.ConstructorAccess;
 import com.esotericsoftware.reflectasm.FieldAccess;
+import com.esotericsoftware.reflectasm.MethodAccess;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -21,13 +23,19 @@ import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Reflector {
 
+    /**
+     * when true, public instance methods, no-arg constructors and public instance fields are
+     * reached through reflectasm generated accessors instead of java.lang.reflect
+     */
+    static final String  ASM_ACCESS_PROP = "clojure.reflector.asm";
+    static final boolean asmAccess       = System.getProperty(ASM_ACCESS_PROP, "false").equals("true");
+
     public static Object invokeInstanceMethod(Object target, String methodName, Object[] args) {
         Class c = target.getClass();
-       // MethodAccess access = MethodAccess.get(c);
-       // access.invoke(target,methodName,args);
         List methods = getMethods(c, args.length, methodName, false);
         return invokeMatchingMethod(methodName, methods, target, args);
     }
@@ -50,13 +58,29 @@ public class Reflector {
     }
 
     public static Object invokeMatchingMethod(String methodName, List methods, Object target, Object[] args) {
+        Method m = findMatchingMethod(methodName, methods, target, args);
+        Object[] boxedArgs = boxArgs(m.getParameterTypes(), args);
+        m = publicMethodOf(m);
+        if (asmAccess && target != null) {
+            Accessors a = Accessors.of(m.getDeclaringClass());
+            int i = a.methodIndex(m);
+            if (i >= 0)
+                return prepRet(m.getReturnType(), a.methods.invoke(target, i, boxedArgs));
+        }
+        try {
+            return prepRet(m.getReturnType(), m.invoke(target, boxedArgs));
+        } catch (Exception e) {
+            throw Util.sneakyThrow(getCauseOrElse(e));
+        }
+
+    }
+
+    static Method findMatchingMethod(String methodName, List methods, Object target, Object[] args) {
         Method m = null;
-        Object[] boxedArgs = null;
         if (methods.isEmpty()) {
             throw new IllegalArgumentException(noMethodReport(methodName, target));
         } else if (methods.size() == 1) {
             m = (Method) methods.get(0);
-            boxedArgs = boxArgs(m.getParameterTypes(), args);
         } else //overloaded w/same arity
         {
             Method foundm = null;
@@ -67,7 +91,6 @@ public class Reflector {
                 if (isCongruent(params, args)) {
                     if (foundm == null || Compiler.subsumes(params, foundm.getParameterTypes())) {
                         foundm = m;
-                        boxedArgs = boxArgs(params, args);
                     }
                 }
             }
@@ -75,7 +98,10 @@ public class Reflector {
         }
         if (m == null)
             throw new IllegalArgumentException(noMethodReport(methodName, target));
+        return m;
+    }
 
+    static Method publicMethodOf(Method m) {
         if (!Modifier.isPublic(m.getDeclaringClass().getModifiers())) {
             //public method of non-public class, try to find it in hierarchy
             Method oldm = m;
@@ -84,12 +110,7 @@ public class Reflector {
                 throw new IllegalArgumentException("Can't call public method of non-public class: " +
                                                            oldm.toString());
         }
-        try {
-            return prepRet(m.getReturnType(), m.invoke(target, boxedArgs));
-        } catch (Exception e) {
-            throw Util.sneakyThrow(getCauseOrElse(e));
-        }
-
+        return m;
     }
 
     public static Method getAsMethodOfPublicBase(Class c, Method m) {
@@ -146,6 +167,11 @@ public class Reflector {
                                                            + " for " + c);
             } else if (ctors.size() == 1) {
                 Constructor ctor = (Constructor) ctors.get(0);
+                if (asmAccess && args.length == 0) {
+                    ConstructorAccess ca = Accessors.of(c).constructor();
+                    if (ca != null)
+                        return ca.newInstance();
+                }
                 return ctor.newInstance(boxArgs(ctor.getParameterTypes(), args));
             } else //overloaded w/same arity
             {
@@ -223,9 +249,9 @@ public class Reflector {
 
     public static Object getInstanceField(Object target, String fieldName) {
         Class c = target.getClass();
-        Object value = getFieldValue(c, target, fieldName);
-        if (value != null) {
-            return prepRet(value.getClass(), value);
+        Field f = getField(c, fieldName, false);
+        if (f != null) {
+            return prepRet(f.getType(), getFieldValue(f, target));
         }
         throw new IllegalArgumentException("No matching field found: " + fieldName
                                                    + " for " + target.getClass());
@@ -233,9 +259,13 @@ public class Reflector {
 
     public static Object setInstanceField(Object target, String fieldName, Object val) {
         Class c = target.getClass();
-        FieldAccess access = FieldAccess.get(c);
-        access.set(target, fieldName, boxArg(val.getClass(), val));
-        return val;
+        Field f = getField(c, fieldName, false);
+        if (f != null) {
+            setFieldValue(f, target, boxArg(f.getType(), val));
+            return val;
+        }
+        throw new IllegalArgumentException("No matching field found: " + fieldName
+                                                   + " for " + target.getClass());
     }
 
     public static Object invokeNoArgInstanceMember(Object target, String name) {
@@ -253,11 +283,7 @@ public class Reflector {
         Field f = getField(c, name, false);
         if (f != null)  //field get
         {
-            try {
-                return prepRet(f.getType(), f.get(target));
-            } catch (IllegalAccessException e) {
-                throw Util.sneakyThrow(e);
-            }
+            return prepRet(f.getType(), getFieldValue(f, target));
         }
         return invokeInstanceMethod(target, name, RT.EMPTY_ARRAY);
     }
@@ -268,19 +294,40 @@ public class Reflector {
         Field f = getField(c, name, false);
         if (f != null)  //field set
         {
-            try {
-                f.set(target, boxArg(f.getType(), arg1));
-            } catch (IllegalAccessException e) {
-                throw Util.sneakyThrow(e);
-            }
+            setFieldValue(f, target, boxArg(f.getType(), arg1));
             return arg1;
         }
         return invokeInstanceMethod(target, name, new Object[]{arg1});
     }
 
-    private static Object getFieldValue(Class clazz, Object instance, String name) {
-        FieldAccess access = FieldAccess.get(clazz);
-        return access.get(instance, name);
+    private static Object getFieldValue(Field f, Object target) {
+        if (asmAccess) {
+            Accessors a = Accessors.of(f.getDeclaringClass());
+            int i = a.fieldIndex(f);
+            if (i >= 0)
+                return a.fields.get(target, i);
+        }
+        try {
+            return f.get(target);
+        } catch (IllegalAccessException e) {
+            throw Util.sneakyThrow(e);
+        }
+    }
+
+    private static void setFieldValue(Field f, Object target, Object val) {
+        if (asmAccess && !Modifier.isFinal(f.getModifiers())) {
+            Accessors a = Accessors.of(f.getDeclaringClass());
+            int i = a.fieldIndex(f);
+            if (i >= 0) {
+                a.fields.set(target, i, val);
+                return;
+            }
+        }
+        try {
+            f.set(target, val);
+        } catch (IllegalAccessException e) {
+            throw Util.sneakyThrow(e);
+        }
     }
 
     public static Object invokeInstanceMember(String name, Object target, Object... args) {
@@ -434,4 +481,83 @@ public class Reflector {
 //			return Double.valueOf(((Float) x).doubleValue());
         return x;
     }
+
+    /**
+     * reflectasm accessors for one class, generated on first use. Held in a ClassValue so the
+     * accessors live and die with the class and its loader.
+     */
+    static final class Accessors {
+        static final ClassValue<Accessors> cache = new ClassValue<Accessors>() {
+            protected Accessors computeValue(Class<?> c) {
+                return new Accessors(c);
+            }
+        };
+
+        static final Integer NONE = -1;
+
+        final Class c;
+
+        volatile MethodAccess      methods;
+        volatile FieldAccess       fields;
+        volatile ConstructorAccess ctor;
+        volatile boolean           noCtor;
+
+        final ConcurrentHashMap<Object, Integer> indexes = new ConcurrentHashMap<Object, Integer>();
+
+        Accessors(Class c) {
+            this.c = c;
+        }
+
+        static Accessors of(Class c) {
+            return cache.get(c);
+        }
+
+        int methodIndex(Method m) {
+            Integer i = indexes.get(m);
+            if (i == null) {
+                i = NONE;
+                try {
+                    if (methods == null)
+                        methods = MethodAccess.get(c);
+                    i = methods.getIndex(m.getName(), m.getParameterTypes());
+                } catch (RuntimeException e) {
+                    //not reachable through a generated accessor, use reflection
+                }
+                indexes.put(m, i);
+            }
+            return i;
+        }
+
+        int fieldIndex(Field f) {
+            Integer i = indexes.get(f);
+            if (i == null) {
+                i = NONE;
+                try {
+                    if (fields == null)
+                        fields = FieldAccess.get(c);
+                    i = fields.getIndex(f.getName());
+                } catch (RuntimeException e) {
+                    //not reachable through a generated accessor, use reflection
+                }
+                indexes.put(f, i);
+            }
+            return i;
+        }
+
+        ConstructorAccess constructor() {
+            if (ctor == null && !noCtor) {
+                try {
+                    if (Modifier.isPublic(c.getModifiers()) && !Modifier.isAbstract(c.getModifiers())) {
+                        ConstructorAccess ca = ConstructorAccess.get(c);
+                        if (!ca.isNonStaticMemberClass())
+                            ctor = ca;
+                    }
+                } catch (RuntimeException e) {
+                    //no accessible no-arg ctor
+                }
+                noCtor = ctor == null;
+            }
+            return ctor;
+        }
+    }
 }
@@ -0,0 +1,213 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.ObjectName;
+
+/**
+ * Counters for LockingTransaction and Ref, on when clojure.stm.metrics=true.
+ * <p/>
+ * enabled is a static final read once, so with metrics off every recording site is a
+ * branch the JIT removes and Refs carry a null metrics field. Retries are counted by the
+ * cause that threw them, globally and on the ref involved when there is one. Commit
+ * latency runs from the start of a transaction's first attempt to its commit, in power
+ * of two microsecond buckets.
+ */
+public final class STMMetrics implements STMMetricsMBean{
+
+static public final boolean enabled = System.getProperty("clojure.stm.metrics", "false").equals("true");
+
+//couldn't get a ref's write lock within LOCK_WAIT_MSECS
+static public final int LOCK_TIMEOUT = 0;
+//a ref was written by another transaction after our read point
+static public final int WRITE_CONFLICT = 1;
+//another running transaction is writing the ref and couldn't be barged
+static public final int WRITER_RUNNING = 2;
+//an older transaction barged us
+static public final int BARGED = 3;
+//the ref's history has no value as old as our read point
+static public final int HISTORY_FAULT = 4;
+
+static final Keyword[] causes = {Keyword.intern(null, "lock-timeout"),
+                                 Keyword.intern(null, "write-conflict"),
+                                 Keyword.intern(null, "writer-running"),
+                                 Keyword.intern(null, "barged"),
+                                 Keyword.intern(null, "history-fault")};
+
+//bucket i counts latencies under 2^i usecs, the last one everything longer
+static final int LATENCY_BUCKETS = 32;
+
+static final AtomicLong transactions = new AtomicLong();
+static final AtomicLong commits = new AtomicLong();
+static final AtomicLongArray retries = new AtomicLongArray(causes.length);
+static final AtomicLong bargeAttempts = new AtomicLong();
+static final AtomicLong barges = new AtomicLong();
+static final AtomicLong lockWaitNanos = new AtomicLong();
+static final AtomicLongArray commitLatency = new AtomicLongArray(LATENCY_BUCKETS);
+
+static
+	{
+	if(enabled)
+		{
+		try
+			{
+			ManagementFactory.getPlatformMBeanServer()
+					.registerMBean(new STMMetrics(), new ObjectName("clojure:type=STM"));
+			}
+		catch(Exception e)
+			{
+			//already registered by another copy of clojure, or no JMX; the API still works
+			}
+		}
+	}
+
+static public final class RefMetrics{
+	final AtomicLongArray retries = new AtomicLongArray(causes.length);
+	final AtomicLong bargeAttempts = new AtomicLong();
+	final AtomicLong barges = new AtomicLong();
+	final AtomicLong lockWaitNanos = new AtomicLong();
+
+	public IPersistentMap snapshot(){
+		return RT.map(Keyword.intern(null, "retries"), retryMap(retries),
+		              Keyword.intern(null, "barge-attempts"), bargeAttempts.get(),
+		              Keyword.intern(null, "barges"), barges.get(),
+		              Keyword.intern(null, "lock-wait-nanos"), lockWaitNanos.get());
+	}
+}
+
+static void transactionStarted(){
+	transactions.incrementAndGet();
+}
+
+static void retry(int cause, Ref ref){
+	retries.incrementAndGet(cause);
+	if(ref != null && ref.metrics != null)
+		ref.metrics.retries.incrementAndGet(cause);
+}
+
+static void bargeAttempt(Ref ref, boolean barged){
+	bargeAttempts.incrementAndGet();
+	if(barged)
+		barges.incrementAndGet();
+	if(ref != null && ref.metrics != null)
+		{
+		ref.metrics.bargeAttempts.incrementAndGet();
+		if(barged)
+			ref.metrics.barges.incrementAndGet();
+		}
+}
+
+static void lockWait(Ref ref, long nanos){
+	lockWaitNanos.addAndGet(nanos);
+	if(ref.metrics != null)
+		ref.metrics.lockWaitNanos.addAndGet(nanos);
+}
+
+static void committed(long nanos){
+	commits.incrementAndGet();
+	long usecs = nanos / 1000;
+	int bucket = 64 - Long.numberOfLeadingZeros(usecs);
+	commitLatency.incrementAndGet(Math.min(bucket, LATENCY_BUCKETS - 1));
+}
+
+static IPersistentMap retryMap(AtomicLongArray counts){
+	IPersistentMap ret = PersistentArrayMap.EMPTY;
+	for(int i = 0; i < causes.length; i++)
+		ret = ret.assoc(causes[i], counts.get(i));
+	return ret;
+}
+
+static public IPersistentMap snapshot(){
+	if(!enabled)
+		return null;
+	IPersistentMap latency = PersistentTreeMap.EMPTY;
+	for(int i = 0; i < LATENCY_BUCKETS; i++)
+		{
+		long n = commitLatency.get(i);
+		if(n > 0)
+			latency = latency.assoc(i == LATENCY_BUCKETS - 1 ? Long.MAX_VALUE : 1L << i, n);
+		}
+	return RT.map(Keyword.intern(null, "transactions"), transactions.get(),
+	              Keyword.intern(null, "commits"), commits.get(),
+	              Keyword.intern(null, "retries"), retryMap(retries),
+	              Keyword.intern(null, "barge-attempts"), bargeAttempts.get(),
+	              Keyword.intern(null, "barges"), barges.get(),
+	              Keyword.intern(null, "history-faults"), retries.get(HISTORY_FAULT),
+	              Keyword.intern(null, "lock-wait-nanos"), lockWaitNanos.get(),
+	              Keyword.intern(null, "commit-latency-usecs"), latency);
+}
+
+static public void resetAll(){
+	transactions.set(0);
+	commits.set(0);
+	for(int i = 0; i < causes.length; i++)
+		retries.set(i, 0);
+	bargeAttempts.set(0);
+	barges.set(0);
+	lockWaitNanos.set(0);
+	for(int i = 0; i < LATENCY_BUCKETS; i++)
+		commitLatency.set(i, 0);
+}
+
+public long getTransactions(){
+	return transactions.get();
+}
+
+public long getCommits(){
+	return commits.get();
+}
+
+public long getLockTimeoutRetries(){
+	return retries.get(LOCK_TIMEOUT);
+}
+
+public long getWriteConflictRetries(){
+	return retries.get(WRITE_CONFLICT);
+}
+
+public long getWriterRunningRetries(){
+	return retries.get(WRITER_RUNNING);
+}
+
+public long getBargedRetries(){
+	return retries.get(BARGED);
+}
+
+public long getHistoryFaultRetries(){
+	return retries.get(HISTORY_FAULT);
+}
+
+public long getBargeAttempts(){
+	return bargeAttempts.get();
+}
+
+public long getBarges(){
+	return barges.get();
+}
+
+public long getLockWaitNanos(){
+	return lockWaitNanos.get();
+}
+
+public long[] getCommitLatencyHistogram(){
+	long[] ret = new long[LATENCY_BUCKETS];
+	for(int i = 0; i < LATENCY_BUCKETS; i++)
+		ret[i] = commitLatency.get(i);
+	return ret;
+}
+
+public void reset(){
+	resetAll();
+}
+}
@@ -0,0 +1,40 @@
+/**
+ *   Copyright (c) Rich Hickey. All rights reserved.
+ *   The use and distribution terms for this software are covered by the
+ *   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+ *   which can be found in the file epl-v10.html at the root of this distribution.
+ *   By using this software in any fashion, you are agreeing to be bound by
+ * 	 the terms of this license.
+ *   You must not remove this notice, or any other, from this software.
+ **/
+
+package clojure.lang;
+
+/**
+ * JMX view of STMMetrics, registered as clojure:type=STM when metrics are enabled.
+ */
+public interface STMMetricsMBean{
+long getTransactions();
+
+long getCommits();
+
+long getLockTimeoutRetries();
+
+long getWriteConflictRetries();
+
+long getWriterRunningRetries();
+
+long getBargedRetries();
+
+long getHistoryFaultRetries();
+
+long getBargeAttempts();
+
+long getBarges();
+
+long getLockWaitNanos();
+
+long[] getCommitLatencyHistogram();
+
+void reset();
+}
@@ -12,51 +12,180 @@
 
 package clojure.lang;
 
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentMap;
 import java.util.*;
 
+/**
+ * A ConcurrentMap over Refs, so changes to it are part of the transactions making them.
+ * <p/>
+ * Entries are kept in persistent maps, each in a Ref, a bin per key hash. Changes need a
+ * running transaction. Reads don't: get and containsKey outside one see the latest
+ * committed value, and size and entrySet run a transaction of their own so they see the
+ * map as it was at a point in time. Bins are looked up in the ones last read, and read
+ * again from the Ref holding them once one is found moved.
+ * <p/>
+ * The count is kept in a few Refs, the stripe of a key being the low bits of its hash.
+ * Changes commute them, so writers to different bins don't conflict over the count. The
+ * bins are doubled once a stripe's count estimates more than LOAD entries per bin. The
+ * resize sets every old bin to null and the Ref holding the bins to the new ones. A
+ * transaction that sees an old bin as of its read point so sees the old bins as they
+ * were, one seeing a new bin that didn't exist at its read point faults and retries,
+ * and one writing an old bin after the resize retries.
+ */
 public class TransactionalHashMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V>{
-final Ref[] bins;
 
-IPersistentMap mapAt(int bin){
-	return (IPersistentMap) bins[bin].deref();
-}
+static final int STRIPES = 16;
+static final int LOAD = 64;
+
+//the Ref[] of bins, a power of 2 of them and at least STRIPES
+final Ref bins;
+//the bins last read from the Ref, kept so reads don't all contend for its lock
+volatile Ref[] current;
+final Ref[] counts;
 
-final int binFor(Object k){
+static final IFn ADD = new AFn(){
+	public Object invoke(Object n, Object d){
+		return (Long) n + (Long) d;
+	}
+};
+
+static final ISeq INC = RT.list(1L);
+static final ISeq DEC = RT.list(-1L);
+
+static int hash(Object k){
 	//spread hashes, a la Cliff Click
-	int h = k.hashCode();
+	int h = Util.hash(k);
 	h ^= (h >>> 20) ^ (h >>> 12);
 	h ^= (h >>> 7) ^ (h >>> 4);
-	return h % bins.length;
-//	return k.hashCode() % bins.length;
+	return h;
+}
+
+Ref[] bins(){
+	return (Ref[]) bins.deref();
+}
+
+//the bins after a resize, which out of a transaction are kept for later reads
+Ref[] moved(){
+	Ref[] bs = bins();
+	if(!LockingTransaction.isRunning())
+		current = bs;
+	return bs;
+}
+
+IPersistentMap mapAt(Ref[] bins, int bin){
+	return (IPersistentMap) bins[bin].deref();
+}
+
+IPersistentMap mapFor(Object k){
+	int h = hash(k);
+	for(Ref[] bs = current; ; bs = moved())
+		{
+		IPersistentMap map = mapAt(bs, h & (bs.length - 1));
+		if(map != null)
+			return map;
+		}
 }
 
 Entry entryAt(Object k){
-	return mapAt(binFor(k)).entryAt(k);
+	return mapFor(k).entryAt(k);
+}
+
+//the bin for k, in a transaction
+Ref binFor(Object k){
+	int h = hash(k);
+	for(Ref[] bs = current; ; bs = moved())
+		{
+		Ref r = bs[h & (bs.length - 1)];
+		if(r.deref() != null)
+			return r;
+		}
+}
+
+void counted(Object k, ISeq delta){
+	Ref count = counts[hash(k) & (STRIPES - 1)];
+	long n = (Long) count.commute(ADD, delta);
+	if(delta == INC && n * STRIPES > (long) current.length * LOAD)
+		{
+		Ref[] bs = bins();
+		if(n * STRIPES > (long) bs.length * LOAD)
+			grow(bs);
+		}
+}
+
+void grow(Ref[] old){
+	int n = old.length;
+	ITransientMap[] maps = new ITransientMap[n * 2];
+	for(int i = 0; i < maps.length; i++)
+		maps[i] = PersistentHashMap.EMPTY.asTransient();
+	for(int i = 0; i < n; i++)
+		{
+		for(ISeq s = RT.seq(mapAt(old, i)); s != null; s = s.next())
+			{
+			IMapEntry e = (IMapEntry) s.first();
+			int bin = hash(e.key()) & (maps.length - 1);
+			maps[bin] = maps[bin].assoc(e.key(), e.val());
+			}
+		old[i].set(null);
+		}
+	//set rather than made with their maps, so the bins' only val is from the commit point
+	Ref[] bs = new Ref[maps.length];
+	for(int i = 0; i < bs.length; i++)
+		{
+		bs[i] = new Ref(null);
+		bs[i].set(maps[i].persistent());
+		}
+	bins.set(bs);
+}
+
+static Object inTransaction(Callable fn){
+	try
+		{
+		return LockingTransaction.runInTransaction(fn);
+		}
+	catch(Exception e)
+		{
+		throw Util.sneakyThrow(e);
+		}
 }
 
 public TransactionalHashMap() {
-	this(421);
+	this(STRIPES);
 }
 
 public TransactionalHashMap(int nBins) {
-	bins = new Ref[nBins];
-	for(int i = 0; i < nBins; i++)
-		bins[i] = new Ref(PersistentHashMap.EMPTY);
+	int n = STRIPES;
+	while(n < nBins)
+		n <<= 1;
+	Ref[] bs = new Ref[n];
+	for(int i = 0; i < n; i++)
+		bs[i] = new Ref(PersistentHashMap.EMPTY);
+	bins = new Ref(bs);
+	current = bs;
+	counts = new Ref[STRIPES];
+	for(int i = 0; i < STRIPES; i++)
+		counts[i] = new Ref(0L);
 }
 
-public TransactionalHashMap(Map<? extends K, ? extends V> m) {
-	this(m.size());
-	putAll(m);
+public TransactionalHashMap(final Map<? extends K, ? extends V> m) {
+	this(m.size() / LOAD);
+	inTransaction(new Callable(){
+		public Object call(){
+			putAll(m);
+			return null;
+		}
+	});
 }
 
 public int size(){
-	int n = 0;
-	for(int i = 0; i < bins.length; i++)
-		{
-		n += mapAt(i).count();
+	return (Integer) inTransaction(new Callable(){
+		public Object call(){
+			long n = 0;
+			for(Ref count : counts)
+				n += (Long) count.deref();
+			return (int) n;
 		}
-	return n;
+	});
 }
 
 public boolean isEmpty(){
@@ -75,19 +204,27 @@ public V get(Object k){
 }
 
 public V put(K k, V v){
-	Ref r = bins[binFor(k)];
+	Ref r = binFor(k);
 	IPersistentMap map = (IPersistentMap) r.deref();
-	Object ret = map.valAt(k);
+	Entry e = map.entryAt(k);
 	r.set(map.assoc(k, v));
-	return (V) ret;
+	if(e == null)
+		{
+		counted(k, INC);
+		return null;
+		}
+	return (V) e.getValue();
 }
 
 public V remove(Object k){
-	Ref r = bins[binFor(k)];
+	Ref r = binFor(k);
 	IPersistentMap map = (IPersistentMap) r.deref();
-	Object ret = map.valAt(k);
+	Entry e = map.entryAt(k);
+	if(e == null)
+		return null;
 	r.set(map.without(k));
-	return (V) ret;
+	counted(k, DEC);
+	return (V) e.getValue();
 }
 
 public void putAll(Map<? extends K, ? extends V> map){
@@ -99,25 +236,35 @@ public void putAll(Map<? extends K, ? extends V> map){
 }
 
 public void clear(){
-	for(int i = 0; i < bins.length; i++)
+	Ref[] bs = bins();
+	for(int i = 0; i < bs.length; i++)
 		{
-		Ref r = bins[i];
+		Ref r = bs[i];
 		IPersistentMap map = (IPersistentMap) r.deref();
 		if(map.count() > 0)
 			{
 			r.set(PersistentHashMap.EMPTY);
 			}
 		}
+	//less what was counted, as the count may already have been commuted
+	for(Ref count : counts)
+		count.commute(ADD, RT.list(-(Long) count.deref()));
 }
 
 public Set<Entry<K, V>> entrySet(){
-	final ArrayList<Map.Entry<K, V>> entries = new ArrayList(bins.length);
-	for(int i = 0; i < bins.length; i++)
-		{
-		IPersistentMap map = mapAt(i);
-		if(map.count() > 0)
-			entries.addAll((Collection) RT.seq(map));
+	final ArrayList<Map.Entry<K, V>> entries = (ArrayList) inTransaction(new Callable(){
+		public Object call(){
+			Ref[] bs = bins();
+			ArrayList entries = new ArrayList(bs.length);
+			for(int i = 0; i < bs.length; i++)
+				{
+				IPersistentMap map = mapAt(bs, i);
+				if(map.count() > 0)
+					entries.addAll((Collection) RT.seq(map));
+				}
+			return entries;
 		}
+	});
 	return new AbstractSet<Entry<K, V>>(){
 		public Iterator iterator(){
 			return Collections.unmodifiableList(entries).iterator();
@@ -130,12 +277,13 @@ public Set<Entry<K, V>> entrySet(){
 }
 
 public V putIfAbsent(K k, V v){
-	Ref r = bins[binFor(k)];
+	Ref r = binFor(k);
 	IPersistentMap map = (IPersistentMap) r.deref();
 	Entry e = map.entryAt(k);
 	if(e == null)
 		{
 		r.set(map.assoc(k, v));
+		counted(k, INC);
 		return null;
 		}
 	else
@@ -143,19 +291,20 @@ public V putIfAbsent(K k, V v){
 }
 
 public boolean remove(Object k, Object v){
-	Ref r = bins[binFor(k)];
+	Ref r = binFor(k);
 	IPersistentMap map = (IPersistentMap) r.deref();
 	Entry e = map.entryAt(k);
 	if(e != null && e.getValue().equals(v))
 		{
 		r.set(map.without(k));
+		counted(k, DEC);
 		return true;
 		}
 	return false;
 }
 
 public boolean replace(K k, V oldv, V newv){
-	Ref r = bins[binFor(k)];
+	Ref r = binFor(k);
 	IPersistentMap map = (IPersistentMap) r.deref();
 	Entry e = map.entryAt(k);
 	if(e != null && e.getValue().equals(oldv))
@@ -167,7 +316,7 @@ public boolean replace(K k, V oldv, V newv){
 }
 
 public V replace(K k, V v){
-	Ref r = bins[binFor(k)];
+	Ref r = binFor(k);
 	IPersistentMap map = (IPersistentMap) r.deref();
 	Entry e = map.entryAt(k);
 	if(e != null)
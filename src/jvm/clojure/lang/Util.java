@@ -15,12 +15,21 @@ package clojure.lang;
 import java.lang.ref.Reference;
 import java.math.BigInteger;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.lang.ref.SoftReference;
 import java.lang.ref.ReferenceQueue;
 
 public class Util{
+/**
+ * When true (-Dclojure.hash.murmur3=true), hasheq of longs and of collections is run
+ * through Murmur3 mixing. Read once at startup; code that persists hashes, such as
+ * AOT compiled case tables, must not depend on it.
+ */
+static public final boolean murmur3Hash = System.getProperty("clojure.hash.murmur3", "false").equals("true");
+
 static public boolean equiv(Object k1, Object k2){
 	if(k1 == k2)
 		return true;
@@ -164,10 +173,15 @@ static public int hash(Object o){
 public static int hasheq(Object o){
 	if(o == null)
 		return 0;
+	//ahead of the interface check, which for a String misses slowly
+	if(o instanceof String)
+		return o.hashCode();
 	if(o instanceof IHashEq)
 		return dohasheq((IHashEq) o);	
 	if(o instanceof Number)
 		return Numbers.hasheq((Number)o);
+	if(murmur3Hash)
+		return hasheqFrom(o);
 	return o.hashCode();
 }
 
@@ -175,6 +189,27 @@ private static int dohasheq(IHashEq o) {
 	return o.hasheq();
 }
 
+//java collections have to hash like the persistent ones they can be = to
+private static int hasheqFrom(Object o){
+	if(o instanceof List)
+		return Murmur3.hashOrdered((List) o);
+	if(o instanceof Set)
+		return Murmur3.hashUnordered((Set) o);
+	if(o instanceof Map)
+		{
+		int hash = 0;
+		int n = 0;
+		for(Object e : ((Map) o).entrySet())
+			{
+			Map.Entry me = (Map.Entry) e;
+			hash += hasheq(me.getKey()) ^ hasheq(me.getValue());
+			++n;
+			}
+		return Murmur3.mixCollHash(hash, n);
+		}
+	return o.hashCode();
+}
+
 static public int hashCombine(int seed, int hash){
 	//a la boost
 	seed ^= hash + 0x9e3779b9 + (seed << 6) + (seed >> 2);
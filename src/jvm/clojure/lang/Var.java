@@ -13,6 +13,7 @@
 package clojure.lang;
 
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public final class Var extends ARef implements IFn, IRef, Settable{
@@ -46,11 +47,15 @@ static public class Unbound extends AFn{
 
 static class Frame{
 	final static Frame TOP = new Frame(PersistentHashMap.EMPTY, null);
-	//Var->TBox
-	Associative bindings;
+	final static int LOOKUPS = 8;
+	//Var->TBox, never changed once the frame is made, so a lookup in it can be cached
+	final Associative bindings;
 	//Var->val
 //	Associative frameBindings;
-	Frame prev;
+	final Frame prev;
+	//recent lookups in bindings by Var slot, made on the first one. Only the threads
+	//in this frame write it, and a Lookup is immutable, so racing writes just miss
+	Lookup[] lookups;
 
 	public Frame(Associative bindings, Frame prev){
 //		this.frameBindings = frameBindings;
@@ -62,6 +67,31 @@ static class Frame{
 		return new Frame(this.bindings, null);
     	}
 
+	TBox lookup(Var v){
+		Lookup[] ls = lookups;
+		if(ls == null)
+			lookups = ls = new Lookup[LOOKUPS];
+		int i = v.slot & (LOOKUPS - 1);
+		Lookup l = ls[i];
+		if(l != null && l.var == v)
+			return l.box;
+		IMapEntry e = bindings.entryAt(v);
+		TBox b = e != null ? (TBox) e.val() : null;
+		ls[i] = new Lookup(v, b);
+		return b;
+	}
+
+}
+
+//the result of looking a var up in a frame, null box for not bound there
+static final class Lookup{
+	final Var var;
+	final TBox box;
+
+	Lookup(Var var, TBox box){
+		this.var = var;
+		this.box = box;
+	}
 }
 
 static final ThreadLocal<Frame> dvals = new ThreadLocal<Frame>(){
@@ -73,6 +103,8 @@ static final ThreadLocal<Frame> dvals = new ThreadLocal<Frame>(){
 
 static public volatile int rev = 0;
 
+static final AtomicInteger slots = new AtomicInteger();
+
 static Keyword privateKey = Keyword.intern(null, "private");
 static IPersistentMap privateMeta = new PersistentArrayMap(new Object[]{privateKey, Boolean.TRUE});
 static Keyword macroKey = Keyword.intern(null, "macro");
@@ -84,6 +116,8 @@ volatile Object root;
 
 volatile boolean dynamic = false;
 transient final AtomicBoolean threadBound;
+//where lookups of this var are kept in a Frame
+transient final int slot = slots.getAndIncrement();
 public final Symbol sym;
 public final Namespace ns;
 
@@ -182,7 +216,7 @@ Var(Namespace ns, Symbol sym, Object root){
 }
 
 public boolean isBound(){
-	return hasRoot() || (threadBound.get() && dvals.get().bindings.containsKey(this));
+	return hasRoot() || getThreadBinding() != null;
 }
 
 final public Object get(){
@@ -252,7 +286,10 @@ public boolean isPublic(){
 }
 
 final public Object getRawRoot(){
-		return root;
+	//with the load cache on, note what macros call, see LoadCache.noteCalled
+	if(LoadCache.enabled && LoadCache.expanding.get() != null)
+		LoadCache.noteCalled(this);
+	return root;
 }
 
 public Object getTag(){
@@ -311,20 +348,40 @@ synchronized public Object alterRoot(IFn fn, ISeq args) {
 
 public static void pushThreadBindings(Associative bindings){
 	Frame f = dvals.get();
+	Thread t = Thread.currentThread();
 	Associative bmap = f.bindings;
-	for(ISeq bs = bindings.seq(); bs != null; bs = bs.next())
+	if(bindings instanceof PersistentArrayMap)
 		{
-		IMapEntry e = (IMapEntry) bs.first();
-		Var v = (Var) e.key();
-		if(!v.dynamic)
-			throw new IllegalStateException(String.format("Can't dynamically bind non-dynamic var: %s/%s", v.ns, v.sym));
-		v.validate(v.getValidator(), e.val());
-		v.threadBound.set(true);
-		bmap = bmap.assoc(v, new TBox(Thread.currentThread(), e.val()));
+		Object[] kvs = ((PersistentArrayMap) bindings).array;
+		if(kvs.length > 2 && bmap instanceof IEditableCollection)
+			{
+			ITransientMap tmap = (ITransientMap) ((IEditableCollection) bmap).asTransient();
+			for(int i = 0; i < kvs.length; i += 2)
+				tmap = tmap.assoc(kvs[i], bindingBox((Var) kvs[i], kvs[i + 1], t));
+			bmap = tmap.persistent();
+			}
+		else
+			for(int i = 0; i < kvs.length; i += 2)
+				bmap = bmap.assoc(kvs[i], bindingBox((Var) kvs[i], kvs[i + 1], t));
 		}
+	else
+		for(ISeq bs = bindings.seq(); bs != null; bs = bs.next())
+			{
+			IMapEntry e = (IMapEntry) bs.first();
+			bmap = bmap.assoc(e.key(), bindingBox((Var) e.key(), e.val(), t));
+			}
 	dvals.set(new Frame(bmap, f));
 }
 
+static TBox bindingBox(Var v, Object val, Thread t){
+	if(!v.dynamic)
+		throw new IllegalStateException(String.format("Can't dynamically bind non-dynamic var: %s/%s", v.ns, v.sym));
+	v.validate(v.getValidator(), val);
+	if(!v.threadBound.get())
+		v.threadBound.set(true);
+	return new TBox(t, val);
+}
+
 public static void popThreadBindings(){
     Frame f = dvals.get().prev;
     if (f == null) {
@@ -349,12 +406,16 @@ public static Associative getThreadBindings(){
 	return ret;
 }
 
+//a frame's bindings never change, so the answer for a var is kept in the frame and reused
+//while the thread stays in it; the top frame binds nothing and keeps nothing, so threads
+//never share writes to it
 public final TBox getThreadBinding(){
 	if(threadBound.get())
 		{
-		IMapEntry e = dvals.get().bindings.entryAt(this);
-		if(e != null)
-			return (TBox) e.val();
+		Frame f = dvals.get();
+		if(f == Frame.TOP)
+			return null;
+		return f.lookup(this);
 		}
 	return null;
 }
@@ -147,6 +147,8 @@ public class FnExpr extends ObjExpr {
 
             fn.methods = methods;
             fn.variadicMethod = variadicMethod;
+            fn.canBeDirect = RT.booleanCast(Compiler.getCompilerOption(Compiler.directLinkingKey))
+                             && fn.closes.count() == 0 && !usesThis(methods);
             fn.keywords = (IPersistentMap) Compiler.KEYWORDS.deref();
             fn.vars = (IPersistentMap) Compiler.VARS.deref();
             fn.constants = (PersistentVector) Compiler.CONSTANTS.deref();
@@ -186,6 +188,13 @@ public class FnExpr extends ObjExpr {
             return fn;
     }
 
+    static boolean usesThis(IPersistentCollection methods) {
+        for (ISeq s = RT.seq(methods); s != null; s = s.next())
+            if (((ObjMethod) s.first()).usesThis)
+                return true;
+        return false;
+    }
+
     public final ObjMethod variadicMethod() {
         return variadicMethod;
     }
@@ -198,19 +207,21 @@ public class FnExpr extends ObjExpr {
         return methods;
     }
 
+    //with :lazy-fns an AOT compiled defn binds its var to a FnLoaderThunk, so the fn's
+    //class is only loaded when the var is first called
     public void emitForDefn(ObjExpr objx, GeneratorAdapter gen) {
-//		if(!hasPrimSigs && closes.count() == 0)
-//			{
-//			Type thunkType = Type.getType(FnLoaderThunk.class);
-////			presumes var on stack
-//			gen.dup();
-//			gen.newInstance(thunkType);
-//			gen.dupX1();
-//			gen.swap();
-//			gen.push(internalName.replace('/','.'));
-//			gen.invokeConstructor(thunkType,Method.getMethod("void <init>(clojure.lang.Var,String)"));
-//			}
-//		else
-        emit(C.EXPRESSION, objx, gen);
+        if (!hasPrimSigs && closes.count() == 0
+            && RT.booleanCast(Compiler.COMPILE_FILES.deref())
+            && RT.booleanCast(Compiler.getCompilerOption(Compiler.lazyFnsKey))) {
+            Type thunkType = Type.getType(FnLoaderThunk.class);
+            //presumes var on stack
+            gen.dup();
+            gen.newInstance(thunkType);
+            gen.dupX1();
+            gen.swap();
+            gen.push(internalName.replace('/', '.'));
+            gen.invokeConstructor(thunkType, Method.getMethod("void <init>(clojure.lang.Var,String)"));
+        } else
+            emit(C.EXPRESSION, objx, gen);
     }
 }
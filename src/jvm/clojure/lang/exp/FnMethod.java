@@ -50,10 +50,11 @@ public class FnMethod extends ObjMethod {
         sb.append(classChar(Compiler.tagOf(arglist)));
         String ret = sb.toString();
         boolean prim = ret.contains("L") || ret.contains("D");
-        if (prim && arglist.count() > 4)
-            throw new IllegalArgumentException("fns taking primitives support only 4 or fewer args");
+        if (prim && arglist.count() > Compiler.MAX_POSITIONAL_ARITY)
+            throw new IllegalArgumentException(
+                    "fns taking primitives support only " + Compiler.MAX_POSITIONAL_ARITY + " or fewer args");
         if (prim)
-            return "clojure.lang.IFn$" + ret;
+            return PrimInterfaces.interfaceFor(ret);
         return null;
     }
 
@@ -158,9 +159,9 @@ public class FnMethod extends ObjMethod {
             Compiler.LOOP_LOCALS.set(argLocals);
             method.argLocals = argLocals;
 //			if(isStatic)
+            method.argtypes = argtypes.toArray(new Type[argtypes.size()]);
+            method.argclasses = argclasses.toArray(new Class[argtypes.size()]);
             if (method.prim != null) {
-                method.argtypes = argtypes.toArray(new Type[argtypes.size()]);
-                method.argclasses = argclasses.toArray(new Class[argtypes.size()]);
                 for (int i = 0; i < method.argclasses.length; i++) {
                     if (method.argclasses[i] == long.class || method.argclasses[i] == double.class)
                         Compiler.getAndIncLocalNum();
@@ -174,16 +175,21 @@ public class FnMethod extends ObjMethod {
     }
 
     public void emit(ObjExpr fn, ClassVisitor cv) {
-        if (prim != null)
-            doEmitPrim(fn, cv);
-        else if (fn.isStatic)
+        if (fn.canBeDirect)
             doEmitStatic(fn, cv);
+        else if (prim != null)
+            doEmitPrim(fn, cv);
         else
             doEmit(fn, cv);
     }
 
+    //the body goes in a static invokeStatic, taking primitives where invokePrim would,
+    //which direct linked calls invoke without the fn instance. The instance methods
+    //delegate to it
     public void doEmitStatic(ObjExpr fn, ClassVisitor cv) {
-        Method ms = new Method("invokeStatic", getReturnType(), argtypes);
+        Type returnType = (retClass == double.class || retClass == long.class) ? getReturnType()
+                                                                              : Compiler.OBJECT_TYPE;
+        Method ms = new Method("invokeStatic", returnType, argtypes);
 
         GeneratorAdapter gen = new GeneratorAdapter(Opcodes.ACC_PUBLIC + Opcodes.ACC_STATIC,
                                                     ms,
@@ -196,12 +202,17 @@ public class FnMethod extends ObjMethod {
         gen.visitLineNumber(line, loopLabel);
         try {
             Var.pushThreadBindings(RT.map(Compiler.LOOP_LABEL, loopLabel, Compiler.METHOD, this));
-            emitBody(objx, gen, retClass, body);
+            if (prim != null)
+                emitBody(objx, gen, retClass, body);
+            else
+                body.emit(C.RETURN, fn, gen);
 
+            //locals were numbered with this in slot 0, which a static method doesn't have
             Label end = gen.mark();
             for (ISeq lbs = argLocals.seq(); lbs != null; lbs = lbs.next()) {
                 LocalBinding lb = (LocalBinding) lbs.first();
-                gen.visitLocalVariable(lb.name, argtypes[lb.idx].getDescriptor(), null, loopLabel, end, lb.idx);
+                gen.visitLocalVariable(lb.name, argtypes[lb.idx - 1].getDescriptor(), null, loopLabel, end,
+                                       lb.idx - 1);
             }
         } finally {
             Var.popThreadBindings();
@@ -211,6 +222,21 @@ public class FnMethod extends ObjMethod {
         //gen.visitMaxs(1, 1);
         gen.endMethod();
 
+        if (prim != null) {
+            Method mp = new Method("invokePrim", returnType, argtypes);
+            gen = new GeneratorAdapter(Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL,
+                                       mp,
+                                       null,
+                                       //todo don't hardwire this
+                                       Compiler.EXCEPTION_TYPES,
+                                       cv);
+            gen.visitCode();
+            gen.loadArgs();
+            gen.invokeStatic(objx.objtype, ms);
+            gen.returnValue();
+            gen.endMethod();
+        }
+
         //generate the regular invoke, calling the static method
         Method m = new Method(getMethodName(), Compiler.OBJECT_TYPE, getArgTypes());
 
@@ -226,7 +252,7 @@ public class FnMethod extends ObjMethod {
             HostExpr.emitUnboxArg(fn, gen, argclasses[i]);
         }
         gen.invokeStatic(objx.objtype, ms);
-        gen.box(getReturnType());
+        gen.box(returnType);
 
 
         gen.returnValue();
@@ -235,6 +235,8 @@ public abstract class HostExpr implements Expr, MaybePrimitiveExpr {
             }
         } else if (stringOk && form instanceof String)
             c = RT.classForName((String) form);
+        if (c != null)
+            LoadCache.noteClass(Compiler.currentNS(), form, c);
         return c;
     }
 
@@ -37,6 +37,10 @@ public class InstanceFieldExpr extends FieldExpr implements AssignableExpr {
                     .format("Reflection warning, %s:%d:%d - reference to field %s can't be resolved.\n",
                             Compiler.SOURCE_PATH.deref(), line, column, fieldName);
         }
+        if (field == null)
+            Diagnostics.report(Diagnostics.REFLECTION, InstanceFieldExpr.class, line, column,
+                               "reference to field " + fieldName + " can't be resolved",
+                               Diagnostics.MEMBER, fieldName, Diagnostics.CLASS, targetClass);
     }
 
     public Object eval() {
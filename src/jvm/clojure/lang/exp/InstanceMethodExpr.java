@@ -25,9 +25,13 @@ public class InstanceMethodExpr extends MethodExpr {
     public final int                      column;
     public final Symbol                   tag;
     public final java.lang.reflect.Method method;
+    //reflective fallback, emitted as a constant when one can be registered
+    public final ReflectiveCallSite       site;
+    final int                             siteId;
 
     final static Method invokeInstanceMethodMethod =
             Method.getMethod("Object invokeInstanceMethod(Object,String,Object[])");
+    final static Method siteInvokeMethod           = Method.getMethod("Object invoke(Object,Object[])");
 
 
     public InstanceMethodExpr(String source,
@@ -77,6 +81,18 @@ public class InstanceMethodExpr extends MethodExpr {
                     .format("Reflection warning, %s:%d:%d - call to %s can't be resolved.\n",
                             Compiler.SOURCE_PATH.deref(), line, column, methodName);
         }
+        if (method == null)
+            Diagnostics.report(Diagnostics.REFLECTION, InstanceMethodExpr.class, line, column,
+                               "call to " + methodName + " can't be resolved",
+                               Diagnostics.MEMBER, methodName,
+                               Diagnostics.CLASS, target.hasJavaClass() ? target.getJavaClass() : null);
+        if (method == null) {
+            site = new ReflectiveCallSite(methodName);
+            siteId = Compiler.registerConstant(site);
+        } else {
+            site = null;
+            siteId = -1;
+        }
     }
 
     public Object eval() {
@@ -90,7 +106,7 @@ public class InstanceMethodExpr extends MethodExpr {
                 ms.add(method);
                 return Reflector.invokeMatchingMethod(methodName, ms, targetval, argvals);
             }
-            return Reflector.invokeInstanceMethod(targetval, methodName, argvals);
+            return site.invoke(targetval, argvals);
         } catch (Throwable e) {
             if (!(e instanceof CompilerException))
                 throw new CompilerException(source, line, column, e);
@@ -143,6 +159,15 @@ public class InstanceMethodExpr extends MethodExpr {
                 gen.invokeVirtual(type, m);
             //if(context != C.STATEMENT || method.getReturnType() == Void.TYPE)
             HostExpr.emitBoxReturn(objx, gen, method.getReturnType());
+        } else if (siteId >= 0) {
+            objx.emitConstant(gen, siteId);
+            target.emit(C.EXPRESSION, objx, gen);
+            emitArgsAsArray(args, objx, gen);
+            if (context == C.RETURN) {
+                ObjMethod method = (ObjMethod) Compiler.METHOD.deref();
+                method.emitClearLocals(gen);
+            }
+            gen.invokeVirtual(Compiler.REFLECT_SITE_TYPE, siteInvokeMethod);
         } else {
             target.emit(C.EXPRESSION, objx, gen);
             gen.push(methodName);
@@ -10,6 +10,7 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
 import org.objectweb.asm.commons.Method;
 
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -78,23 +79,27 @@ public class InvokeExpr implements Expr {
         if (tag != null) {
             this.tag = tag;
         } else if (fexpr instanceof VarExpr) {
-            Object arglists = RT.get(RT.meta(((VarExpr) fexpr).var), Compiler.arglistsKey);
-            Object sigTag = null;
-            for (ISeq s = RT.seq(arglists); s != null; s = s.next()) {
-                APersistentVector sig = (APersistentVector) s.first();
-                int restOffset = sig.indexOf(Compiler._AMP_);
-                if (args.count() == sig.count() || (restOffset > -1 && args.count() >= restOffset)) {
-                    sigTag = Compiler.tagOf(sig);
-                    break;
-                }
-            }
-
-            this.tag = sigTag == null ? ((VarExpr) fexpr).tag : sigTag;
+            this.tag = sigTag((VarExpr) fexpr, args.count());
         } else {
             this.tag = null;
         }
     }
 
+    //the tag of the arglist called with argcount args, else of the var
+    static Object sigTag(VarExpr fexpr, int argcount) {
+        Object arglists = RT.get(RT.meta(fexpr.var), Compiler.arglistsKey);
+        Object sigTag = null;
+        for (ISeq s = RT.seq(arglists); s != null; s = s.next()) {
+            APersistentVector sig = (APersistentVector) s.first();
+            int restOffset = sig.indexOf(Compiler._AMP_);
+            if (argcount == sig.count() || (restOffset > -1 && argcount >= restOffset)) {
+                sigTag = Compiler.tagOf(sig);
+                break;
+            }
+        }
+        return sigTag == null ? fexpr.tag : sigTag;
+    }
+
     public Object eval() {
         try {
             IFn fn = (IFn) fexpr.eval();
@@ -199,6 +204,25 @@ public class InvokeExpr implements Expr {
         return HostExpr.tagToClass(tag);
     }
 
+    //a call with at least the required args of a variadic fn, and no fixed arity for them
+    static void reportRestFnCall(Var v, int arity) {
+        Object f = v.hasRoot() ? v.getRawRoot() : null;
+        if (!(f instanceof RestFn) || arity < ((RestFn) f).getRequiredArity())
+            return;
+        if (arity <= Compiler.MAX_POSITIONAL_ARITY) {
+            Class[] params = new Class[arity];
+            Arrays.fill(params, Object.class);
+            try {
+                f.getClass().getDeclaredMethod("invoke", params);
+                return;
+            } catch (NoSuchMethodException e) {
+            }
+        }
+        Diagnostics.report(Diagnostics.REST_FN_CALL, InvokeExpr.class, Compiler.lineDeref(), Compiler.columnDeref(),
+                           "call to " + v + " with " + arity + " args packs them into a rest seq",
+                           Diagnostics.VAR, v, Diagnostics.ARITY, arity);
+    }
+
     static public Expr parse(C context, ISeq form) {
         if (context != C.EVAL)
             context = C.EXPRESSION;
@@ -222,6 +246,19 @@ public class InvokeExpr implements Expr {
 //				}
 //			}
 
+        if (fexpr instanceof VarExpr && context != C.EVAL && Diagnostics.enabled())
+            reportRestFnCall(((VarExpr) fexpr).var, RT.count(form.next()));
+
+        if (fexpr instanceof VarExpr && context != C.EVAL
+                && RT.booleanCast(Compiler.getCompilerOption(Compiler.directLinkingKey))) {
+            Symbol tag = Compiler.tagOf(form);
+            Expr e = StaticInvokeExpr.parse(((VarExpr) fexpr).var, form.next(),
+                                            tag != null ? tag : sigTag((VarExpr) fexpr, RT.count(form.next())),
+                                            Compiler.lineDeref());
+            if (e != null)
+                return e;
+        }
+
         if (fexpr instanceof VarExpr && context != C.EVAL) {
             Var v = ((VarExpr) fexpr).var;
             Object arglists = RT.get(RT.meta(v), Compiler.arglistsKey);
@@ -19,11 +19,35 @@ public class LetExpr implements Expr, MaybePrimitiveExpr {
     public final PersistentVector bindingInits;
     public final Expr             body;
     public final boolean          isLoop;
+    //long or double when the value is an int or float loop local, see LocalBinding.boxWide
+    final Class                   widenedType;
 
     public LetExpr(PersistentVector bindingInits, Expr body, boolean isLoop) {
         this.bindingInits = bindingInits;
         this.body = body;
         this.isLoop = isLoop;
+        Class c = body.hasJavaClass() ? body.getJavaClass() : null;
+        if ((c == int.class || c == float.class) && canEmitPrimitive() && yieldsBoxWide(body))
+            this.widenedType = c == int.class ? long.class : double.class;
+        else
+            this.widenedType = null;
+    }
+
+    /**
+     * Whether the value of e may be a local that boxes wide, so a let or loop returning it
+     * still reports the long or double that loop locals were widened to before they kept
+     * their int or float type.
+     */
+    static boolean yieldsBoxWide(Expr e) {
+        if (e instanceof LocalBindingExpr)
+            return ((LocalBindingExpr) e).b.boxWide;
+        if (e instanceof BodyExpr) {
+            PersistentVector exprs = ((BodyExpr) e).exprs();
+            return exprs.count() > 0 && yieldsBoxWide((Expr) exprs.nth(exprs.count() - 1));
+        }
+        if (e instanceof IfExpr)
+            return yieldsBoxWide(((IfExpr) e).thenExpr) || yieldsBoxWide(((IfExpr) e).elseExpr);
+        return false;
     }
 
     public static class Parser implements IParser {
@@ -47,21 +71,33 @@ public class LetExpr implements Expr, MaybePrimitiveExpr {
             ObjMethod method = (ObjMethod) Compiler.METHOD.deref();
             IPersistentMap backupMethodLocals = method.locals;
             IPersistentMap backupMethodIndexLocals = method.indexlocals;
-            IPersistentVector recurMismatches = PersistentVector.EMPTY;
+            //per loop local, the type its recur args need it to have, null until one doesn't fit
+            IPersistentVector recurTypes = PersistentVector.EMPTY;
+            //and the diagnostic for boxing it, if it was
+            IPersistentVector boxReports = PersistentVector.EMPTY;
             for (int i = 0; i < bindings.count() / 2; i++) {
-                recurMismatches = recurMismatches.cons(RT.F);
+                recurTypes = recurTypes.cons(null);
+                boxReports = boxReports.cons(null);
             }
+            int line = Compiler.lineDeref();
+            int column = Compiler.columnDeref();
 
-            //may repeat once for each binding with a mismatch, return breaks
+            //may repeat twice for each binding with a mismatch, once to widen and once to box, return breaks
             while (true) {
                 IPersistentMap dynamicBindings = RT.map(Compiler.LOCAL_ENV, Compiler.LOCAL_ENV.deref(),
                                                         Compiler.NEXT_LOCAL_NUM, Compiler.NEXT_LOCAL_NUM.deref());
                 method.locals = backupMethodLocals;
                 method.indexlocals = backupMethodIndexLocals;
 
-                if (isLoop)
+                //a loop is analyzed again after a mismatch, so only the last analysis is reported
+                Diagnostics.Buffer reports = null;
+                if (isLoop) {
                     dynamicBindings = dynamicBindings.assoc(Compiler.LOOP_LOCALS, null);
+                    if (Diagnostics.enabled())
+                        dynamicBindings = dynamicBindings.assoc(Compiler.DIAGNOSTICS, reports = new Diagnostics.Buffer());
+                }
 
+                LetExpr ret = null;
                 try {
                     Var.pushThreadBindings(dynamicBindings);
 
@@ -76,18 +112,23 @@ public class LetExpr implements Expr, MaybePrimitiveExpr {
                             throw Util.runtimeException("Can't let qualified name: " + sym);
                         Expr init = Compiler.analyze(C.EXPRESSION, bindings.nth(i + 1), sym.name);
                         if (isLoop) {
-                            if (recurMismatches != null && RT.booleanCast(recurMismatches.nth(i / 2))) {
+                            Class primc = Compiler.maybePrimitiveType(init);
+                            Class type = (Class) recurTypes.nth(i / 2);
+                            if (type == Object.class)
                                 init = new StaticMethodExpr("", 0, 0, null, RT.class, "box", RT.vector(init));
-                                if (RT.booleanCast(RT.WARN_ON_REFLECTION.deref()))
-                                    RT.errPrintWriter().println("Auto-boxing loop arg: " + sym);
-                            } else if (Compiler.maybePrimitiveType(init) == int.class)
+                            else if ((type == long.class && primc != long.class)
+                                     || primc == short.class || primc == byte.class)
                                 init = new StaticMethodExpr("", 0, 0, null, RT.class, "longCast", RT.vector(init));
-                            else if (Compiler.maybePrimitiveType(init) == float.class)
+                            else if (type == double.class && primc != double.class)
                                 init = new StaticMethodExpr("", 0, 0, null, RT.class, "doubleCast", RT.vector(
                                         init));
                         }
                         //sequential enhancement of env (like Lisp let*)
                         LocalBinding lb = Compiler.registerLocal(sym, Compiler.tagOf(sym), init, false);
+                        if (isLoop) {
+                            Class primc = lb.getPrimitiveType();
+                            lb.boxWide = primc == int.class || primc == float.class;
+                        }
                         BindingInit bi = new BindingInit(lb, init);
                         bindingInits = bindingInits.cons(bi);
 
@@ -114,27 +155,58 @@ public class LetExpr implements Expr, MaybePrimitiveExpr {
                             for (int i = 0; i < loopLocals.count(); i++) {
                                 LocalBinding lb = (LocalBinding) loopLocals.nth(i);
                                 if (lb.recurMistmatch) {
-                                    recurMismatches = (IPersistentVector) recurMismatches.assoc(i, RT.T);
+                                    recurTypes = recurTypes.assocN(i, lb.recurType);
                                     moreMismatches = true;
+                                    if (lb.recurType == Object.class) {
+                                        boxReports = boxReports.assocN(i, lb.boxReport);
+                                        if (RT.booleanCast(RT.WARN_ON_REFLECTION.deref()))
+                                            RT.errPrintWriter().println(Diagnostics.format(lb.boxReport));
+                                    }
                                 }
                             }
                         }
                     }
-                    if (!moreMismatches)
-                        return new LetExpr(bindingInits, bodyExpr, isLoop);
+                    if (!moreMismatches) {
+                        if (reports != null)
+                            reportLoopLocals(loopLocals, boxReports, line, column);
+                        ret = new LetExpr(bindingInits, bodyExpr, isLoop);
+                    }
                 } finally {
                     Var.popThreadBindings();
                 }
+                if (ret != null) {
+                    if (reports != null)
+                        reports.flush();
+                    return ret;
+                }
             }
         }
     }
 
+    static void reportLoopLocals(IPersistentVector loopLocals, IPersistentVector boxReports, int line, int column) {
+        for (int i = 0; i < loopLocals.count(); i++) {
+            LocalBinding lb = (LocalBinding) loopLocals.nth(i);
+            if (boxReports.nth(i) != null)
+                Diagnostics.report((IPersistentMap) boxReports.nth(i));
+            else if (lb.tag == null && lb.getPrimitiveType() == null
+                     && (!lb.init.hasJavaClass() || lb.init.getJavaClass() == null
+                         || lb.init.getJavaClass() == Object.class))
+                Diagnostics.report(Diagnostics.UNINFERRED_LOOP_LOCAL, LetExpr.class, line, column,
+                                   "loop local " + lb.name + " has no inferred type",
+                                   Diagnostics.LOCAL, lb.sym);
+        }
+    }
+
     public Object eval() {
         throw new UnsupportedOperationException("Can't eval let/loop");
     }
 
     public void emit(C context, ObjExpr objx, GeneratorAdapter gen) {
-        doEmit(context, objx, gen, false);
+        if (widenedType != null) {
+            doEmit(context, objx, gen, true);
+            HostExpr.emitBoxReturn(objx, gen, widenedType);
+        } else
+            doEmit(context, objx, gen, false);
     }
 
     public void emitUnboxed(C context, ObjExpr objx, GeneratorAdapter gen) {
@@ -173,6 +245,8 @@ public class LetExpr implements Expr, MaybePrimitiveExpr {
             else
                 body.emit(context, objx, gen);
         }
+        if (emitUnboxed && widenedType != null)
+            gen.visitInsn(widenedType == long.class ? Opcodes.I2L : Opcodes.F2D);
         Label end = gen.mark();
 //		gen.visitLocalVariable("this", "Ljava/lang/Object;", null, loopLabel, end, 0);
         for (ISeq bis = bindingInits.seq(); bis != null; bis = bis.next()) {
@@ -195,7 +269,7 @@ public class LetExpr implements Expr, MaybePrimitiveExpr {
     }
 
     public Class getJavaClass() {
-        return body.getJavaClass();
+        return widenedType != null ? widenedType : body.getJavaClass();
     }
 
     public boolean canEmitPrimitive() {
@@ -18,6 +18,12 @@ public class LocalBinding {
     public boolean canBeCleared   = !RT.booleanCast(Compiler.getCompilerOption(
             Compiler.disableLocalsClearingKey));
     public boolean recurMistmatch = false;
+    //for a primitive loop local, the type its recur args need it to have, Object if boxed
+    public Class   recurType;
+    public IPersistentMap boxReport;
+    //an int or float loop local, or a local bound to one, is boxed as the long or double
+    //that loop locals were widened to, so the type of a value that escapes the loop is unchanged
+    public boolean boxWide;
 
     public LocalBinding(int num, Symbol sym, Symbol tag, Expr init, boolean isArg, PathNode clearPathRoot) {
         if (Compiler.maybePrimitiveType(init) != null && tag != null)
@@ -28,6 +34,7 @@ public class LocalBinding {
         this.init = init;
         this.isArg = isArg;
         this.clearPathRoot = clearPathRoot;
+        this.boxWide = init != null && LetExpr.yieldsBoxWide(init);
         name = Compiler.munge(sym.name);
     }
 
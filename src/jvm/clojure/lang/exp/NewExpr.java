@@ -52,6 +52,10 @@ public class NewExpr implements Expr {
                     .format("Reflection warning, %s:%d:%d - call to %s ctor can't be resolved.\n",
                             Compiler.SOURCE_PATH.deref(), line, column, c.getName());
         }
+        if (ctor == null)
+            Diagnostics.report(Diagnostics.REFLECTION, NewExpr.class, line, column,
+                               "call to " + c.getName() + " ctor can't be resolved",
+                               Diagnostics.MEMBER, "new", Diagnostics.CLASS, c);
     }
 
     public Object eval() {
@@ -66,6 +66,8 @@ public class ObjExpr implements Expr {
     final static Method voidctor = Method.getMethod("void <init>()");
     public IPersistentMap classMeta;
     public boolean        isStatic;
+    //with :direct-linking, a fn with no closed overs emits its bodies as static invokeStatic methods
+    public boolean        canBeDirect;
 
     public final String name() {
         return name;
@@ -163,6 +165,15 @@ public class ObjExpr implements Expr {
     }
 
     void compile(String superName, String[] interfaceNames, boolean oneTimeUse) throws IOException {
+        Object prof = LoadProfiler.enter(LoadProfiler.EMIT);
+        try {
+            generate(superName, interfaceNames, oneTimeUse);
+        } finally {
+            LoadProfiler.exit(prof);
+        }
+    }
+
+    private void generate(String superName, String[] interfaceNames, boolean oneTimeUse) throws IOException {
         //create bytecode for a class
         //with name current_ns.defname[$letname]+
         //anonymous fns get names fn__id
@@ -535,6 +546,12 @@ public class ObjExpr implements Expr {
         }
     }
 
+    //noted for the load cache, which evaluates a def it can't compile this way uncached
+    static RuntimeException cantEmbed(String msg) {
+        LoadCache.noteUnembeddable();
+        return Util.runtimeException(msg);
+    }
+
     public void emitValue(Object value, GeneratorAdapter gen) {
         boolean partial = true;
         //System.out.println(value.getClass().toString());
@@ -597,7 +614,12 @@ public class ObjExpr implements Expr {
 //								                 Method.getMethod("clojure.lang.KeywordCallSite create(clojure.lang
 // .Symbol)"));
 //								}
-        else if (value instanceof Var) {
+        else if (value instanceof ReflectiveCallSite) {
+            gen.newInstance(Compiler.REFLECT_SITE_TYPE);
+            gen.dup();
+            gen.push(((ReflectiveCallSite) value).methodName);
+            gen.invokeConstructor(Compiler.REFLECT_SITE_TYPE, Method.getMethod("void <init>(String)"));
+        } else if (value instanceof Var) {
             Var var = (Var) value;
             gen.push(var.ns.name.toString());
             gen.push(var.sym.toString());
@@ -669,18 +691,19 @@ public class ObjExpr implements Expr {
                 cs = RT.printString(value);
 //				System.out.println("WARNING SLOW CODE: " + Util.classOf(value) + " -> " + cs);
             } catch (Exception e) {
-                throw Util.runtimeException(
+                throw cantEmbed(
                         "Can't embed object in code, maybe print-dup not defined: " +
                                 value);
             }
             if (cs.length() == 0)
-                throw Util.runtimeException(
+                throw cantEmbed(
                         "Can't embed unreadable object in code: " + value);
 
             if (cs.startsWith("#<"))
-                throw Util.runtimeException(
+                throw cantEmbed(
                         "Can't embed unreadable object in code: " + cs);
 
+            LoadCache.noteEmbedded(value);
             gen.push(cs);
             gen.invokeStatic(Compiler.RT_TYPE, readStringMethod);
             partial = false;
@@ -843,13 +866,24 @@ public class ObjExpr implements Expr {
         }
     }
 
+    private void emitBoxLocal(GeneratorAdapter gen, LocalBinding lb, Class primc) {
+        if (lb.boxWide && primc == int.class) {
+            gen.visitInsn(Opcodes.I2L);
+            primc = long.class;
+        } else if (lb.boxWide && primc == float.class) {
+            gen.visitInsn(Opcodes.F2D);
+            primc = double.class;
+        }
+        HostExpr.emitBoxReturn(this, gen, primc);
+    }
+
     public void emitLocal(GeneratorAdapter gen, LocalBinding lb, boolean clear) {
         if (closes.containsKey(lb)) {
             Class primc = lb.getPrimitiveType();
             gen.loadThis();
             if (primc != null) {
                 gen.getField(objtype, lb.name, Type.getType(primc));
-                HostExpr.emitBoxReturn(this, gen, primc);
+                emitBoxLocal(gen, lb, primc);
             } else {
                 gen.getField(objtype, lb.name, Compiler.OBJECT_TYPE);
                 if (onceOnly && clear && lb.canBeCleared) {
@@ -865,7 +899,7 @@ public class ObjExpr implements Expr {
             if (lb.isArg) {
                 gen.loadArg(lb.idx - argoff);
                 if (primc != null)
-                    HostExpr.emitBoxReturn(this, gen, primc);
+                    emitBoxLocal(gen, lb, primc);
                 else {
                     if (clear && lb.canBeCleared) {
 //                        System.out.println("clear: " + rep);
@@ -878,7 +912,7 @@ public class ObjExpr implements Expr {
             } else {
                 if (primc != null) {
                     gen.visitVarInsn(Type.getType(primc).getOpcode(Opcodes.ILOAD), lb.idx);
-                    HostExpr.emitBoxReturn(this, gen, primc);
+                    emitBoxLocal(gen, lb, primc);
                 } else {
                     gen.visitVarInsn(Compiler.OBJECT_TYPE.getOpcode(Opcodes.ILOAD), lb.idx);
                     if (clear && lb.canBeCleared) {
@@ -985,6 +1019,8 @@ public class ObjExpr implements Expr {
                 return Type.getType(AFn.class);
             else if (c == Var.class)
                 return Type.getType(Var.class);
+            else if (c == ReflectiveCallSite.class)
+                return Compiler.REFLECT_SITE_TYPE;
             else if (c == String.class)
                 return Type.getType(String.class);
 
@@ -28,6 +28,8 @@ abstract public class ObjMethod {
     int line;
     int column;
     public PersistentHashSet localsUsedInCatchFinally = PersistentHashSet.EMPTY;
+    //the method refers to its fn by name, so needs an instance
+    public boolean usesThis;
     protected IPersistentMap methodMeta;
 
 
@@ -44,9 +44,11 @@ public class RecurExpr implements Expr, MaybePrimitiveExpr {
                 final Class pc = Compiler.maybePrimitiveType(arg);
                 if (pc == primc)
                     ((MaybePrimitiveExpr) arg).emitUnboxed(C.EXPRESSION, objx, gen);
-                else if (primc == long.class && pc == int.class) {
+                else if (primc == long.class && isIntLike(pc)) {
                     ((MaybePrimitiveExpr) arg).emitUnboxed(C.EXPRESSION, objx, gen);
                     gen.visitInsn(Opcodes.I2L);
+                } else if (primc == int.class && isIntLike(pc)) {
+                    ((MaybePrimitiveExpr) arg).emitUnboxed(C.EXPRESSION, objx, gen);
                 } else if (primc == double.class && pc == float.class) {
                     ((MaybePrimitiveExpr) arg).emitUnboxed(C.EXPRESSION, objx, gen);
                     gen.visitInsn(Opcodes.F2D);
@@ -122,30 +124,23 @@ public class RecurExpr implements Expr, MaybePrimitiveExpr {
                 LocalBinding lb = (LocalBinding) loopLocals.nth(i);
                 Class primc = lb.getPrimitiveType();
                 if (primc != null) {
-                    boolean mismatch = false;
                     final Class pc = Compiler.maybePrimitiveType((Expr) args.nth(i));
-                    if (primc == long.class) {
-                        if (!(pc == long.class
-                                || pc == int.class
-                                || pc == short.class
-                                || pc == char.class
-                                || pc == byte.class))
-                            mismatch = true;
-                    } else if (primc == double.class) {
-                        if (!(pc == double.class
-                                || pc == float.class))
-                            mismatch = true;
-                    }
-                    if (mismatch) {
+                    Class type = loopLocalType(primc, pc);
+                    if (type != primc) {
                         lb.recurMistmatch = true;
-                        if (RT.booleanCast(RT.WARN_ON_REFLECTION.deref()))
-                            RT.errPrintWriter().println
-                                    (source + ":" + line +
-                                             " recur arg for primitive local: " +
-                                             lb.name + " is not matching primitive, had: " +
-                                             (pc != null ? pc.getName() : "Object") +
-                                             ", needed: " +
-                                             primc.getName());
+                        if (lb.recurType != Object.class) {
+                            lb.recurType = type;
+                            if (type == Object.class)
+                                lb.boxReport = Diagnostics.record(
+                                        Diagnostics.BOXED_LOOP_LOCAL, LetExpr.class, line, column,
+                                        "recur arg for primitive local: " +
+                                                lb.name + " is not matching primitive, had: " +
+                                                (pc != null ? pc.getName() : "Object") +
+                                                ", needed: " +
+                                                primc.getName() + ", boxing loop local",
+                                        Diagnostics.LOCAL, lb.sym, Diagnostics.HAD, pc != null ? pc : Object.class,
+                                        Diagnostics.NEEDED, primc);
+                        }
                     }
                 }
             }
@@ -153,6 +148,32 @@ public class RecurExpr implements Expr, MaybePrimitiveExpr {
         }
     }
 
+    static boolean isIntLike(Class c) {
+        return c == int.class || c == short.class || c == byte.class || c == char.class;
+    }
+
+    /**
+     * The type a loop local of primitive type primc needs for a recur arg of primitive type
+     * pc (null if boxed): primc if the arg converts to it losslessly, long or double if
+     * widening an int or float local makes it do so, else Object, boxing the local.
+     */
+    public static Class loopLocalType(Class primc, Class pc) {
+        if (pc == primc)
+            return primc;
+        if (primc == long.class || primc == int.class) {
+            if (isIntLike(pc))
+                return primc;
+            if (pc == long.class)
+                return long.class;
+        } else if (primc == double.class || primc == float.class) {
+            if (pc == float.class)
+                return primc;
+            if (pc == double.class)
+                return double.class;
+        }
+        return Object.class;
+    }
+
     public boolean canEmitPrimitive() {
         return true;
     }
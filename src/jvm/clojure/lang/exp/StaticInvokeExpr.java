@@ -7,7 +7,7 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.GeneratorAdapter;
 import org.objectweb.asm.commons.Method;
 
-import java.util.ArrayList;
+import java.lang.reflect.Modifier;
 
 /**
 * Created by jyu on 14-1-15.
@@ -19,10 +19,11 @@ public class StaticInvokeExpr implements Expr, MaybePrimitiveExpr {
     public final Type[]            paramtypes;
     public final IPersistentVector args;
     public final boolean           variadic;
-    public final Symbol            tag;
+    public final Object            tag;
+    public final int               line;
 
     public StaticInvokeExpr(Type target, Class retClass, Class[] paramclasses, Type[] paramtypes, boolean variadic,
-                            IPersistentVector args, Symbol tag) {
+                            IPersistentVector args, Object tag, int line) {
         this.target = target;
         this.retClass = retClass;
         this.paramclasses = paramclasses;
@@ -30,6 +31,7 @@ public class StaticInvokeExpr implements Expr, MaybePrimitiveExpr {
         this.args = args;
         this.variadic = variadic;
         this.tag = tag;
+        this.line = line;
     }
 
     public Object eval() {
@@ -49,7 +51,7 @@ public class StaticInvokeExpr implements Expr, MaybePrimitiveExpr {
     }
 
     public boolean hasJavaClass() {
-        return true;
+        return tag != null || retClass != Object.class;
     }
 
     public Class getJavaClass() {
@@ -61,6 +63,7 @@ public class StaticInvokeExpr implements Expr, MaybePrimitiveExpr {
     }
 
     public void emitUnboxed(C context, ObjExpr objx, GeneratorAdapter gen) {
+        gen.visitLineNumber(line, gen.mark());
         Method ms = new Method("invokeStatic", getReturnType(), paramtypes);
         if (variadic) {
             for (int i = 0; i < paramclasses.length - 1; i++) {
@@ -86,62 +89,46 @@ public class StaticInvokeExpr implements Expr, MaybePrimitiveExpr {
         return Type.getType(retClass);
     }
 
-    public static Expr parse(Var v, ISeq args, Symbol tag) {
-        IPersistentCollection paramlists = (IPersistentCollection) RT.get(v.meta(), Compiler.arglistsKey);
-        if (paramlists == null)
-            throw new IllegalStateException("Can't call static fn with no arglists: " + v);
-        IPersistentVector paramlist = null;
+    //a call to v, which :direct-linking compiles to a call to the invokeStatic of the class
+    //of v's root, or null when v is dynamic or ^:redef or its root has no invokeStatic
+    //taking this many args. As with IFn, a fixed arity wins over the variadic one
+    public static Expr parse(Var v, ISeq args, Object tag, int line) {
+        if (v.isDynamic() || RT.booleanCast(RT.get(v.meta(), Compiler.redefKey))
+                || RT.get(v.meta(), Compiler.protocolKey) != null
+                || !v.hasRoot() || !(v.getRawRoot() instanceof AFunction))
+            return null;
+        Class c = v.getRawRoot().getClass();
         int argcount = RT.count(args);
+        java.lang.reflect.Method method = null;
         boolean variadic = false;
-        for (ISeq aseq = RT.seq(paramlists); aseq != null; aseq = aseq.next()) {
-            if (!(aseq.first() instanceof IPersistentVector))
-                throw new IllegalStateException("Expected vector arglist, had: " + aseq.first());
-            IPersistentVector alist = (IPersistentVector) aseq.first();
-            if (alist.count() > 1
-                    && alist.nth(alist.count() - 2).equals(Compiler._AMP_)) {
-                if (argcount >= alist.count() - 2) {
-                    paramlist = alist;
-                    variadic = true;
-                }
-            } else if (alist.count() == argcount) {
-                paramlist = alist;
+        for (java.lang.reflect.Method m : c.getMethods()) {
+            if (!m.getName().equals("invokeStatic") || m.getDeclaringClass() != c
+                    || !Modifier.isStatic(m.getModifiers()))
+                continue;
+            Class[] params = m.getParameterTypes();
+            boolean rest = params.length > 0 && params[params.length - 1] == ISeq.class;
+            if (!rest && params.length == argcount) {
+                method = m;
                 variadic = false;
                 break;
+            } else if (rest && argcount >= params.length - 1) {
+                method = m;
+                variadic = true;
             }
         }
+        if (method == null)
+            return null;
 
-        if (paramlist == null)
-            throw new IllegalArgumentException("Invalid arity - can't call: " + v + " with " + argcount + " args");
-
-        Class retClass = Compiler.tagClass(Compiler.tagOf(paramlist));
-
-        ArrayList<Class> paramClasses = new ArrayList();
-        ArrayList<Type> paramTypes = new ArrayList();
-
-        if (variadic) {
-            for (int i = 0; i < paramlist.count() - 2; i++) {
-                Class pc = Compiler.tagClass(Compiler.tagOf(paramlist.nth(i)));
-                paramClasses.add(pc);
-                paramTypes.add(Type.getType(pc));
-            }
-            paramClasses.add(ISeq.class);
-            paramTypes.add(Type.getType(ISeq.class));
-        } else {
-            for (int i = 0; i < argcount; i++) {
-                Class pc = Compiler.tagClass(Compiler.tagOf(paramlist.nth(i)));
-                paramClasses.add(pc);
-                paramTypes.add(Type.getType(pc));
-            }
-        }
-
-        String cname = v.ns.name.name.replace('.', '/').replace('-', '_') + "$" + Compiler.munge(v.sym.name);
-        Type target = Type.getObjectType(cname);
+        Class[] paramClasses = method.getParameterTypes();
+        Type[] paramTypes = new Type[paramClasses.length];
+        for (int i = 0; i < paramClasses.length; i++)
+            paramTypes[i] = Type.getType(paramClasses[i]);
 
         PersistentVector argv = PersistentVector.EMPTY;
         for (ISeq s = RT.seq(args); s != null; s = s.next())
             argv = argv.cons(Compiler.analyze(C.EXPRESSION, s.first()));
 
-        return new StaticInvokeExpr(target, retClass, paramClasses.toArray(new Class[paramClasses.size()]),
-                                    paramTypes.toArray(new Type[paramTypes.size()]), variadic, argv, tag);
+        return new StaticInvokeExpr(Type.getType(c), method.getReturnType(), paramClasses, paramTypes, variadic,
+                                    argv, tag, line);
     }
 }
@@ -26,9 +26,13 @@ public class StaticMethodExpr extends MethodExpr {
     public final int                      column;
     public final java.lang.reflect.Method method;
     public final Symbol                   tag;
+    //reflective fallback, emitted as a constant when one can be registered
+    public final ReflectiveCallSite       site;
+    final int                             siteId;
     final static Method forNameMethod            = Method.getMethod("Class forName(String)");
     final static Method invokeStaticMethodMethod =
             Method.getMethod("Object invokeStaticMethod(Class,String,Object[])");
+    final static Method siteInvokeStaticMethod   = Method.getMethod("Object invokeStatic(Class,Object[])");
 
 
     public StaticMethodExpr(String source,
@@ -67,6 +71,21 @@ public class StaticMethodExpr extends MethodExpr {
                     .format("Reflection warning, %s:%d:%d - call to %s can't be resolved.\n",
                             Compiler.SOURCE_PATH.deref(), line, column, methodName);
         }
+        if (method == null)
+            Diagnostics.report(Diagnostics.REFLECTION, StaticMethodExpr.class, line, column,
+                               "call to " + methodName + " can't be resolved",
+                               Diagnostics.MEMBER, methodName, Diagnostics.CLASS, c);
+        else if (Diagnostics.enabled() && Diagnostics.isBoxedMath(method))
+            Diagnostics.report(Diagnostics.BOXED_MATH, StaticMethodExpr.class, line, column,
+                               "call to " + c.getName() + "." + methodName + " takes boxed args",
+                               Diagnostics.MEMBER, methodName);
+        if (method == null) {
+            site = new ReflectiveCallSite(methodName);
+            siteId = Compiler.registerConstant(site);
+        } else {
+            site = null;
+            siteId = -1;
+        }
     }
 
     public Object eval() {
@@ -79,7 +98,7 @@ public class StaticMethodExpr extends MethodExpr {
                 ms.add(method);
                 return Reflector.invokeMatchingMethod(methodName, ms, null, argvals);
             }
-            return Reflector.invokeStaticMethod(c, methodName, argvals);
+            return site.invokeStatic(c, argvals);
         } catch (Throwable e) {
             if (!(e instanceof CompilerException))
                 throw new CompilerException(source, line, column, e);
@@ -159,6 +178,18 @@ public class StaticMethodExpr extends MethodExpr {
             } else {
                 HostExpr.emitBoxReturn(objx, gen, method.getReturnType());
             }
+        } else if (siteId >= 0) {
+            objx.emitConstant(gen, siteId);
+            gen.push(c.getName());
+            gen.invokeStatic(Compiler.CLASS_TYPE, forNameMethod);
+            emitArgsAsArray(args, objx, gen);
+            if (context == C.RETURN) {
+                ObjMethod method = (ObjMethod) Compiler.METHOD.deref();
+                method.emitClearLocals(gen);
+            }
+            gen.invokeVirtual(Compiler.REFLECT_SITE_TYPE, siteInvokeStaticMethod);
+            if (context == C.STATEMENT)
+                gen.pop();
         } else {
             gen.push(c.getName());
             gen.invokeStatic(Compiler.CLASS_TYPE, forNameMethod);
@@ -0,0 +1,63 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; Small map benchmark, for choosing clojure.array.map.threshold. For maps of 8 to 32
+;; keyword, string and vector keys, prints the best time over runs of 1e6 lookups of
+;; keys in them, and of 1e6 assocs replacing a value, as an array map and a hash map.
+;; Give a kind of key to time only those, as each kind makes the call sites megamorphic
+;; for the next.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_array_map.clj [runs [keyword|string|vector]]
+
+(def key-fns
+  [["keyword" #(keyword (str "k" %))]
+   ["string" #(str "key-" %)]
+   ["vector" #(vector :k %)]])
+
+(defn array-map-of [ks]
+  (clojure.lang.PersistentArrayMap. (object-array (interleave ks (range)))))
+
+(defn hash-map-of [ks]
+  (apply hash-map (interleave ks (range))))
+
+(defn lookups [m ks]
+  (let [^objects ks (object-array ks)
+        n (alength ks)]
+    #(loop [i 0 acc 0]
+       (if (< i 1000000)
+         (recur (inc i) (+ acc (long (get m (aget ks (rem i n))))))
+         acc))))
+
+(defn assocs [m ks]
+  (let [^objects ks (object-array ks)
+        n (alength ks)]
+    #(loop [i 0 m m]
+       (if (< i 1000000)
+         (recur (inc i) (assoc m (aget ks (rem i n)) i))
+         m))))
+
+(defn best-msecs [f runs]
+  (apply min (for [_ (range runs)]
+               (let [start (System/nanoTime)]
+                 (f)
+                 (/ (- (System/nanoTime) start) 1e6)))))
+
+(let [[r kind] *command-line-args*
+      runs (if r (Long/parseLong r) 20)]
+  (doseq [[label key-fn] key-fns
+          :when (or (nil? kind) (= kind label))
+          n [8 12 16 20 24 32]
+          :let [ks (map key-fn (range n))
+                ;; equal but not identical keys, as a lookup of a key read from input has
+                lks (map key-fn (range n))
+                a (array-map-of ks)
+                h (hash-map-of ks)]]
+    (println (format "%-8s %2d  get array %7.2f hash %7.2f ms  assoc array %7.2f hash %7.2f ms"
+                     label n
+                     (best-msecs (lookups a lks) runs) (best-msecs (lookups h lks) runs)
+                     (best-msecs (assocs a ks) runs) (best-msecs (assocs h ks) runs)))))
@@ -0,0 +1,54 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; Direct linking benchmark. Compiles the same call-heavy fns into two namespaces, one
+;; with the :direct-linking compiler option, and prints the best time of each over runs.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_direct.clj [runs]
+
+(def fns
+  '[(defn add ^long [^long a ^long b] (+ a b))
+    (defn sum-to ^long [^long n] (loop [i 0 acc 0] (if (< i n) (recur (inc i) (add acc i)) acc)))
+    (defn f1 [x] (if (nil? x) 0 x))
+    (defn f2 [x] (f1 (f1 x)))
+    (defn f3 [x] (f2 (f2 x)))
+    (defn f4 [x] (f3 (f3 x)))
+    (defn nested [n] (loop [i 0 acc 0] (if (< i n) (recur (inc i) (f4 acc)) acc)))
+    (defn kv [m k] (get m k))
+    (defn lookups [n] (let [m {:a 1}] (loop [i 0 acc 0] (if (< i n) (recur (inc i) (+ acc (kv m :a))) acc))))
+    (defn rest-args [a & more] (if more (count more) a))
+    (defn variadic [n] (loop [i 0 acc 0] (if (< i n) (recur (inc i) (+ acc (rest-args 1 2 3))) acc)))])
+
+;; self recursion is not direct linked, as the var has no fn while its defn compiles
+(def benches
+  [["sum-to 1e8" '(sum-to 100000000)]
+   ["nested 1e7" '(nested 10000000)]
+   ["lookups 1e7" '(lookups 10000000)]
+   ["variadic 1e7" '(variadic 10000000)]])
+
+(defn compile-ns [ns-name direct]
+  (binding [*ns* (create-ns ns-name)
+            *compiler-options* (assoc *compiler-options* :direct-linking direct)]
+    (refer-clojure)
+    (doseq [f fns] (eval f))
+    (into {} (for [[label form] benches]
+               [label (eval `(fn [] ~form))]))))
+
+(defn best-msecs [f runs]
+  (apply min (for [_ (range runs)]
+               (let [start (System/nanoTime)]
+                 (f)
+                 (/ (- (System/nanoTime) start) 1e6)))))
+
+(let [runs (if-let [r (first *command-line-args*)] (Long/parseLong r) 20)
+      indirect (compile-ns 'bench.direct.var false)
+      direct (compile-ns 'bench.direct.static true)]
+  (doseq [[label _] benches
+          :let [v (best-msecs (indirect label) runs)
+                d (best-msecs (direct label) runs)]]
+    (println (format "%-12s var %8.2f ms  direct %8.2f ms  %.2fx" label v d (/ v d)))))
@@ -0,0 +1,35 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; Blocking future benchmark. Starts n futures that each sleep, then waits for all of them.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_futures.clj [n] [sleep-msecs]
+;;   java -Dclojure.agent.send-off.virtual=true -cp clojure.jar clojure.main src/script/bench_futures.clj 100000
+;;
+;; With the default platform thread pool each sleeping future holds an OS thread, so large
+;; n is limited by the OS thread limit and memory.
+
+(def ^:dynamic *request* nil)
+
+(let [[n sleep-ms] (map #(Long/parseLong %) *command-line-args*)
+      n (or n 100000)
+      sleep-ms (or sleep-ms 1000)
+      start (System/nanoTime)
+      futs (binding [*request* :conveyed]
+             (doall (for [_ (range n)]
+                      (future (Thread/sleep sleep-ms) *request*))))
+      launched (System/nanoTime)]
+  (assert (every? #(= :conveyed (deref %)) futs))
+  (let [done (System/nanoTime)]
+    (println (format "%s: %,d futures sleeping %d ms, launched in %.0f ms, all done in %.0f ms"
+                     (.getName (class clojure.lang.Agent/soloExecutor))
+                     n sleep-ms
+                     (/ (- launched start) 1e6)
+                     (/ (- done start) 1e6)))))
+
+(shutdown-agents)
@@ -0,0 +1,54 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; Composite key hashing benchmark. For 1e5 composite keys of each kind, prints the share
+;; of keys whose hasheq another key has, the most keys sharing one, and the best time over
+;; runs of looking each up in a hash map of them. The hash is fixed when the JVM starts, so
+;; run it once as is and once with clojure.hash.murmur3 to compare.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_hash.clj [runs]
+;;   java -Dclojure.hash.murmur3=true -cp clojure.jar clojure.main src/script/bench_hash.clj [runs]
+
+(def n 100000)
+
+(def key-kinds
+  [["[long long]" (for [i (range 316) j (range 317)] [i j])]
+   ["[long long long]" (for [i (range 47) j (range 47) k (range 46)] [i j k])]
+   ["{:x :y}" (for [i (range 316) j (range 317)] {:x i :y j})]
+   ["#{long long}" (for [i (range 448) j (range i 448)] (hash-set i (- (inc j))))]
+   ["(long long)" (for [i (range 316) j (range 317)] (list i j))]
+   ["{[long] long}" (for [i (range 316) j (range 317)] {[i] j})]])
+
+(defn collisions [ks]
+  (let [freqs (vals (frequencies (map hash ks)))]
+    [(double (/ (reduce + (filter #(> % 1) freqs)) (count ks)))
+     (apply max freqs)]))
+
+(defn best-msecs [f runs]
+  (apply min (for [_ (range runs)]
+               (let [start (System/nanoTime)]
+                 (f)
+                 (/ (- (System/nanoTime) start) 1e6)))))
+
+;; keys, a map of them and equal keys that aren't the ones in it, so hashes aren't cached
+(defn prepare [ks]
+  (let [ks (vec (take n ks))]
+    [ks (zipmap ks (range)) (vec (map #(if (seq? %) (apply list %) (into (empty %) %)) ks))]))
+
+(defn lookups [m lks]
+  #(reduce (fn [acc k] (+ acc (long (m k)))) 0 lks))
+
+(let [runs (if-let [r (first *command-line-args*)] (Long/parseLong r) 10)
+      kinds (for [[label ks] key-kinds] (into [label] (prepare ks)))]
+  ;; a pass over every kind first, so the first isn't timed cold
+  (doseq [[_ _ m lks] kinds] (best-msecs (lookups m lks) 1))
+  (println "clojure.hash.murmur3" clojure.lang.Util/murmur3Hash)
+  (doseq [[label ks m lks] kinds
+          :let [[shared most] (collisions ks)]]
+    (println (format "%-18s %6d keys  colliding %6.2f%%  most per hash %4d  get all %8.2f ms"
+                     label (count ks) (* 100 shared) most (best-msecs (lookups m lks) runs)))))
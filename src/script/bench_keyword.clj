@@ -0,0 +1,38 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; Keyword lookup site benchmark. Sums (:a x) over arrays of records of one, three and
+;; six types, each through its own site, and prints the best time of each over runs.
+;; Compare runs with -Dclojure.lookup.site.depth set to 1 and to the default.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_keyword.clj [runs]
+
+(defrecord A [a]) (defrecord B [a]) (defrecord C [a])
+(defrecord D [a]) (defrecord E [a]) (defrecord F [a])
+
+(defmacro summer []
+  `(fn [~(with-meta 'xs {:tag 'objects})]
+     (let [n# (alength ~'xs)]
+       (loop [i# 0 acc# 0]
+         (if (< i# n#) (recur (inc i#) (+ acc# (long (:a (aget ~'xs i#))))) acc#)))))
+
+(def benches
+  [["1 type" (summer) [->A]]
+   ["3 types" (summer) [->A ->B ->C]]
+   ["6 types" (summer) [->A ->B ->C ->D ->E ->F]]])
+
+(defn best-msecs [f runs]
+  (apply min (for [_ (range runs)]
+               (let [start (System/nanoTime)]
+                 (f)
+                 (/ (- (System/nanoTime) start) 1e6)))))
+
+(let [runs (if-let [r (first *command-line-args*)] (Long/parseLong r) 20)]
+  (doseq [[label f ctors] benches
+          :let [xs (object-array (take 1000000 (cycle (map #(% 1) ctors))))]]
+    (println (format "%-8s %8.2f ms" label (best-msecs #(f xs) runs)))))
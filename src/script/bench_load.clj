@@ -0,0 +1,65 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; Namespace loading benchmark. Writes a generated library of n namespaces in layers of
+;; width w, each requiring two namespaces from the layer below, plus a main namespace
+;; requiring the top layer, then times requiring main in a fresh JVM serially and with
+;; :parallel.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_load.clj [n] [width] [runs]
+
+(def java (str (System/getProperty "java.home") "/bin/java"))
+
+(defn lib [i] (symbol (str "bench.load.ns" i)))
+
+(defn source [i width]
+  (let [layer (quot i width)
+        k (mod i width)
+        below #(lib (+ (* (dec layer) width) (mod % width)))
+        deps (when (pos? layer)
+               (distinct [(below k) (below (inc k))]))]
+    (apply str
+           (pr-str `(~'ns ~(lib i) ~@(when deps [`(:require ~@deps)])))
+           (for [j (range 20)]
+             (pr-str `(~'defn ~(symbol (str "f" j)) [~'x]
+                        (for [~'a (range ~'x) ~'b (range ~j) :when (odd? ~'a)]
+                          (cond-> {:a ~'a :b ~'b}
+                                  (even? ~'b) (assoc :c (str ~'a ~'b))))))))))
+
+(defn run-once [dir cp root parallel]
+  (let [expr (str "(let [start (System/nanoTime)]"
+                  "  (require '" root (when parallel " :parallel") ")"
+                  "  (println (long (/ (- (System/nanoTime) start) 1e6))))")
+        p (.start (ProcessBuilder. ^java.util.List [java "-cp" (str dir java.io.File/pathSeparator cp)
+                                                    "clojure.main" "-e" expr]))
+        out (slurp (.getInputStream p))]
+    (when-not (zero? (.waitFor p))
+      (throw (ex-info (str "clojure.main failed: " (slurp (.getErrorStream p))) {})))
+    (Long/parseLong (.trim ^String out))))
+
+(defn median [xs]
+  (nth (sort xs) (quot (count xs) 2)))
+
+(let [[n width runs] (map #(Long/parseLong %) *command-line-args*)
+      n (or n 200)
+      width (or width 20)
+      runs (or runs 5)
+      dir (.toFile (java.nio.file.Files/createTempDirectory "bench-load" (make-array java.nio.file.attribute.FileAttribute 0)))
+      cp (System/getProperty "java.class.path")]
+  (doseq [i (range n)]
+    (let [f (java.io.File. dir (str (.replace (str (lib i)) \. \/) ".clj"))]
+      (.mkdirs (.getParentFile f))
+      (spit f (source i width))))
+  (spit (java.io.File. dir "bench/load/main.clj")
+        (pr-str `(~'ns ~'bench.load.main (:require ~@(map lib (range (max 0 (- n width)) n))))))
+  (let [root 'bench.load.main
+        times (for [parallel [false true]]
+                (median (for [_ (range runs)] (run-once dir cp root parallel))))]
+    (println (format "%d namespaces, width %d, %d cores: serial %d ms, parallel %d ms"
+                     n width (.availableProcessors (Runtime/getRuntime))
+                     (first times) (second times)))))
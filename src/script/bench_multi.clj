@@ -0,0 +1,72 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; Multimethod dispatch benchmark. Calls a protocol fn, a multimethod dispatching on
+;; class, one dispatching on a keyword and one dispatching through a derived hierarchy
+;; over the same records, then times a burst of threads each calling a fresh
+;; multimethod at once, and prints the best time of each over runs.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_multi.clj [runs]
+
+(defprotocol Area (area [s]))
+(defrecord Square [side] Area (area [_] 1))
+(defrecord Circle [radius] Area (area [_] 2))
+(defrecord Rect [w h] Area (area [_] 3))
+
+(defmulti class-area class)
+(defmethod class-area Square [_] 1)
+(defmethod class-area Circle [_] 2)
+(defmethod class-area Rect [_] 3)
+
+(defmulti kind-area :kind)
+(defmethod kind-area :square [_] 1)
+(defmethod kind-area :circle [_] 2)
+(defmethod kind-area :rect [_] 3)
+
+(derive ::square ::shape)
+(derive ::circle ::shape)
+(derive ::rect ::shape)
+(defmulti isa-area :tag)
+(defmethod isa-area ::shape [_] 1)
+
+(def shapes (object-array (take 1000 (cycle [(->Square 1) (->Circle 1) (->Rect 1 1)]))))
+(def kinds (object-array (take 1000 (cycle [{:kind :square :tag ::square}
+                                            {:kind :circle :tag ::circle}
+                                            {:kind :rect :tag ::rect}]))))
+
+(defmacro summer [f xs]
+  `(fn [] (let [~(with-meta 'xs {:tag 'objects}) ~xs]
+            (loop [i# 0 acc# 0]
+              (if (< i# (alength ~'xs)) (recur (inc i#) (+ acc# (long (~f (aget ~'xs i#))))) acc#)))))
+
+(def benches
+  [["protocol" (summer area shapes)]
+   ["class" (summer class-area shapes)]
+   ["keyword" (summer kind-area kinds)]
+   ["isa" (summer isa-area kinds)]])
+
+(defn burst []
+  (let [m (clojure.lang.MultiFn. "burst" :tag :default #'clojure.core/global-hierarchy)
+        _ (.addMethod m ::shape (fn [_] 1))
+        start (java.util.concurrent.CountDownLatch. 1)
+        fs (doall (for [_ (range 8)]
+                    (future (.await start) (dotimes [i 10000] (m (aget ^objects kinds (mod i 3)))))))]
+    (.countDown start)
+    (doseq [f fs] @f)))
+
+(defn best-msecs [f runs n]
+  (apply min (for [_ (range runs)]
+               (let [start (System/nanoTime)]
+                 (dotimes [_ n] (f))
+                 (/ (- (System/nanoTime) start) 1e6)))))
+
+(let [runs (if-let [r (first *command-line-args*)] (Long/parseLong r) 20)]
+  (doseq [[label f] benches]
+    (println (format "%-9s %8.2f ms per 1e6 calls" label (best-msecs f runs 1000))))
+  (println (format "%-9s %8.2f ms for 8 threads x 1e4 calls" "burst" (best-msecs burst runs 1)))
+  (shutdown-agents))
@@ -0,0 +1,47 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; Protocol dispatch benchmark. For each count of types, extends a fresh protocol to that
+;; many types with extend, half of them through an interface they implement, then calls
+;; the protocol fn over 1e6 instances cycling through the types. Prints the time of the
+;; first pass, which fills the method cache, and the best of the later passes.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_protocol.clj [runs]
+
+(definterface Marker)
+
+(defn setup [n]
+  (binding [*ns* (create-ns (gensym "bench.protocol.p"))]
+    (refer-clojure)
+    (eval '(defprotocol P (value [x])))
+    (let [p @(resolve 'P)
+          types (vec (for [i (range n)]
+                       (let [marked (odd? i)
+                             t (eval `(deftype ~(symbol (str "T" i)) []
+                                        ~@(when marked [`Marker])))]
+                         (when-not marked
+                           (extend t p {:value (fn [_] 1)}))
+                         t)))]
+      (extend Marker p {:value (fn [_] 1)})
+      ;; extend replaces the protocol fn, so it's looked up once all are done
+      [@(resolve 'value)
+       (object-array (take 1000000 (cycle (map #(.newInstance ^Class %) types))))])))
+
+(defn pass [f ^objects xs]
+  (let [start (System/nanoTime)]
+    (loop [i 0 acc 0]
+      (when (< i (alength xs))
+        (recur (inc i) (+ acc (long (f (aget xs i)))))))
+    (/ (- (System/nanoTime) start) 1e6)))
+
+(let [runs (if-let [r (first *command-line-args*)] (Long/parseLong r) 20)]
+  (doseq [n [1 2 5 10 20 50 100]]
+    (let [[f xs] (setup n)
+          first-pass (pass f xs)]
+      (println (format "%3d types  first %8.2f ms  best %8.2f ms"
+                       n first-pass (apply min (repeatedly runs #(pass f xs))))))))
@@ -0,0 +1,58 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; Reflective call benchmark. Makes the same untagged instance and static interop calls
+;; through the compiled call site and through Reflector directly, as code compiled before
+;; call sites did, over receivers of one class and of several, and prints the best time
+;; of each over runs.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_reflect.clj [runs]
+
+(def strs (object-array (repeat 1000 "abc")))
+(def char-seqs (object-array (take 1000 (cycle ["abc" (StringBuilder. "ab") (StringBuffer. "a")
+                                                 (java.nio.CharBuffer/wrap "abcd")]))))
+(def neg-longs (object-array (repeat 1000 -3)))
+(def nums (object-array (take 1000 (cycle [-3 -2.5 (int -1) (float -1.5)]))))
+
+(defmacro summer [xs expr]
+  `(fn [] (let [~(with-meta 'xs {:tag 'objects}) ~xs]
+            (loop [i# 0 acc# 0]
+              (if (< i# (alength ~'xs))
+                (recur (inc i#) (+ acc# (long (let [~'x (aget ~'xs i#)] ~expr))))
+                acc#)))))
+
+(defn args1 [x] (let [a (object-array 1)] (aset a 0 x) a))
+
+;; (. x (length)), as a no-arg (.length x) on an untagged x compiles to a field-or-method
+;; lookup that never goes through a call site
+(def benches
+  [["instance mono"
+    (summer strs (clojure.lang.Reflector/invokeInstanceMethod x "length" (object-array 0)))
+    (summer strs (. x (length)))]
+   ["instance poly"
+    (summer char-seqs (clojure.lang.Reflector/invokeInstanceMethod x "length" (object-array 0)))
+    (summer char-seqs (. x (length)))]
+   ["static mono"
+    (summer neg-longs (clojure.lang.Reflector/invokeStaticMethod Math "abs" (args1 x)))
+    (summer neg-longs (Math/abs x))]
+   ["static poly"
+    (summer nums (clojure.lang.Reflector/invokeStaticMethod Math "abs" (args1 x)))
+    (summer nums (Math/abs x))]])
+
+(defn best-msecs [f runs n]
+  (apply min (for [_ (range runs)]
+               (let [start (System/nanoTime)]
+                 (dotimes [_ n] (f))
+                 (/ (- (System/nanoTime) start) 1e6)))))
+
+(let [runs (if-let [r (first *command-line-args*)] (Long/parseLong r) 20)]
+  (doseq [[label reflector site] benches
+          :let [r (best-msecs reflector runs 1000)
+                s (best-msecs site runs 1000)]]
+    (println (format "%-13s reflector %8.2f ms  site %8.2f ms  %.2fx per 1e6 calls"
+                     label r s (/ r s)))))
@@ -0,0 +1,50 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; Startup benchmark. Launches clojure.main -e on each classpath, alternating between
+;; them, and prints the median and best time from JVM start to the first eval and to
+;; process exit.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_startup.clj [runs] [classpath ...]
+;;
+;; With no classpaths it measures this process's own. To see what a compiler option
+;; buys, compare a build made with it against one without.
+
+(def first-eval
+  "(println (- (System/currentTimeMillis)
+              (.getStartTime (java.lang.management.ManagementFactory/getRuntimeMXBean))))")
+
+(def java (str (System/getProperty "java.home") "/bin/java"))
+
+(defn run-once [cp]
+  (let [start (System/nanoTime)
+        p (.start (ProcessBuilder. ^java.util.List [java "-cp" cp "clojure.main" "-e" first-eval]))
+        out (slurp (.getInputStream p))]
+    (when-not (zero? (.waitFor p))
+      (throw (ex-info (str "clojure.main failed: " (slurp (.getErrorStream p))) {:classpath cp})))
+    {:first-eval (Long/parseLong (.trim ^String out))
+     :exit (long (/ (- (System/nanoTime) start) 1e6))}))
+
+(defn median [xs]
+  (nth (sort xs) (quot (count xs) 2)))
+
+(let [[runs & cps] *command-line-args*
+      runs (if runs (Long/parseLong runs) 10)
+      cps (or cps [(System/getProperty "java.class.path")])
+      ;; one untimed run each to warm the file cache
+      _ (doseq [cp cps] (run-once cp))
+      results (apply merge-with into
+                     (for [_ (range runs) cp cps]
+                       {cp [(run-once cp)]}))]
+  (println "runs:" runs "cores:" (.availableProcessors (Runtime/getRuntime)))
+  (doseq [cp cps
+          :let [rs (results cp)]]
+    (println (format "first eval %5d ms (best %5d)  exit %5d ms (best %5d)  %s"
+                     (median (map :first-eval rs)) (apply min (map :first-eval rs))
+                     (median (map :exit rs)) (apply min (map :exit rs))
+                     cp))))
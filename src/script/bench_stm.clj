@@ -0,0 +1,56 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; STM contention benchmark. Prints transactions/sec for 1 to 64 threads.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_stm.clj [msecs-per-run]
+;;
+;; :read-only  each transaction derefs 4 shared refs
+;; :disjoint   each thread alters its own ref, so only the STM's own shared state contends
+;; :commute    every transaction commutes one shared counter
+
+(def refs (vec (repeatedly 4 #(ref 0))))
+
+(def workloads
+  {:read-only (fn [_] (dosync (reduce + (map deref refs))))
+   :disjoint (fn [^clojure.lang.Ref r] (dosync (alter r inc)))
+   :commute (fn [_] (dosync (commute (refs 0) inc)))})
+
+(defn run [work nthreads msecs]
+  (let [counts (vec (repeatedly nthreads #(java.util.concurrent.atomic.AtomicLong.)))
+        total #(reduce + (map (fn [^java.util.concurrent.atomic.AtomicLong c] (.get c)) counts))
+        gate (java.util.concurrent.CountDownLatch. 1)
+        stop (promise)
+        threads (doall
+                  (for [^java.util.concurrent.atomic.AtomicLong c counts]
+                    (let [own (ref 0)]
+                      (doto (Thread. ^Runnable
+                                     (fn []
+                                       (.await gate)
+                                       (while (not (realized? stop))
+                                         (work own)
+                                         (.incrementAndGet c))))
+                        (.start)))))
+        start (System/nanoTime)]
+    (.countDown gate)
+    (Thread/sleep msecs)
+    (let [n (total)
+          secs (/ (- (System/nanoTime) start) 1e9)]
+      (deliver stop true)
+      (doseq [^Thread t threads] (.join t))
+      (long (/ n secs)))))
+
+(let [msecs (if-let [a (first *command-line-args*)] (Long/parseLong a) 2000)]
+  (println "cores:" (.availableProcessors (Runtime/getRuntime)) "msecs/run:" msecs)
+  (doseq [[k work] workloads]
+    ;; warm up
+    (run work 1 (min msecs 1000))
+    (doseq [n [1 2 4 8 16 32 64]]
+      (println (format "%-10s %3d threads %,14d tx/sec" (name k) n (run work n msecs))))))
+
+(shutdown-agents)
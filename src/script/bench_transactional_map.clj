@@ -0,0 +1,53 @@
+;   Copyright (c) Rich Hickey. All rights reserved.
+;   The use and distribution terms for this software are covered by the
+;   Eclipse Public License 1.0 (http://opensource.org/licenses/eclipse-1.0.php)
+;   which can be found in the file epl-v10.html at the root of this distribution.
+;   By using this software in any fashion, you are agreeing to be bound by
+;   the terms of this license.
+;   You must not remove this notice, or any other, from this software.
+
+;; TransactionalHashMap benchmark. Fills a TransactionalHashMap and a ConcurrentHashMap
+;; with 1e5 keys, the former a transaction per put, then has 4 threads do 1e6 ops each
+;; over them, 1 in 10 a put and the rest gets, plus a size every 1000th op. Prints the
+;; best time of each over runs.
+;;
+;;   java -cp clojure.jar clojure.main src/script/bench_transactional_map.clj [runs]
+
+(import '[java.util.concurrent ConcurrentHashMap ConcurrentMap])
+
+(def nkeys 100000)
+(def nthreads 4)
+(def nops 1000000)
+
+(defn fill [^ConcurrentMap m put]
+  (dotimes [i nkeys]
+    (put m i i))
+  m)
+
+(defn work [^ConcurrentMap m put]
+  (let [fs (doall (for [t (range nthreads)]
+                    (future
+                      (let [r (java.util.Random. t)]
+                        (dotimes [i nops]
+                          (let [k (.nextInt r nkeys)]
+                            (cond
+                              (zero? (rem i 1000)) (.size m)
+                              (zero? (rem i 10)) (put m k i)
+                              :else (.get m k))))))))]
+    (doseq [f fs] @f)))
+
+(defn best-msecs [f runs]
+  (apply min (for [_ (range runs)]
+               (let [start (System/nanoTime)]
+                 (f)
+                 (/ (- (System/nanoTime) start) 1e6)))))
+
+(defn chm-put [^ConcurrentMap m k v] (.put m k v))
+(defn thm-put [^ConcurrentMap m k v] (dosync (.put m k v)))
+
+(let [runs (if-let [r (first *command-line-args*)] (Long/parseLong r) 10)]
+  (doseq [[label new-map put] [["ConcurrentHashMap" #(ConcurrentHashMap.) chm-put]
+                               ["TransactionalHashMap" #(clojure.lang.TransactionalHashMap.) thm-put]]]
+    (let [m (fill (new-map) put)]
+      (println (format "%-20s fill %8.2f ms  ops %8.2f ms"
+                       label (best-msecs #(fill (new-map) put) runs) (best-msecs #(work m put) runs))))))
@@ -9,7 +9,8 @@
 ;; Author: Shawn Hoover
 
 (ns clojure.test-clojure.agents
-  (:use clojure.test)
+  (:use clojure.test
+        [clojure.test-helper :only (eval-in-jvm)])
   (:import [java.util.concurrent CountDownLatch TimeUnit]))
 
 ;; tests are fragile. If wait fails, could indicate that
@@ -176,6 +177,131 @@
         (is (= (.size small-lbq)
                (dec queue-backlog)))))))
 
+(deftest bounded-agent-queues
+  (let [gate (java.util.concurrent.CountDownLatch. 1)
+        hold (fn [state] (.await gate) state)]
+    (testing ":drop discards sends past the limit"
+      (let [a (agent [] :queue-limit 2 :overflow :drop)]
+        (send-off a hold)
+        (send a conj 1)
+        (send a conj 2)
+        (send a conj 3)
+        (is (= 2 (.getQueueCount a)))
+        (.countDown gate)
+        (is (await-for 5000 a))
+        (is (= [1] @a))))
+    (testing ":error throws past the limit"
+      (let [gate (java.util.concurrent.CountDownLatch. 1)
+            a (agent 0 :queue-limit 1 :overflow :error)]
+        (send-off a (fn [s] (.await gate) s))
+        (is (thrown? java.util.concurrent.RejectedExecutionException (send a inc)))
+        (.countDown gate)
+        (is (await-for 5000 a))
+        (send a inc)
+        (is (await-for 5000 a))
+        (is (= 1 @a))))
+    (testing "concurrent senders don't overshoot the limit"
+      (let [gate (java.util.concurrent.CountDownLatch. 1)
+            start (java.util.concurrent.CountDownLatch. 1)
+            a (agent [] :queue-limit 3 :overflow :drop)]
+        (send-off a (fn [s] (.await gate) s))
+        (let [senders (doall (for [t (range 8)]
+                               (future (.await start)
+                                       (dotimes [i 200] (send a conj [t i])))))]
+          (.countDown start)
+          (doseq [f senders] @f))
+        (is (= 3 (.getQueueCount a)))
+        (.countDown gate)
+        (is (await-for 5000 a))
+        (is (= 2 (count @a)))))
+    (testing ":block waits for room"
+      (let [a (agent 0 :queue-limit 1)
+            sent (future (dotimes [_ 10] (send-off a (fn [s] (Thread/sleep 5) (inc s)))) :done)]
+        (is (= :done (deref sent 5000 :timeout)))
+        (is (await-for 5000 a))
+        (is (= 10 @a))))
+    (is (thrown? IllegalArgumentException (agent 0 :queue-limit 1 :overflow :spill)))))
+
+(deftest agent-executors
+  (let [threads (atom #{})
+        exec (java.util.concurrent.Executors/newSingleThreadExecutor)
+        record (fn [s] (swap! threads conj (Thread/currentThread)) s)]
+    (try
+      (register-agent-executor! ::single exec)
+      (let [a (agent nil :executor ::single)
+            b (agent nil :executor exec)]
+        (dotimes [_ 5] (send a record) (send-off b record))
+        (is (await-for 5000 a b))
+        (is (= 1 (count @threads))))
+      (is (thrown? IllegalStateException (send (agent nil :executor ::missing) identity)))
+      (finally (.shutdown exec)))))
+
+;; In a child JVM with clojure.agent.metrics=true, holds a dropping agent with room
+;; for 2 more actions while 4 threads send it 25 each, and a blocking one with no room
+;; while a send waits, then returns the dropping agent's queue count while held, and
+;; both agents' metrics once their executors are done.
+(def ^:private overflowing-sends
+  '(let [gate (java.util.concurrent.CountDownLatch. 1)
+         hold (fn [s] (.await gate) s)
+         dropping (agent [] :queue-limit 3 :overflow :drop)
+         blocking (agent 0 :queue-limit 1)
+         _ (send-off dropping hold)
+         _ (send-off blocking hold)
+         senders (doall (for [t (range 4)]
+                          (future (dotimes [i 25] (send dropping conj [t i])))))
+         _ (doseq [f senders] @f)
+         depth (.getQueueCount dropping)
+         sent (future (send blocking inc))]
+     (while (zero? (:blocked (agent-metrics blocking)))
+       (Thread/sleep 1))
+     (.countDown gate)
+     @sent
+     (await dropping blocking)
+     (shutdown-agents)
+     (doseq [^java.util.concurrent.ExecutorService e [clojure.lang.Agent/pooledExecutor
+                                                      clojure.lang.Agent/soloExecutor]]
+       (.awaitTermination e 5 java.util.concurrent.TimeUnit/SECONDS))
+     (prn [depth (count @dropping) @blocking
+           (select-keys (agent-metrics dropping) [:actions :dropped :blocked])
+           (select-keys (agent-metrics blocking) [:actions :dropped :blocked])])))
+
+(deftest agent-metrics-follow-property
+  (testing "off unless asked for"
+    (let [a (agent 0)]
+      (send a inc)
+      (await a)
+      (is (nil? (agent-metrics a)))))
+  (testing "actions, drops and blocked sends are counted"
+    (let [{:keys [exit out err]} (eval-in-jvm {"clojure.agent.metrics" true} overflowing-sends)
+          _ (when-not (zero? exit) (throw (Exception. err)))
+          [depth dropped-state blocked-state dropping blocking] (read-string out)]
+      (is (= [3 2 1] [depth dropped-state blocked-state]))
+      (is (= {:actions 4 :dropped 98 :blocked 0} dropping) "hold, 2 conjs and await's action")
+      (is (= {:actions 3 :dropped 0 :blocked 1} blocking) "hold, inc and await's action"))))
+
+(def ^:dynamic *conveyed* nil)
+
+(deftest virtual-thread-send-off
+  (let [prior clojure.lang.Agent/soloExecutor]
+    (if (try (.shutdown (clojure.lang.Agent/newVirtualThreadExecutor)) true
+             (catch UnsupportedOperationException _ false))
+      (try
+        (set-agent-send-off-executor! :virtual)
+        (let [thread-name #(.getName (Thread/currentThread))
+              a (agent nil)]
+          (binding [*conveyed* 1]
+            (is (= [1 1] @(future [*conveyed* @(future *conveyed*)])))
+            (is (.startsWith ^String @(future (thread-name)) "clojure-agent-send-off-virtual-"))
+            (is (= [1 1 1] (pmap (fn [_] *conveyed*) (range 3))))
+            (send-off a (fn [_] [*conveyed* (thread-name)]))
+            (is (await-for 5000 a))
+            (is (= 1 (first @a)))
+            (is (.startsWith ^String (second @a) "clojure-agent-send-off-virtual-"))))
+        (finally
+          (.shutdown clojure.lang.Agent/soloExecutor)
+          (set-agent-send-off-executor! prior)))
+      (is (thrown? UnsupportedOperationException (set-agent-send-off-executor! :virtual))))))
+
 ; http://clojure.org/agents
 
 ; agent
@@ -14,7 +14,7 @@
   (:require [clojure.test.generative :refer (defspec)]
             [clojure.data.generators :as gen])
   (:use clojure.test
-        [clojure.test-helper :only (should-not-reflect should-print-err-message)]))
+        [clojure.test-helper :only (should-not-reflect should-print-err-message eval-in-jvm)]))
 
 ; http://clojure.org/compilation
 
@@ -175,6 +175,89 @@
   (should-print-err-message #"(?s).*k is not matching primitive.*"
     #(loop [k (clojure.test-clojure.compilation/primfn)] (recur :foo))))
 
+(defmacro should-not-box [form]
+  `(binding [*warn-on-reflection* true]
+     (is (nil? (re-find #"boxing loop local"
+                       (clojure.test-helper/with-err-string-writer (clojure.test-helper/eval-in-temp-ns ~form)))))))
+
+(deftest primitive-loop-locals
+  (testing "int, float, boolean and char loop locals stay primitive"
+    (should-not-box #(let [^ints a (int-array [1 2 3])]
+                       (loop [i (int 0) s (int 0)]
+                         (if (< i (alength a)) (recur (unchecked-inc-int i) (unchecked-add-int s (aget a i))) s))))
+    (should-not-box #(loop [b (Boolean/parseBoolean "true") c (.charAt "ab" 0)]
+                       (if b (recur (.equals "a" "b") (.charAt "ab" 1)) c)))
+    (is (= \b (loop [b (Boolean/parseBoolean "true") c (.charAt "ab" 0)] (if b (recur (.equals "a" "b") (.charAt "ab" 1)) c)))))
+  (testing "int and float loop locals box as long and double where they escape"
+    (is (= [Long 6] (let [^ints a (int-array [1 2 3])]
+                      (loop [i (int 0) s (int 0)]
+                        (if (< i 3) (recur (unchecked-inc-int i) (unchecked-add-int s (aget a i))) [(class s) s])))))
+    (is (= [Double 1.5] (loop [x (float 0.5) i 0] (if (< i 2) (recur (float (+ x 0.5)) (inc i)) [(class x) x]))))
+    (is (= Long (class (loop [i (.length "abc")] i))))
+    (is (= Double (class (loop [x (float 1.5)] x))))
+    (is (= [Long Long] (map class (loop [i (int 0) acc []] (if (< i 2) (recur (unchecked-inc-int i) (conj acc i)) acc)))))
+    (is (= Long (class ((loop [i (int 1)] (fn [] i))))))
+    (is (= Long (class (let [x (loop [i (int 0)] (if (< i 3) (recur (unchecked-inc-int i)) i))] x))))
+    (is (= Long (class (loop [i (int 1)] (let [j i] j))))))
+  (testing "int and float loop locals widen to long and double"
+    (should-not-box #(loop [i (int 0)] (if (< i 3) (recur (inc i)) i)))
+    (is (= [Long 3] (loop [i (int 0)] (if (< i 3) (recur (inc i)) [(class i) i]))))
+    (is (= [Double 1.5] (loop [x (float 0)] (if (< x 1) (recur (+ x 1.5)) [(class x) x])))))
+  (testing "loop locals that can't stay primitive are boxed and reported"
+    (should-print-err-message #"(?s).*b is not matching primitive, had: Object, needed: boolean, boxing loop local.*"
+      #(loop [b (Boolean/parseBoolean "true")] (if b (recur (identity false)) b)))
+    (is (= :done (loop [b (Boolean/parseBoolean "true")] (if (true? b) (recur (identity :done)) b))))))
+
+(defn diagnostics-of [form]
+  (let [found (atom [])]
+    (binding [*compiler-diagnostics* #(swap! found conj %)]
+      (eval form))
+    @found))
+
+(deftest compiler-diagnostics
+  (let [ds (diagnostics-of '(fn [x xs]
+                              (.foo x)
+                              (loop [s (first xs) b (Boolean/parseBoolean "true")]
+                                (if b (recur (+ s x) (identity false)) (str s x 1 2)))))
+        by-kind (group-by :kind ds)]
+    (testing "each finding is reported once, with its position and expression"
+      (is (= #{:reflection :boxed-math :uninferred-loop-local :boxed-loop-local :rest-fn-call}
+             (set (keys by-kind))))
+      (is (every? #(= 1 (count %)) (vals by-kind)))
+      (is (every? (every-pred :file :line :column :message #(class? (:expr %))) ds)))
+    (is (= ["foo" clojure.lang.exp.InstanceFieldExpr]
+           ((juxt :member :expr) (first (:reflection by-kind)))))
+    (is (= "add" (:member (first (:boxed-math by-kind)))))
+    (is (= 's (:local (first (:uninferred-loop-local by-kind)))))
+    (is (= ['b Object Boolean/TYPE]
+           ((juxt :local :had :needed) (first (:boxed-loop-local by-kind)))))
+    (is (= [#'str 4] ((juxt :var :arity) (first (:rest-fn-call by-kind))))))
+  (testing "code with hints and primitive locals has none"
+    (is (empty? (diagnostics-of '(fn [^String x ^long n]
+                                   (loop [i 0 acc (.length x)]
+                                     (if (< i n) (recur (inc i) (+ acc i)) (str acc)))))))))
+
+(defn prim6 ^double [^long a ^long b ^long c ^long d ^long e ^double f] (+ a b c d e f))
+(defn prim-ret5 ^long [a b c d e] (count [a b c d e]))
+(defn prim20 ^long [^long a ^long b ^long c ^long d ^long e ^long f ^long g ^long h ^long i ^long j
+                    ^long k ^long l ^long m ^long n ^long o ^long p ^long q ^long r ^long s ^long t]
+  (+ a b c d e f g h i j k l m n o p q r s t))
+
+(deftest primitive-fns-past-4-args
+  (testing "fns implement a generated interface named for their signature"
+    (is (instance? clojure.lang.IFn$LLLLLDD prim6))
+    (is (instance? clojure.lang.IFn$OOOOOL prim-ret5))
+    (is (= (clojure.lang.PrimInterfaces/interfaceFor "LLLLLDD") (.getName clojure.lang.IFn$LLLLLDD))))
+  (testing "calls with known arg types invoke the primitive method"
+    (should-not-reflect #(loop [x 0.0] (if (< x 100) (recur (clojure.test-clojure.compilation/prim6 1 2 3 4 5 x)) x)))
+    (should-not-reflect #(loop [k 5] (recur (clojure.test-clojure.compilation/prim-ret5 1 2 3 4 5))))
+    (is (= 15.5 (prim6 1 2 3 4 5 0.5)))
+    (is (= 5 (prim-ret5 1 2 3 4 5)))
+    (is (= 210 (prim20 1 2 3 4 5 6 7 8 9 10 11 12 13 14 15 16 17 18 19 20))))
+  (testing "boxed calls still work"
+    (is (= 15.5 (apply prim6 [1 2 3 4 5 0.5])))
+    (is (= 15.5 (.invoke ^clojure.lang.IFn prim6 1 2 3 4 5 0.5)))))
+
 #_(deftest CLJ-1154-use-out-after-compile
   ;; This test creates a dummy file to compile, sets up a dummy
   ;; compiled output directory, and a dummy output stream, and
@@ -226,6 +309,177 @@
     (testing "do in a set throws an exception in compilation"
       (is (thrown? Compiler$CompilerException (compile "#{do}"))))))
 
+(defn aot-eval
+  "AOT compiles source as namespace clojure.aot-test with compiler options,
+  from a temp source directory into a temp compile directory, both in a new
+  JVM, then reads back what expr prints in another that loads it from there."
+  [source options expr]
+  (let [tmp #(.toFile (java.nio.file.Files/createTempDirectory % (make-array java.nio.file.attribute.FileAttribute 0)))
+        src (tmp "aot-src")
+        classes (tmp "aot")
+        java-eval (fn [form & dirs]
+                    (let [{:keys [exit out err]} (apply eval-in-jvm {} form dirs)]
+                      (when-not (zero? exit)
+                        (throw (Exception. err)))
+                      out))]
+    (.mkdirs (java.io.File. src "clojure"))
+    (spit (java.io.File. src "clojure/aot_test.clj") (str "(ns clojure.aot-test)\n" source))
+    (try
+      (java-eval `(binding [*compile-path* ~(str classes)
+                            *compiler-options* '~options]
+                    (compile 'clojure.aot-test))
+                 src classes)
+      (read-string (java-eval `(do (require 'clojure.aot-test)
+                                   (prn ~expr))
+                              classes))
+      (finally
+        (doseq [f (concat (reverse (file-seq src)) (reverse (file-seq classes)))]
+          (.delete ^java.io.File f))))))
+
+(deftest compile-with-lazy-fns
+  (is (= [[true true false false] 2 [false false true] [1 2] 1]
+         (aot-eval
+           (str "(defn f [x] (inc x))\n"
+                "(defn g [] (f 1))\n"
+                "(def h g)\n"
+                "(defn ^long p [^long x] x)\n"
+                "(let [y 1] (defn closure [] y))\n")
+           {:lazy-fns true}
+           '(let [thunk? #(instance? clojure.lang.FnLoaderThunk (.getRawRoot ^clojure.lang.Var %))
+                  before (mapv thunk? [#'clojure.aot-test/f #'clojure.aot-test/g
+                                       #'clojure.aot-test/p #'clojure.aot-test/closure])
+                  ret (clojure.aot-test/h)]
+              [before
+               ret
+               (mapv thunk? [#'clojure.aot-test/f #'clojure.aot-test/g #'clojure.aot-test/h])
+               ((juxt clojure.aot-test/p clojure.aot-test/f) 1)
+               (clojure.aot-test/closure)]))))
+  (testing "a var rebound before its first call keeps its new root"
+    (is (= [:real :mock]
+           (aot-eval
+             "(defn f [] :real)\n"
+             {:lazy-fns true}
+             '(let [thunk clojure.aot-test/f]
+                (with-redefs [clojure.aot-test/f (constantly :mock)]
+                  [(thunk) (clojure.aot-test/f)])))))))
+
+(deftest load-profile
+  (let [{:keys [exit out err]}
+        (eval-in-jvm {"clojure.load.profile" true}
+                     '(do (load-string "(ns profiled)\n(defn f [x] (inc x))\n")
+                          (let [w (java.io.StringWriter.)]
+                            (clojure.lang.LoadProfiler/writeCollapsed w false)
+                            (prn [(clojure.lang.LoadProfiler/report) (str w)]))))
+        _ (when-not (zero? exit) (throw (Exception. err)))
+        [report collapsed] (read-string out)
+        file (first (filter #(= "NO_SOURCE_FILE" (:source %)) (:namespaces report)))
+        form (first (filter #(= "(defn f)" (:form %)) (:forms report)))]
+    (testing "files and top level forms are timed by phase"
+      (is (= 'profiled (:ns file) (:ns form)))
+      (is (= 2 (:line form)))
+      (is (= #{:read :macroexpand :analyze :emit :define-class :eval}
+             (set (keys (:phases form)))))
+      (is (<= (reduce + (map :nanos (vals (:phases form)))) (:nanos form) (:nanos file))))
+    (testing "collapsed stacks name the file, form and phases"
+      (is (re-find #"(?m)^eval;NO_SOURCE_FILE;\(defn f\):2;analyze;emit \d+$" collapsed))
+      (is (re-find #"(?m)^eval;NO_SOURCE_FILE;\(ns profiled\):1;eval \d+$" collapsed)))))
+
+;; Fns for direct-linking, compiled with the :direct-linking compiler option
+(binding [*compiler-options* (assoc *compiler-options* :direct-linking true)]
+  (eval '(do
+           (defn dl-target [x] [:old x])
+           (defn ^:redef dl-redef [x] [:old x])
+           (defn ^:dynamic dl-dynamic [x] [:old x])
+           (defn dl-prim ^long [^long x] (inc x))
+           (defn dl-arities ([a] [:one a]) ([a b] [:two a b]) ([a b & more] [:more a b more]))
+           (defn dl-rest [& xs] xs)
+           (defn dl-named [n] ((fn count-down [k] (if (pos? k) (count-down (dec k)) k)) n))
+           (defn dl-calls []
+             [(dl-target 1) (dl-redef 1) (dl-dynamic 1) (dl-prim 1)
+              (dl-arities 1) (dl-arities 1 2) (dl-arities 1 2 3) (dl-arities 1 2 3 4)
+              (dl-rest) (dl-rest 1 2) (dl-named 3)]))))
+
+(deftest direct-linking
+  (testing "fns get an invokeStatic per arity"
+    (is (= #{[Object] [Object Object] [Object Object clojure.lang.ISeq]}
+           (set (for [m (.getMethods (class dl-arities))
+                      :when (= "invokeStatic" (.getName m))]
+                  (vec (.getParameterTypes m))))))
+    (is (= Long/TYPE (.getReturnType (.getMethod (class dl-prim) "invokeStatic" (into-array Class [Long/TYPE])))))
+    (is (= 2 (.invokePrim ^clojure.lang.IFn$LL dl-prim 1))))
+  (testing "calls pick the arity IFn would"
+    (is (= [[:old 1] [:old 1] [:old 1] 2
+            [:one 1] [:two 1 2] [:more 1 2 [3]] [:more 1 2 [3 4]]
+            nil [1 2] 0]
+           (dl-calls))))
+  (testing "calls are bound to the fn at compile time, except for ^:redef and ^:dynamic vars"
+    (with-redefs [dl-target (fn [x] [:new x])
+                  dl-redef (fn [x] [:new x])]
+      (binding [dl-dynamic (fn [x] [:new x])]
+        (is (= [[:old 1] [:new 1] [:new 1]] (take 3 (dl-calls))))))))
+
+;; Evaluates form from dir in a child JVM with clojure.load.cache at cache, returning
+;; what it prints
+(defn- eval-cached [dir cache form]
+  (let [{:keys [exit out err]}
+        (eval-in-jvm {"clojure.load.cache" cache "clojure.load.profile" true} form dir)]
+    (when-not (zero? exit) (throw (Exception. err)))
+    (read-string out)))
+
+;; Loads lc-test.b, which uses a macro from lc-test.m, returning lc-test.b/x and the
+;; phases loading (def x) ran
+(defn- load-cached [dir cache]
+  (eval-cached dir cache
+               '(do (require 'lc-test.b)
+                    (prn [@(resolve 'lc-test.b/x)
+                          (->> (:forms (clojure.lang.LoadProfiler/report))
+                               (filter #(= "(def x)" (:form %)))
+                               first :phases keys set)]))))
+
+(deftest load-cache
+  (let [tmp #(.toFile (java.nio.file.Files/createTempDirectory % (make-array java.nio.file.attribute.FileAttribute 0)))
+        dir (tmp "lc-src")
+        cache (tmp "lc-cache")
+        spit-lib (fn [lib src]
+                   (let [f (java.io.File. dir (str "lc_test/" lib ".clj"))]
+                     (.mkdirs (.getParentFile f))
+                     (spit f src)))]
+    (spit-lib "h" "(ns lc-test.h)\n(defn helper [] 1)\n")
+    (spit-lib "m" (str "(ns lc-test.m (:require lc-test.h))\n"
+                       "(defmacro v [] (first (map (fn [_] (lc-test.h/helper)) [0])))\n"))
+    (spit-lib "b" "(ns lc-test.b (:require [lc-test.m :refer [v]]))\n(deftype T [a])\n(def x [(v) (.a (T. 2))])\n")
+    (testing "a miss compiles and fills the cache"
+      (let [[x phases] (load-cached dir cache)]
+        (is (= [1 2] x))
+        (is (contains? phases :analyze))
+        (is (seq (file-seq cache)))))
+    (testing "a hit defines the cached classes without compiling"
+      (let [[x phases] (load-cached dir cache)]
+        (is (= [1 2] x))
+        (is (not (contains? phases :analyze)))
+        (is (contains? phases :define-class))))
+    (testing "changing a fn the macro calls from another file is a miss"
+      (spit-lib "h" "(ns lc-test.h)\n(defn helper [] 3)\n")
+      (let [[x phases] (load-cached dir cache)]
+        (is (= [3 2] x))
+        (is (contains? phases :analyze))))
+    (testing "changing a macro the form uses is a miss"
+      (spit-lib "m" "(ns lc-test.m)\n(defmacro v [] 4)\n")
+      (let [[x phases] (load-cached dir cache)]
+        (is (= [4 2] x))
+        (is (contains? phases :analyze))))
+    (testing "a def that fails to compile throws, expanding its macros once"
+      (spit-lib "m" "(ns lc-test.m)\n(defmacro noisy [x] (println \"expanding\") x)\n")
+      (spit-lib "e" "(ns lc-test.e (:require lc-test.m))\n(def y (lc-test.m/noisy (undefined-fn)))\n")
+      (let [[out msg] (eval-cached dir cache
+                                   '(let [w (java.io.StringWriter.)
+                                          msg (binding [*out* w]
+                                                (try (require 'lc-test.e) nil
+                                                     (catch Exception e (.getMessage e))))]
+                                      (prn [(str w) msg])))]
+        (is (= "expanding\n" out))
+        (is (re-find #"undefined-fn" msg))))))
+
 (defn gen-name []
   ;; Not all names can be correctly demunged. Skip names that contain
   ;; a munge word as they will not properly demunge.
@@ -11,7 +11,8 @@
 
 (ns clojure.test-clojure.data-structures
   (:use clojure.test
-        [clojure.test.generative :exclude (is)])
+        [clojure.test.generative :exclude (is)]
+        [clojure.test-helper :only (eval-in-jvm)])
   (:require [clojure.test-clojure.generators :as cgen]
             [clojure.data.generators :as gen]))
 
@@ -1009,3 +1010,64 @@
        {:a 2 :b -2} (assoc {} :b -2 :a 2))
   (is (thrown? IllegalArgumentException (assoc [] 0 5 1)))
   (is (thrown? IllegalArgumentException (assoc {} :b -2 :a))))
+
+(def ^:private hash-equiv-mismatches
+  ;; the pairs that are = but don't hash alike, which should be none whether or not
+  ;; clojure.hash.murmur3 is set
+  '(let [v (vec (range 100))]
+     (vec (concat
+           (for [[x y] (partition 2 [1 (int 1)
+                                     1 1N
+                                     -1 (byte -1)
+                                     Long/MIN_VALUE (bigint Long/MIN_VALUE)
+                                     [] ()
+                                     [] (lazy-seq nil)
+                                     [] clojure.lang.PersistentQueue/EMPTY
+                                     [1 2 3] '(1 2 3)
+                                     [1 2 3] (seq [1 2 3])
+                                     [1 2 3] (map identity [1 2 3])
+                                     [1 2 3] (conj clojure.lang.PersistentQueue/EMPTY 1 2 3)
+                                     [1 2 3] (java.util.ArrayList. [1 2 3])
+                                     [1 2 3] (vector-of :long 1 2 3)
+                                     #{1 2 3} (sorted-set 3 2 1)
+                                     #{1 2 3} (java.util.HashSet. [1 2 3])
+                                     {:a 1 :b 2} (sorted-map :b 2 :a 1)
+                                     {:a 1 :b 2} (hash-map :a 1 :b 2)
+                                     {:a 1 :b 2} (java.util.HashMap. {:a 1 :b 2})
+                                     {[1] #{2}} {'(1) (sorted-set 2)}])
+                 :when (not (and (= x y) (= (hash x) (hash y))))]
+             (str x " " (class y)))
+           (when-not (= (hash v) (hash (seq v)) (hash (apply list v)))
+             ["(range 100)"])))))
+
+(deftest test-hash-consistent-with-equiv
+  (is (= [] (eval hash-equiv-mismatches)))
+  (testing "with clojure.hash.murmur3"
+    (let [{:keys [exit out err]} (eval-in-jvm {"clojure.hash.murmur3" true}
+                                              `(prn [clojure.lang.Util/murmur3Hash
+                                                     ~hash-equiv-mismatches]))]
+      (is (zero? exit) err)
+      (is (= [true []] (read-string out))))))
+
+(deftest test-array-map-past-8-entries
+  (let [ks (concat [nil :k 'sym 1 1.5 "s" [1 2] #{:x}] (map #(str "key-" %) (range 8)))
+        m (apply array-map (interleave ks (range)))
+        ;; equal keys that aren't the ones in the map
+        eks (map #(if (string? %) (String. ^String %) (read-string (pr-str %))) ks)]
+    (testing "maps of up to clojure.array.map.threshold entries stay array maps"
+      (is (instance? clojure.lang.PersistentArrayMap m))
+      (is (instance? clojure.lang.PersistentArrayMap (into {} m)))
+      (is (instance? clojure.lang.PersistentArrayMap (read-string (pr-str m)))))
+    (testing "keys are found by equal keys, as a hash map would find them"
+      (is (= (range 16) (map m eks) (map (apply hash-map (interleave ks (range))) eks)))
+      (is (= (range 16) (map (assoc m :v 0) eks)))
+      (is (= [3 3 3 0] [(get m 1) (get m (int 1)) (get m 1N) (get m nil)])))
+    (testing "maps made from one find keys as it does"
+      (let [m2 (-> m (assoc "key-3" :x) (with-meta {:a 1}))]
+        (is (= :x (m2 (String. "key-3"))))
+        (is (= (remove #{11} (range 16)) (map (dissoc m2 "key-3") (remove #{"key-3"} eks))))
+        (is (= 17 (count (assoc m2 "new" 1))))
+        (is (= 1 ((assoc m2 "new" 1) (String. "new"))))))
+    (testing "duplicate keys are caught"
+      (is (thrown? IllegalArgumentException
+                   (read-string (str "{" (apply str (interpose " " (range 20))) " 0 1}")))))))
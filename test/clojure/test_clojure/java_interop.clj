@@ -10,7 +10,8 @@
 
 
 (ns clojure.test-clojure.java-interop
-  (:use clojure.test))
+  (:use clojure.test
+        [clojure.test-helper :only (eval-in-jvm)]))
 
 ; http://clojure.org/java_interop
 ; http://clojure.org/compilation
@@ -61,6 +62,67 @@
          (. (. System (getProperties)) (get "os.name")))))
 
 
+;; untagged calls go through a per-site cache keyed on receiver and arg classes
+(defn- reflective-index-of [s x] (.indexOf s x))
+(defn- reflective-max [a b] (Math/max a b))
+
+(deftest test-reflective-call-sites
+  (are [x y] (= x y)
+      1  (reflective-index-of "abc" "b")
+      1  (reflective-index-of "abc" 98)
+      2  (reflective-index-of (StringBuilder. "abc") "c")
+      1  (reflective-index-of [:a :b] :b)
+      -1 (reflective-index-of [:a :b] nil))
+  (dotimes [_ 3]
+    (are [x y] (= x y)
+        1  (reflective-index-of "abc" "b")
+        1  (reflective-index-of "abc" 98))
+    (is (= 3 (reflective-max 1 3)))
+    (is (= 3.0 (reflective-max 1.0 3.0))))
+  (is (thrown? IllegalArgumentException (reflective-index-of "abc" :b)))
+  (is (thrown? NullPointerException (reflective-index-of nil "b"))))
+
+(deftest test-reflective-fields
+  (let [p (identity (java.awt.Point. 1 2))
+        e (identity (clojure.lang.Compiler$CompilerException. nil 1 1 (Exception.)))]
+    (set! (.-x p) 5)
+    (are [x y] (= x y)
+        5   (.-x p)
+        2   (. p -y)
+        nil (.-source e))
+    (is (thrown? IllegalArgumentException (.-z p)))))
+
+;; whether the reflective call in f runs through a reflectasm accessor, which shows as a
+;; frame of the generated MethodAccess class under the call
+(def reflective-asm-check
+  '(let [out-of-bounds (fn [l] (.get l 5))
+         through-asm? (fn [f]
+                        (try (f)
+                          (catch IndexOutOfBoundsException e
+                            (boolean (some #(re-find #"MethodAccess$" (.getClassName ^StackTraceElement %))
+                                           (.getStackTrace e))))))
+         l (java.util.ArrayList. [1 2])
+         p (java.awt.Point. 1 2)
+         s (fn [x] (.toUpperCase x))]
+     (set! (.-x p) 5)
+     [(through-asm? #(out-of-bounds l))
+      (through-asm? #(clojure.lang.Reflector/invokeInstanceMethod l "get" (object-array [5])))
+      (vec (for [_ (range 100)] (s "ab")))
+      [(.-x p) (.-y p)]
+      (class (clojure.lang.Reflector/invokeConstructor java.util.ArrayList (object-array 0)))]))
+
+(deftest test-reflector-asm-backend
+  (let [expected [true true (vec (repeat 100 "AB")) [5 2] java.util.ArrayList]]
+    (testing "without clojure.reflector.asm calls go through java.lang.reflect"
+      (is (= (assoc expected 0 false 1 false) (eval reflective-asm-check))))
+    (testing "with it compiled call sites and Reflector use the accessors"
+      (let [{:keys [exit out err]} (eval-in-jvm {"clojure.reflector.asm" true}
+                                                `(prn ~reflective-asm-check))]
+        (is (zero? exit) err)
+        (is (= (update-in expected [4] #(.getName ^Class %))
+               (update-in (read-string out) [4] str)))))))
+
+
 (deftest test-doto
   (let [m (doto (new java.util.HashMap)
             (.put "a" 1)
@@ -23,3 +23,26 @@
       (are [result lookup] (= result (find-keyword this-ns lookup))
            ::foo "foo"
            nil (str absent-keyword-sym)))))
+
+(defrecord R1 [a])
+(defrecord R2 [b a])
+(defrecord R3 [c b a])
+(defrecord R4 [a])
+(defrecord R5 [a])
+(deftype NoLookup [a])
+
+(defn lookup-a [x] (:a x))
+
+(deftest keyword-lookup-sites
+  (testing "a site stays correct as it sees more target classes than it caches"
+    (let [targets [(->R1 1) (->R2 0 2) {:a 3} (->R3 0 0 4) nil (->R4 5) (java.util.HashMap. {:a 6})
+                   (->R5 7) (hash-map :a 8) (->R1 9) (NoLookup. 10) (->R2 0 11)]
+          expected [1 2 3 4 nil 5 6 7 8 9 nil 11]]
+      (dotimes [_ 3]
+        (is (= expected (map lookup-a targets)))
+        (is (= (reverse expected) (map lookup-a (reverse targets)))))))
+  (testing "sites seeing non-lookup targets before records"
+    (let [f (fn [x] (:a x))]
+      (is (= [nil 6 1 nil 2] (map f [nil (java.util.HashMap. {:a 6}) (->R1 1) "x" (->R4 2)])))))
+  (testing "records missing the key"
+    (is (= [nil 1] (map #(:b %) [(->R1 1) (->R2 1 2)])))))
@@ -9,7 +9,7 @@
 ; Author: Frantisek Sodomka, Robert Lachlan
 
 (ns clojure.test-clojure.multimethods
-  (:use clojure.test [clojure.test-helper :only (with-var-roots)])
+  (:use clojure.test [clojure.test-helper :only (with-var-roots get-field)])
   (:require [clojure.set :as set]))
 
 ; http://clojure.org/multimethods
@@ -232,3 +232,63 @@
     (is (fn? (get-method simple :b)))
     (= (:b ((get-method simple :b) 1)))
     (is (nil? (get-method simple :c)))))
+
+(deftest dispatch-cache-test
+  (testing "Cached dispatch, the default included, follows method, preference and hierarchy changes"
+    (let [h (atom (make-hierarchy))
+          m (clojure.lang.MultiFn. "cached" identity :default h)]
+      (.addMethod m :default (constantly :default))
+      (.addMethod m ::shape (constantly :shape))
+      (dotimes [_ 2]
+        (is (= [:default :default] (map m [::square ::circle]))))
+      (swap! h derive ::square ::shape)
+      (is (= [:shape :default] (map m [::square ::circle])))
+      (.addMethod m ::circle (constantly :circle))
+      (is (= [:shape :circle] (map m [::square ::circle])))
+      (swap! h derive ::square ::rect)
+      (.addMethod m ::rect (constantly :rect))
+      (is (thrown? IllegalArgumentException (m ::square)))
+      (.preferMethod m ::rect ::shape)
+      (is (= :rect (m ::square)))
+      (.removeMethod m ::rect)
+      (is (= :shape (m ::square)))))
+  (testing "Dispatch values falling to the default don't grow the cache"
+    (let [m (clojure.lang.MultiFn. "defaulting" identity :default #'clojure.core/global-hierarchy)
+          cached #(count (get-field clojure.lang.MultiFn$State 'methodCache (get-field clojure.lang.MultiFn 'state m)))]
+      (.addMethod m :default (constantly :default))
+      (.addMethod m :a (constantly :a))
+      (is (every? #{:default} (map m (range 100000))))
+      (is (= 0 (cached)))
+      (is (= [:a :default] (map m [:a 1])))
+      (is (= 1 (cached)))))
+  (testing "Dispatching while methods are added from other threads"
+    (let [m (clojure.lang.MultiFn. "concurrent" identity :default #'clojure.core/global-hierarchy)
+          fs (doall (for [t (range 4)]
+                      (future
+                        (doseq [i (range 100)]
+                          (.addMethod m [t i] (constantly [t i])))
+                        (every? #(= [t %] (m [t %])) (range 100)))))]
+      (is (every? deref fs))
+      (is (= 400 (count (methods m)))))))
+
+(deftest class-dispatch-test
+  (testing "Multimethods dispatching on class follow the hierarchy and method changes"
+    (let [h (atom (make-hierarchy))
+          m (clojure.lang.MultiFn. "by-class" class :default h)]
+      (.addMethod m java.util.Collection (constantly :coll))
+      (.addMethod m :default (constantly :default))
+      (dotimes [_ 2]
+        (is (= [:coll :coll :default :default] (map m [[] (java.util.ArrayList.) "s" nil]))))
+      (swap! h derive String ::text)
+      (.addMethod m ::text (constantly :text))
+      (is (= :text (m "s")))
+      (.addMethod m clojure.lang.PersistentVector (constantly :vector))
+      (is (= [:vector :coll] (map m [[] (java.util.ArrayList.)])))
+      (.addMethod m nil (constantly :nil))
+      (is (= :nil (m nil)))))
+  (testing "Multimethods dispatching on type honor :type metadata"
+    (let [m (clojure.lang.MultiFn. "by-type" type :default #'clojure.core/global-hierarchy)]
+      (.addMethod m clojure.lang.PersistentArrayMap (constantly :map))
+      (.addMethod m ::tagged (constantly :tagged))
+      (dotimes [_ 2]
+        (is (= [:map :tagged :map] (map m [{} (with-meta {} {:type ::tagged}) (with-meta {} {:a 1})])))))))
@@ -9,7 +9,8 @@
 ; Authors: Frantisek Sodomka, Stuart Halloway
 
 (ns clojure.test-clojure.ns-libs
-  (:use clojure.test))
+  (:use clojure.test
+        [clojure.test-helper :only (eval-in-jvm)]))
 
 ; http://clojure.org/namespaces
 
@@ -95,3 +96,67 @@
     (testing "referring to something non-public"
       (is (thrown-with-msg? IllegalAccessError #"hidden-var is not public"
             (refer temp-ns :only '(hidden-var)))))))
+
+;; Writes each [lib source] to its root resource under a temp dir, then in a new JVM
+;; with the dir on its classpath evaluates form and returns what it prints
+(defn- eval-with-libs [libs form]
+  (let [dir (.toFile (java.nio.file.Files/createTempDirectory
+                       "libs" (make-array java.nio.file.attribute.FileAttribute 0)))]
+    (try
+      (doseq [[lib source] libs]
+        (let [f (java.io.File. dir (str (#'clojure.core/root-resource lib) ".clj"))]
+          (.mkdirs (.getParentFile f))
+          (spit f source)))
+      (let [{:keys [exit out err]} (eval-in-jvm {} form dir)]
+        (when-not (zero? exit) (throw (Exception. err)))
+        (read-string out))
+      (finally
+        (doseq [f (reverse (file-seq dir))]
+          (.delete ^java.io.File f))))))
+
+(deftest parallel-require
+  (let [p (str (gensym "parallel-load-"))
+        lib #(symbol (str p \. %))
+        record (fn [x] `(swap! ~'user/loads conj '~(lib x)))
+        [order x loaded-in same-ns out cycle]
+        (eval-with-libs
+         {(lib 'a) (str `(~'ns ~(lib 'a)) `(def ~'x 1) (record 'a))
+          (lib 'b) (str `(~'ns ~(lib 'b) (:require [~(symbol p) [~'a :as ~'a]]))
+                        `(def ~'x (inc ~(symbol (str (lib 'a)) "x")))
+                        `(require '~(lib 'shared))
+                        (record 'b))
+          (lib 'c) (str `(~'ns ~(lib 'c) (:use ~(lib 'a)))
+                        `(require '~(lib 'shared))
+                        (record 'c))
+          (lib 'd) (str `(~'ns ~(lib 'd) (:require ~(lib 'b) ~(lib 'c)))
+                        `(def ~'x (inc ~(symbol (str (lib 'b)) "x")))
+                        `(def ~'loaded-in (ns-name *ns*))
+                        (record 'd))
+          (lib 'shared) (str `(~'ns ~(lib 'shared)) (record 'shared))
+          (lib 'cycle-a) (str `(~'ns ~(lib 'cycle-a) (:require ~(lib 'cycle-b))))
+          (lib 'cycle-b) (str `(~'ns ~(lib 'cycle-b) (:require ~(lib 'cycle-a))))}
+         `(do (def ~'loads (atom []))
+              (let [ns# *ns*
+                    out# (with-out-str (require '~(lib 'd) :parallel :verbose))]
+                (prn [@~'loads
+                      @(ns-resolve '~(lib 'd) '~'x)
+                      @(ns-resolve '~(lib 'd) '~'loaded-in)
+                      (= ns# *ns*)
+                      out#
+                      (try (require '~(lib 'cycle-a) :parallel)
+                           (catch Exception e# (.getMessage e#)))]))))
+        index #(.indexOf ^java.util.List order (lib %))]
+    (testing "each lib loads once, after the libs its ns form requires"
+      (is (= (set (map lib '[a b c d shared])) (set order)))
+      (is (= 5 (count order)))
+      (is (< (index 'a) (index 'b) (index 'd)))
+      (is (< (index 'a) (index 'c) (index 'd))))
+    (testing "libs load in their own namespace and leave *ns* alone"
+      (is (= 3 x))
+      (is (= (lib 'd) loaded-in))
+      (is same-ns))
+    (testing "verbose prints each lib's load time"
+      (doseq [x '[a b c d]]
+        (is (re-find (re-pattern (str ";; loaded " (lib x) " in [0-9.]+ msecs")) out))))
+    (testing "a cycle in ns forms is still reported"
+      (is (re-find #"Cyclic load dependency" (str cycle))))))
@@ -634,3 +634,34 @@
 (deftest test-leading-dashes
   (is (= 10 (-do-dashed (Dashed.))))
   (is (= [10] (map -do-dashed [(Dashed.)]))))
+
+(defprotocol CacheTestProtocol
+  (cache-test [x]))
+
+(extend-protocol CacheTestProtocol
+  nil
+  (cache-test [x] :nil)
+  java.util.Collection
+  (cache-test [x] :collection)
+  Number
+  (cache-test [x] :number)
+  Object
+  (cache-test [x] :object))
+
+(deftest method-impl-cache
+  (testing "impls are found through interfaces, superclasses and for nil, and stay found"
+    (let [xs [nil [] '(1) #{} 1 1.5 1N "s" :k (java.util.ArrayList.) 2 nil]]
+      (dotimes [_ 3]
+        (is (= [:nil :collection :collection :collection :number :number :number
+                :object :object :collection :number :nil]
+               (map cache-test xs))))))
+  (testing "many classes"
+    (let [xs (map #(.newInstance ^Class %)
+                  (for [i (range 50)]
+                    (eval `(deftype ~(symbol (str "CacheTest" i)) []))))]
+      (dotimes [_ 2]
+        (is (every? #{:object} (map cache-test xs))))))
+  (testing "extending again replaces impls already cached"
+    (is (= :number (cache-test 1)))
+    (extend Long CacheTestProtocol {:cache-test (fn [x] :long)})
+    (is (= [:long :number :nil] (map cache-test [1 1.5 nil])))))
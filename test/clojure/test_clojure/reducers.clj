@@ -61,3 +61,22 @@
 (deftest test-nil
   (is (= {:k :v} (reduce-kv assoc {:k :v} nil)))
   (is (= 0 (r/fold + nil))))
+
+(deftest test-fold
+  (let [catv (fn ([] []) ([a b] (into a b)))]
+    (doseq [size [0 1 31 32 33 1025 40000]
+            n [1 4 512]]
+      (let [v (vec (range size))
+            m (into (sorted-map) (map vector v v))]
+        (is (= v (r/fold n catv conj v)))
+        (is (= (seq m) (seq (r/fold n catv (fn [acc k v] (conj acc [k v])) m))))
+        (is (= (reduce + v)
+               (r/fold n + + (set v))
+               (r/fold n + + (into (sorted-set) v))))
+        (is (= (reduce + v) (r/fold n + + (range size))))))
+    (is (= 3 (r/fold 1 + (fn [acc x] (if (= x 2) (reduced (+ acc x)) (+ acc x))) [1 2 100]))
+        "reduced stops the serial piece it occurs in")
+    (is (= (repeat 4 (range 100))
+           (r/fold 1 catv (fn [acc x] (conj acc (r/fold 8 catv conj (vec (range x)))))
+                   (vec (repeat 4 100))))
+        "folds nest inside the pool")))
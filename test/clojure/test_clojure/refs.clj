@@ -10,7 +10,8 @@
 
 
 (ns clojure.test-clojure.refs
-  (:use clojure.test))
+  (:use clojure.test
+        [clojure.test-helper :only (eval-in-jvm)]))
 
 ; http://clojure.org/refs
 
@@ -20,3 +21,106 @@
 ; ensure ref-set alter commute
 ; set-validator get-validator
 
+
+(deftest transactions-see-consistent-snapshots
+  (let [a (ref 1000) b (ref 0)
+        transfers (doall (for [_ (range 4)]
+                           (future (dotimes [_ 500]
+                                     (dosync (alter a dec) (alter b inc))))))
+        sums (doall (for [_ (range 4)]
+                      (future (doall (for [_ (range 500)]
+                                       (dosync (+ @a @b)))))))]
+    (doseq [f transfers] @f)
+    (is (every? #(= 1000 %) (mapcat deref sums)))
+    (is (= [-1000 2000] [@a @b]))))
+
+(deftest read-only-transactions-leave-the-clock
+  (let [clock (.get (doto (.getDeclaredField clojure.lang.LockingTransaction "lastPoint")
+                      (.setAccessible true))
+                    nil)
+        r (ref 0)
+        ;; read before asserting, as is commits its report counters in a transaction
+        before (.get clock)
+        reads (do (dotimes [_ 10] (dosync @r))
+                  (dotimes [_ 10] (dosync (ensure r)))
+                  (.get clock))
+        writes (do (dotimes [_ 10] (dosync (alter r inc)))
+                   (.get clock))]
+    (is (= before reads))
+    (is (= (+ before 10) writes))))
+
+;; In a child JVM with clojure.stm.metrics=true, makes one transaction write a ref
+;; written since its read point, and an older one barge a younger one holding a ref,
+;; returning the metrics of both refs, the global ones and the commits made.
+(def ^:private conflict-and-barge
+  '(let [commits (:commits (stm-metrics))
+         r (ref 0) b (ref 0) clock (ref 0)
+         a-read (promise) r-written (promise)
+         a (future (dosync (deliver a-read true)
+                           @r-written
+                           (ref-set r 10)))
+         _ (do @a-read
+               (dosync (alter r inc))
+               (deliver r-written true)
+               @a)
+         old-started (promise) young-wrote (promise) old-wrote (promise)
+         old (future (dosync (deliver old-started true)
+                             @young-wrote
+                             (Thread/sleep 50)
+                             (alter b inc)
+                             (deliver old-wrote true)))
+         _ @old-started
+         ;; a commit between the two starts, so the second is younger
+         _ (dosync (alter clock inc))
+         young (future (dosync (alter b inc)
+                               (deliver young-wrote true)
+                               (deref old-wrote 5000 nil)))]
+     @old @young
+     (prn [(ref-metrics r) (ref-metrics b) (stm-metrics) (- (:commits (stm-metrics)) commits) @r @b])
+     (shutdown-agents)))
+
+(deftest stm-metrics-follow-property
+  (testing "off unless asked for"
+    (is (nil? (stm-metrics)))
+    (is (nil? (ref-metrics (ref 0)))))
+  (testing "retries and barges are counted on the refs involved"
+    (let [{:keys [exit out err]} (eval-in-jvm {"clojure.stm.metrics" true} conflict-and-barge)
+          _ (when-not (zero? exit) (throw (Exception. err)))
+          [r b stm commits rv bv] (read-string out)]
+      (is (= [10 2] [rv bv]))
+      (is (= 1 (get-in r [:retries :write-conflict])))
+      (is (= [1 1] [(:barge-attempts b) (:barges b)]))
+      (is (= 1 (get-in stm [:retries :barged])))
+      (is (= #{:lock-timeout :write-conflict :writer-running :barged :history-fault}
+             (set (keys (:retries stm)))))
+      (is (= 5 commits)))))
+
+(deftest transactional-hash-map
+  (let [m (clojure.lang.TransactionalHashMap.)]
+    (testing "changes need a transaction, reads don't"
+      (is (thrown? IllegalStateException (.put m :a 1)))
+      (dosync (.put m :a 1) (.put m nil 2))
+      (is (= [1 2 2] [(.get m :a) (.get m nil) (.size m)])))
+    (testing "the bins grow, keeping the entries and count"
+      (dosync (dotimes [i 2000] (.put m i (* i i))))
+      (is (= 2002 (.size m) (count (.entrySet m))))
+      (is (every? #(= (* % %) (.get m %)) (range 2000))))
+    (testing "removes are counted, failed ones aren't"
+      (dosync (.remove m :a) (.remove m :none) (.remove m 1 :wrong) (.remove m 2 4))
+      (is (= 2000 (.size m)))
+      (is (= [nil nil 1] [(.get m :a) (.get m 2) (.get m 1)])))
+    (testing "writers from many threads see and count each other's entries"
+      (let [fs (doall (for [t (range 4)]
+                        (future (dotimes [i 500]
+                                  (dosync (.put m [t i] i)
+                                          (.putIfAbsent m [t 0] :no))))))
+            sizes (doall (for [_ (range 4)]
+                           (future (doall (repeatedly 200 #(.size m))))))]
+        (doseq [f fs] @f)
+        (is (every? #(<= 2000 % 4000) (mapcat deref sizes)))
+        (is (= 4000 (.size m) (count (.entrySet m))))
+        (is (every? (fn [[t i]] (= i (.get m [t i]))) (for [t (range 4) i (range 500)] [t i])))))
+    (testing "clear"
+      (dosync (.put m :b 1) (.clear m))
+      (is (= 0 (.size m)))
+      (is (.isEmpty m)))))
@@ -957,6 +957,29 @@
       (range 3 9 10) '(3)
       (range 3 9 -1) () ))
 
+(deftest test-long-range
+  (let [lazy-range (fn [start end step]
+                     (take-while #(if (pos? step) (< % end) (> % end))
+                                 (iterate #(+' % step) start)))]
+    (doseq [[start end step] [[0 100 1] [0 100 7] [5 -40 -3] [-64 64 32]
+                              [0 33 1] [0 1000 1] [10 -1000 -1]
+                              [(- Long/MAX_VALUE 10) Long/MAX_VALUE 3]
+                              [(+ Long/MIN_VALUE 10) Long/MIN_VALUE -4]]]
+      (let [r (range start end step)
+            expected (lazy-range start end step)]
+        (is (instance? clojure.lang.LongRange r))
+        (is (= expected r (seq r)))
+        (is (= (count expected) (count r)))
+        (is (= (last expected) (nth r (dec (count r)))))
+        (is (= :none (nth r (count r) :none) (nth r -1 :none)))
+        (is (= (reduce +' expected) (reduce +' r) (reduce +' 0 r)))
+        (is (= (hash expected) (hash r))))))
+  (is (= 3 (reduce (fn [acc x] (if (= x 3) (reduced acc) (+ acc x))) 0 (range 100))))
+  (is (= [0 2 4 6 8] (into [] (filter even? (range 10)))))
+  (is (thrown? IndexOutOfBoundsException (nth (range 5) 5)))
+  (is (= (with-meta (range 3) {:a 1}) [0 1 2]))
+  (is (= {:a 1} (meta (with-meta (range 3) {:a 1})))))
+
 
 (deftest test-empty?
   (are [x] (empty? x)
@@ -25,6 +25,37 @@
       (eval `(binding [a 4] a)) 4     ; regression in Clojure SVN r1370
   ))
 
+;; lookups are cached per var and frame, these move between frames and threads
+(def ^:dynamic b nil)
+(deftest binding-lookups-follow-frames
+  (binding [a 1]
+    (is (= 1 a))
+    (binding [a 2 b 3]
+      (is (= [2 3] [a b]))
+      (set! a 4)
+      (is (= 4 a)))
+    (is (= [1 nil] [a b]))
+    (let [outer (clojure.lang.Var/getThreadBindingFrame)
+          inner (binding [a 5] (clojure.lang.Var/cloneThreadBindingFrame))]
+      (is (= 1 a))
+      (clojure.lang.Var/resetThreadBindingFrame inner)
+      (is (= 5 a))
+      (clojure.lang.Var/resetThreadBindingFrame outer)
+      (is (= 1 a))
+      (is (= 5 @(future (clojure.lang.Var/resetThreadBindingFrame inner) a)))
+      (is (= 1 a))))
+  (is (not (bound? #'a)))
+  (is (= 6 (binding [a 5 a 6] a)))
+  (is (= [7 8] (with-bindings (array-map #'a 7 #'b 8) [a b])))
+  (let [threads (for [i (range 4)]
+                  (future (binding [a i]
+                            (every? #(= i %) (repeatedly 10000 #(var-get #'a))))))]
+    (is (every? true? (map deref (doall threads)))))
+  (let [vs (vec (repeatedly 20 #(.setDynamic (clojure.lang.Var/create))))]
+    (is (= (range 20) (with-bindings (zipmap vs (range 20))
+                        (dotimes [_ 3] (mapv var-get vs))
+                        (mapv var-get vs))))))
+
 ; var-get var-set alter-var-root [var? (predicates.clj)]
 ; with-in-str with-out-str
 ; with-open
@@ -16,7 +16,8 @@
 ;;  Created 04 November 2010
 
 (ns clojure.test-helper
-  (:use clojure.test))
+  (:use clojure.test)
+  (:require [clojure.java.shell :as sh]))
 
 (let [nl (System/getProperty "line.separator")] 
   (defn platform-newlines [s] (.replace s "\n" nl)))
@@ -36,6 +37,17 @@
      (eval
       '(do ~@forms))))
 
+(defn eval-in-jvm
+  "Evaluate form with clojure.main in a new JVM, with the system properties
+  in props set and dirs ahead of this JVM's classpath. Returns the :exit,
+  :out and :err of the process."
+  [props form & dirs]
+  (apply sh/sh (str (System/getProperty "java.home") "/bin/java")
+         (concat (for [[k v] props] (str "-D" k "=" v))
+                 ["-cp" (apply str (interpose java.io.File/pathSeparator
+                                              (concat dirs [(System/getProperty "java.class.path")])))
+                  "clojure.main" "-e" (pr-str form)])))
+
 (defn causes
   [^Throwable throwable]
   (loop [causes []